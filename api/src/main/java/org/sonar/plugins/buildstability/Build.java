@@ -20,6 +20,7 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.builder.ToStringBuilder;
 
 import java.util.Date;
+import java.util.Map;
 
 /**
  * TODO comment me
@@ -37,6 +38,7 @@ public class Build {
   public static final String NUMBER_FIELD = "num";
   public static final String TIMESTAMP_FIELD = "time";
   public static final String DURATION_FIELD = "duration";
+  public static final String QUEUE_FIELD = "queue";
   public static final String STABILITY_FIELD = "stability";
   public static final String STATUS_FIELD = "res";
   public static final String DEVELOPERS_FIELD = "dev";
@@ -54,12 +56,12 @@ public class Build {
     private String causeDescription;
 
     /**
-     * User who executed the build on CI
+     * User who executed the build on CI, usually shared with other builds through {@link StringDictionary#intern(String)}
      */
     private String causeUser;
 
     /**
-     * Project that executed the build
+     * Project that executed the build, usually shared with other builds through {@link StringDictionary#intern(String)}
      */
     private String causeProject;
 
@@ -111,7 +113,17 @@ public class Build {
   private Double duration;
 
   /**
-   * TODO comment me, see SONARPLUGINS-482
+   * Time spent by build in queue waiting for executor in millisec, null if CI server doesn't provide it.
+   */
+  private Double queueDuration;
+
+  /**
+   * Durations of stages of pipeline build in millisec by name of stage, null if they were not retrieved.
+   */
+  private Map<String, Double> stageDurations;
+
+  /**
+   * Authors of changes, which were built, null if CI server doesn't provide them, see SONARPLUGINS-482.
    */
   private String[] developers;
 
@@ -235,6 +247,33 @@ public class Build {
     return this;
   }
 
+  public Double getQueueDuration() {
+    return queueDuration;
+  }
+
+  public Build setQueueDuration(Double queueDuration) {
+    this.queueDuration = queueDuration;
+    return this;
+  }
+
+  public String[] getDevelopers() {
+    return developers;
+  }
+
+  public Build setDevelopers(String... developers) {
+    this.developers = developers;
+    return this;
+  }
+
+  public Map<String, Double> getStageDurations() {
+    return stageDurations;
+  }
+
+  public Build setStageDurations(Map<String, Double> stageDurations) {
+    this.stageDurations = stageDurations;
+    return this;
+  }
+
   public long getTimestamp() {
     return timestamp;
   }
@@ -248,21 +287,52 @@ public class Build {
     return this;
   }
 
+  /**
+   * @return build with the same fields, which can be modified without affecting this one
+   */
+  public Build copy() {
+    Build copy = new Build();
+    copyTo(copy);
+    return copy;
+  }
+
+  /**
+   * Copies fields as they are, without calling accessors, which may be overridden.
+   */
+  protected void copyTo(Build copy) {
+    copy.causeDescription = causeDescription;
+    copy.causeUser = causeUser;
+    copy.causeProject = causeProject;
+    copy.causeProjectBuild = causeProjectBuild;
+    copy.causeProjectUrl = causeProjectUrl;
+    copy.url = url;
+    copy.number = number;
+    copy.timestamp = timestamp;
+    copy.result = result;
+    copy.stable = stable;
+    copy.successful = successful;
+    copy.duration = duration;
+    copy.queueDuration = queueDuration;
+    copy.stageDurations = stageDurations;
+    copy.developers = developers;
+  }
+
   @Override
   public String toString() {
     return new ToStringBuilder(this).
-        append(Build.URL_FIELD, url).
-        append(Build.CAUSE_DESCRIPTION_FIELD, causeDescription).
-        append(Build.CAUSE_USER_FIELD, causeUser).
-        append(Build.CAUSE_PROJECT_FIELD, causeProject).
-        append(Build.CAUSE_PROJECT_BUILD_FIELD, causeProjectBuild).
-        append(Build.CAUSE_PROJECT_URL_FIELD, causeProjectUrl).
+        append(Build.URL_FIELD, getUrl()).
+        append(Build.CAUSE_DESCRIPTION_FIELD, getCauseDescription()).
+        append(Build.CAUSE_USER_FIELD, getCauseUser()).
+        append(Build.CAUSE_PROJECT_FIELD, getCauseProject()).
+        append(Build.CAUSE_PROJECT_BUILD_FIELD, getCauseProjectBuild()).
+        append(Build.CAUSE_PROJECT_URL_FIELD, getCauseProjectUrl()).
         append(Build.NUMBER_FIELD, number).
         append(Build.TIMESTAMP_FIELD, timestamp).
         append(Build.STATUS_FIELD, result).
         append("stable", stable).
         append("successful", successful).
         append(Build.DURATION_FIELD, duration).
+        append(Build.QUEUE_FIELD, queueDuration).
         toString();
   }
 
@@ -290,13 +360,15 @@ public class Build {
         build.setTimestamp(Long.parseLong(value));
       } else if (Build.DURATION_FIELD.equalsIgnoreCase(key)) {
         build.setDurationInSeconds(Long.parseLong(value));
+      } else if (Build.QUEUE_FIELD.equalsIgnoreCase(key)) {
+        build.setQueueDuration(Long.parseLong(value) * 1000.0);
       } else if (Build.STABILITY_FIELD.equalsIgnoreCase(key)) {
         build.setStable(Build.STABLE_STATUS.equalsIgnoreCase(value));
       } else if (Build.STATUS_FIELD.equalsIgnoreCase(key)) {
         build.setResult(value);
         build.setSuccessful(Build.SUCCESSFUL_STATUS.equalsIgnoreCase(value));
       } else if (Build.DEVELOPERS_FIELD.equalsIgnoreCase(key)) {
-        // TODO
+        build.setDevelopers(StringUtils.split(value, ','));
       }
     }
     if (build.number == null || build.timestamp == null || build.duration == null || build.successful == null) {
@@ -307,18 +379,20 @@ public class Build {
 
   public String convertToString() {
     StringBuilder sb = new StringBuilder();
-    append(sb, Build.URL_FIELD, url); // TODO escape
-    append(sb, Build.CAUSE_DESCRIPTION_FIELD, causeDescription);
-    append(sb, Build.CAUSE_USER_FIELD, causeUser);
-    append(sb, Build.CAUSE_PROJECT_FIELD, causeProject);
-    append(sb, Build.CAUSE_PROJECT_BUILD_FIELD, causeProjectBuild);
-    append(sb, Build.CAUSE_PROJECT_URL_FIELD, causeProjectUrl);
+    append(sb, Build.URL_FIELD, getUrl()); // TODO escape
+    append(sb, Build.CAUSE_DESCRIPTION_FIELD, getCauseDescription());
+    append(sb, Build.CAUSE_USER_FIELD, getCauseUser());
+    append(sb, Build.CAUSE_PROJECT_FIELD, getCauseProject());
+    append(sb, Build.CAUSE_PROJECT_BUILD_FIELD, getCauseProjectBuild());
+    append(sb, Build.CAUSE_PROJECT_URL_FIELD, getCauseProjectUrl());
     append(sb, Build.NUMBER_FIELD, number);
     append(sb, Build.TIMESTAMP_FIELD, timestamp);
     append(sb, Build.DURATION_FIELD, getDurationInSeconds());
+    append(sb, Build.QUEUE_FIELD, queueDuration == null ? null : (long) (queueDuration / 1000));
     append(sb, Build.STABILITY_FIELD, stable ? Build.STABLE_STATUS : Build.UNSTABLE_STATUS);
     append(sb, Build.STATUS_FIELD, successful ? Build.SUCCESSFUL_STATUS : Build.FAILED_STATUS);
-    append(sb, Build.DEVELOPERS_FIELD, StringUtils.join(developers, ','));
+    String[] developers = getDevelopers();
+    append(sb, Build.DEVELOPERS_FIELD, developers == null || developers.length == 0 ? null : StringUtils.join(developers, ','));
     return sb.toString();
   }
 
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table of distinct strings, where each string is identified by small integer.
+ * So objects, which repeat the same few values (users, upstream projects), can store ids instead of strings,
+ * and grouping by value can be done by id.
+ * <p>
+ * Lookups are lock-free, additions are synchronized. Table is bounded, so values with high cardinality
+ * don't grow it infinitely: when table is full, new values are not added.
+ * </p>
+ */
+public class StringDictionary {
+  public static final int NOT_FOUND = -1;
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final int capacity;
+  private final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+  private volatile String[] values = new String[INITIAL_CAPACITY];
+  private int size;
+
+  /**
+   * @param capacity maximal number of strings
+   */
+  public StringDictionary(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * @return id of given value or {@link #NOT_FOUND}, if value is null or table is full
+   */
+  public int add(String value) {
+    if (value == null) {
+      return NOT_FOUND;
+    }
+    Integer id = ids.get(value);
+    if (id != null) {
+      return id;
+    }
+    synchronized (this) {
+      id = ids.get(value);
+      if (id != null) {
+        return id;
+      }
+      if (size == capacity) {
+        return NOT_FOUND;
+      }
+      if (size == values.length) {
+        String[] grown = new String[Math.min(capacity, values.length * 2)];
+        System.arraycopy(values, 0, grown, 0, size);
+        values = grown;
+      }
+      values[size] = value;
+      // Value is visible to threads, which obtained id from map
+      ids.put(value, size);
+      return size++;
+    }
+  }
+
+  /**
+   * Equal values share one instance, so strings, which repeat in many objects, occupy memory only once.
+   * Dictionary should be scoped to those objects (e.g. one analysis), so it is released together with them.
+   *
+   * @return instance of given value from table, or given value, if it is null or table is full
+   */
+  public String intern(String value) {
+    int id = add(value);
+    return id == NOT_FOUND ? value : get(id);
+  }
+
+  /**
+   * @return id of given value or {@link #NOT_FOUND}, if value was not added
+   */
+  public int getId(String value) {
+    if (value == null) {
+      return NOT_FOUND;
+    }
+    Integer id = ids.get(value);
+    return id == null ? NOT_FOUND : id;
+  }
+
+  /**
+   * @return value with given id or null for {@link #NOT_FOUND}
+   */
+  public String get(int id) {
+    return id == NOT_FOUND ? null : values[id];
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+}
@@ -19,6 +19,14 @@ public class BuildTest {
     assertThat(build.getDuration(), is(60 * 1000d));
   }
 
+  @Test
+  public void testDevelopers() {
+    Build build = Build.fromString("num=2;time=1272891187240;duration=60;stability=unstable;res=fail;dev=alice,bob");
+
+    assertThat(build.getDevelopers(), is(new String[]{"alice", "bob"}));
+    assertThat(Build.fromString(build.convertToString()).getDevelopers(), is(new String[]{"alice", "bob"}));
+  }
+
   @Test
   public void testIncorrect() {
     // TODO
@@ -0,0 +1,47 @@
+package org.sonar.plugins.buildstability;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class StringDictionaryTest {
+  @Test
+  public void shouldAssignSameIdToEqualStrings() {
+    StringDictionary dictionary = new StringDictionary(100);
+    int id = dictionary.add("anonymous");
+
+    assertThat(dictionary.add(new String("anonymous")), is(id));
+    assertThat(dictionary.add("project-one"), is(id + 1));
+    assertThat(dictionary.get(id), is("anonymous"));
+    assertThat(dictionary.getId("unknown"), is(StringDictionary.NOT_FOUND));
+    assertThat(dictionary.add(null), is(StringDictionary.NOT_FOUND));
+    assertThat(dictionary.get(StringDictionary.NOT_FOUND), nullValue());
+    assertThat(dictionary.size(), is(2));
+  }
+
+  @Test
+  public void shouldInternEqualStrings() {
+    StringDictionary dictionary = new StringDictionary(1);
+    String value = dictionary.intern(new String("anonymous"));
+    String unique = new String("project-one");
+
+    assertThat(dictionary.intern(new String("anonymous")) == value, is(true));
+    assertThat(dictionary.intern(unique) == unique, is(true));
+    assertThat(dictionary.intern(null), nullValue());
+  }
+
+  @Test
+  public void shouldNotGrowBeyondCapacity() {
+    StringDictionary dictionary = new StringDictionary(100);
+    for (int i = 0; i < 100; i++) {
+      assertThat(dictionary.add("value" + i), is(i));
+    }
+
+    assertThat(dictionary.add("value100"), is(StringDictionary.NOT_FOUND));
+    assertThat(dictionary.add("value99"), is(99));
+    assertThat(dictionary.get(70), is("value70"));
+    assertThat(dictionary.size(), is(100));
+  }
+}
@@ -0,0 +1,447 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Mergeable aggregate of consecutive builds.
+ * <p>
+ * Builds should be added in order of numbers. Accumulators of consecutive chunks of builds can be combined
+ * with {@link #combine(BuildAccumulator)}, which gives the same result as sequential addition of all builds,
+ * including fixes and stabilizations, which span chunks boundary. So aggregation can be done in parallel
+ * and accumulators of days can be persisted by {@link #convertToString()} instead of builds.
+ * </p>
+ * <p>
+ * Durations of successful builds are additionally counted in histogram with logarithmic buckets,
+ * so quantiles can be estimated with relative error about {@link #BUCKET_BASE} - 1 and histograms can be combined exactly.
+ * </p>
+ */
+public class BuildAccumulator {
+  static final double BUCKET_BASE = 1.1;
+  private static final double LOG_BUCKET_BASE = Math.log(BUCKET_BASE);
+  /**
+   * Largest bucket holds durations above one year.
+   */
+  private static final int BUCKETS = 256;
+
+  private int successful;
+  private int unstable;
+  private int failed;
+  private double duration;
+  private double shortest = Double.POSITIVE_INFINITY;
+  private double longest = Double.NEGATIVE_INFINITY;
+  /**
+   * Number of durations by bucket, allocated on first successful build.
+   */
+  private int[] histogram;
+
+  /**
+   * Failed build starts streak, which ends by successful build.
+   */
+  private final Streaks fixes = new Streaks();
+
+  /**
+   * Unstable build starts streak, which ends by successful stable build. Failed builds ignored.
+   */
+  private final Streaks stabilizations = new Streaks();
+
+  /**
+   * @param builds builds ordered by number
+   */
+  public static BuildAccumulator aggregate(List<Build> builds) {
+    BuildAccumulator accumulator = new BuildAccumulator();
+    for (Build build : builds) {
+      accumulator.add(build);
+    }
+    return accumulator;
+  }
+
+  /**
+   * Aggregates chunks of builds using given executor and combines results.
+   *
+   * @param builds builds ordered by number
+   */
+  public static BuildAccumulator aggregate(List<Build> builds, ExecutorService executor, int chunks)
+      throws InterruptedException, ExecutionException {
+    int chunkSize = Math.max(1, (builds.size() + chunks - 1) / chunks);
+    List<Future<BuildAccumulator>> futures = new ArrayList<Future<BuildAccumulator>>();
+    for (int from = 0; from < builds.size(); from += chunkSize) {
+      final List<Build> chunk = builds.subList(from, Math.min(builds.size(), from + chunkSize));
+      futures.add(executor.submit(new Callable<BuildAccumulator>() {
+        public BuildAccumulator call() {
+          return aggregate(chunk);
+        }
+      }));
+    }
+    BuildAccumulator result = new BuildAccumulator();
+    for (Future<BuildAccumulator> future : futures) {
+      result.combine(future.get());
+    }
+    return result;
+  }
+
+  public BuildAccumulator add(Build build) {
+    return add(build.getNumber(), build.getTimestamp(), build.isSuccessful(), build.isStable(), build.getDuration());
+  }
+
+  public BuildAccumulator add(int number, long timestamp, boolean successful, boolean stable, double duration) {
+    if (!successful) {
+      failed++;
+      fixes.bad(number, timestamp);
+      return this;
+    }
+    if (stable) {
+      this.successful++;
+      stabilizations.good(number, timestamp);
+    } else {
+      unstable++;
+      stabilizations.bad(number, timestamp);
+    }
+    this.duration += duration;
+    shortest = Math.min(shortest, duration);
+    longest = Math.max(longest, duration);
+    getHistogram()[getBucket(duration)]++;
+    fixes.good(number, timestamp);
+    return this;
+  }
+
+  private int[] getHistogram() {
+    if (histogram == null) {
+      histogram = new int[BUCKETS];
+    }
+    return histogram;
+  }
+
+  private static int getBucket(double duration) {
+    return duration < 1 ? 0 : Math.min(BUCKETS - 1, (int) Math.floor(Math.log(duration) / LOG_BUCKET_BASE));
+  }
+
+  /**
+   * @param next accumulator of builds, which follow builds of this accumulator
+   * @return this accumulator
+   */
+  public BuildAccumulator combine(BuildAccumulator next) {
+    successful += next.successful;
+    unstable += next.unstable;
+    failed += next.failed;
+    duration += next.duration;
+    shortest = Math.min(shortest, next.shortest);
+    longest = Math.max(longest, next.longest);
+    if (next.histogram != null) {
+      int[] counts = getHistogram();
+      for (int bucket = 0; bucket < BUCKETS; bucket++) {
+        counts[bucket] += next.histogram[bucket];
+      }
+    }
+    fixes.combine(next.fixes);
+    stabilizations.combine(next.stabilizations);
+    return this;
+  }
+
+  public String convertToString() {
+    StringBuilder buckets = new StringBuilder();
+    for (int bucket = 0; histogram != null && bucket < BUCKETS; bucket++) {
+      if (histogram[bucket] > 0) {
+        if (buckets.length() > 0) {
+          buckets.append(',');
+        }
+        buckets.append(bucket).append(':').append(histogram[bucket]);
+      }
+    }
+    return new StringBuilder()
+        .append("ok=").append(successful)
+        .append(";unstable=").append(unstable)
+        .append(";fail=").append(failed)
+        .append(";duration=").append(duration)
+        .append(";shortest=").append(shortest)
+        .append(";longest=").append(longest)
+        .append(";histogram=").append(buckets)
+        .append(";fixes=").append(fixes.convertToString())
+        .append(";stabilizations=").append(stabilizations.convertToString())
+        .append(';')
+        .toString();
+  }
+
+  public static BuildAccumulator fromString(String data) {
+    BuildAccumulator accumulator = new BuildAccumulator();
+    for (String field : StringUtils.split(data, ';')) {
+      String key = StringUtils.substringBefore(field, "=");
+      String value = StringUtils.substringAfter(field, "=");
+      if ("ok".equals(key)) {
+        accumulator.successful = Integer.parseInt(value);
+      } else if ("unstable".equals(key)) {
+        accumulator.unstable = Integer.parseInt(value);
+      } else if ("fail".equals(key)) {
+        accumulator.failed = Integer.parseInt(value);
+      } else if ("duration".equals(key)) {
+        accumulator.duration = Double.parseDouble(value);
+      } else if ("shortest".equals(key)) {
+        accumulator.shortest = Double.parseDouble(value);
+      } else if ("longest".equals(key)) {
+        accumulator.longest = Double.parseDouble(value);
+      } else if ("histogram".equals(key)) {
+        for (String bucket : StringUtils.split(value, ',')) {
+          accumulator.getHistogram()[Integer.parseInt(StringUtils.substringBefore(bucket, ":"))] =
+              Integer.parseInt(StringUtils.substringAfter(bucket, ":"));
+        }
+      } else if ("fixes".equals(key)) {
+        accumulator.fixes.readString(value);
+      } else if ("stabilizations".equals(key)) {
+        accumulator.stabilizations.readString(value);
+      }
+    }
+    return accumulator;
+  }
+
+  public int getCount() {
+    return successful + unstable + failed;
+  }
+
+  public int getSuccessful() {
+    return successful;
+  }
+
+  public int getUnstable() {
+    return unstable;
+  }
+
+  public int getFailed() {
+    return failed;
+  }
+
+  /**
+   * @return total duration of successful builds
+   */
+  public double getDuration() {
+    return duration;
+  }
+
+  /**
+   * @return shortest duration of successful build or infinity, if there is no such builds
+   */
+  public double getShortestDuration() {
+    return shortest;
+  }
+
+  /**
+   * @return longest duration of successful build or negative infinity, if there is no such builds
+   */
+  public double getLongestDuration() {
+    return longest;
+  }
+
+  /**
+   * Nearest-rank estimate from histogram, bounded by shortest and longest durations, which are exact for first and last ranks.
+   *
+   * @param quantile value between 0 and 1
+   * @return estimated duration of successful builds for given quantile or 0, if there is no such builds
+   */
+  public double getDurationQuantile(double quantile) {
+    int count = successful + unstable;
+    if (count == 0) {
+      return 0;
+    }
+    double rank = Math.max(1, Math.ceil(quantile * count));
+    if (rank == 1) {
+      return shortest;
+    }
+    if (rank == count) {
+      return longest;
+    }
+    int seen = 0;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      seen += histogram[bucket];
+      if (seen >= rank) {
+        double estimate = Math.pow(BUCKET_BASE, bucket + 0.5);
+        return Math.max(shortest, Math.min(longest, estimate));
+      }
+    }
+    return longest;
+  }
+
+  public int getFixes() {
+    return fixes.getCount();
+  }
+
+  public double getTotalTimeToFix() {
+    return fixes.getTotalTime();
+  }
+
+  public double getTotalBuildsToFix() {
+    return fixes.getTotalBuilds();
+  }
+
+  public double getLongestTimeToFix() {
+    return fixes.getLongestTime();
+  }
+
+  public int getStabilizations() {
+    return stabilizations.getCount();
+  }
+
+  public double getTotalTimeToStabilize() {
+    return stabilizations.getTotalTime();
+  }
+
+  public double getTotalBuildsToStabilize() {
+    return stabilizations.getTotalBuilds();
+  }
+
+  public double getLongestTimeToStabilize() {
+    return stabilizations.getLongestTime();
+  }
+
+  /**
+   * Streaks of "bad" builds ended by "good" build.
+   * Streak, which precedes first good build of chunk, is kept aside, because it can start in previous chunk.
+   */
+  private static class Streaks {
+    private static final int NONE = -1;
+
+    private int count;
+    private double totalTime;
+    private double totalBuilds;
+    private double longestTime = Double.NEGATIVE_INFINITY;
+
+    /**
+     * First bad build before first good build.
+     */
+    private int leadingBadNumber = NONE;
+    private long leadingBadTimestamp;
+    private int firstGoodNumber = NONE;
+    private long firstGoodTimestamp;
+    /**
+     * First bad build after last good build.
+     */
+    private int openBadNumber = NONE;
+    private long openBadTimestamp;
+
+    void bad(int number, long timestamp) {
+      if (firstGoodNumber == NONE) {
+        if (leadingBadNumber == NONE) {
+          leadingBadNumber = number;
+          leadingBadTimestamp = timestamp;
+        }
+      } else if (openBadNumber == NONE) {
+        openBadNumber = number;
+        openBadTimestamp = timestamp;
+      }
+    }
+
+    void good(int number, long timestamp) {
+      if (firstGoodNumber == NONE) {
+        firstGoodNumber = number;
+        firstGoodTimestamp = timestamp;
+      } else if (openBadNumber != NONE) {
+        add(number - openBadNumber, timestamp - openBadTimestamp);
+        openBadNumber = NONE;
+        openBadTimestamp = 0;
+      }
+    }
+
+    void combine(Streaks next) {
+      count += next.count;
+      totalTime += next.totalTime;
+      totalBuilds += next.totalBuilds;
+      longestTime = Math.max(longestTime, next.longestTime);
+      if (firstGoodNumber == NONE) {
+        if (leadingBadNumber == NONE) {
+          leadingBadNumber = next.leadingBadNumber;
+          leadingBadTimestamp = next.leadingBadTimestamp;
+        }
+        firstGoodNumber = next.firstGoodNumber;
+        firstGoodTimestamp = next.firstGoodTimestamp;
+        openBadNumber = next.openBadNumber;
+        openBadTimestamp = next.openBadTimestamp;
+        return;
+      }
+      if (next.firstGoodNumber == NONE) {
+        if (openBadNumber == NONE) {
+          openBadNumber = next.leadingBadNumber;
+          openBadTimestamp = next.leadingBadTimestamp;
+        }
+        return;
+      }
+      if (openBadNumber != NONE) {
+        add(next.firstGoodNumber - openBadNumber, next.firstGoodTimestamp - openBadTimestamp);
+      } else if (next.leadingBadNumber != NONE) {
+        add(next.firstGoodNumber - next.leadingBadNumber, next.firstGoodTimestamp - next.leadingBadTimestamp);
+      }
+      openBadNumber = next.openBadNumber;
+      openBadTimestamp = next.openBadTimestamp;
+    }
+
+    private void add(double builds, double time) {
+      count++;
+      totalBuilds += builds;
+      totalTime += time;
+      longestTime = Math.max(longestTime, time);
+    }
+
+    /**
+     * Includes state of leading and open streaks, so deserialized streaks can be combined.
+     */
+    String convertToString() {
+      return count + ":" + totalTime + ":" + totalBuilds + ":" + longestTime
+          + ":" + leadingBadNumber + ":" + leadingBadTimestamp
+          + ":" + firstGoodNumber + ":" + firstGoodTimestamp
+          + ":" + openBadNumber + ":" + openBadTimestamp;
+    }
+
+    void readString(String data) {
+      String[] fields = StringUtils.split(data, ':');
+      count = Integer.parseInt(fields[0]);
+      totalTime = Double.parseDouble(fields[1]);
+      totalBuilds = Double.parseDouble(fields[2]);
+      longestTime = Double.parseDouble(fields[3]);
+      leadingBadNumber = Integer.parseInt(fields[4]);
+      leadingBadTimestamp = Long.parseLong(fields[5]);
+      firstGoodNumber = Integer.parseInt(fields[6]);
+      firstGoodTimestamp = Long.parseLong(fields[7]);
+      openBadNumber = Integer.parseInt(fields[8]);
+      openBadTimestamp = Long.parseLong(fields[9]);
+    }
+
+    private boolean hasLeadingStreak() {
+      return leadingBadNumber != NONE && firstGoodNumber != NONE;
+    }
+
+    int getCount() {
+      return count + (hasLeadingStreak() ? 1 : 0);
+    }
+
+    double getTotalTime() {
+      return totalTime + (hasLeadingStreak() ? firstGoodTimestamp - leadingBadTimestamp : 0);
+    }
+
+    double getTotalBuilds() {
+      return totalBuilds + (hasLeadingStreak() ? firstGoodNumber - leadingBadNumber : 0);
+    }
+
+    double getLongestTime() {
+      return hasLeadingStreak() ? Math.max(longestTime, firstGoodTimestamp - leadingBadTimestamp) : longestTime;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Unmodifiable list of builds, which knows order of builds by number,
+ * so builds can be put in ascending order without sorting.
+ */
+public class BuildSeries extends AbstractList<Build> implements RandomAccess {
+  public enum Order {
+    ASCENDING, DESCENDING, UNORDERED
+  }
+
+  private final List<Build> builds;
+  private final Order order;
+
+  /**
+   * @param builds builds, which are already ordered as specified
+   */
+  public BuildSeries(List<Build> builds, Order order) {
+    this.builds = builds;
+    this.order = order;
+  }
+
+  public Order getOrder() {
+    return order;
+  }
+
+  @Override
+  public Build get(int index) {
+    return builds.get(index);
+  }
+
+  @Override
+  public int size() {
+    return builds.size();
+  }
+
+  /**
+   * @return builds in ascending order, in linear time for ordered series
+   */
+  public BuildSeries ascending() {
+    switch (order) {
+      case ASCENDING:
+        return this;
+      case DESCENDING:
+        return new BuildSeries(new AbstractList<Build>() {
+          @Override
+          public Build get(int index) {
+            return builds.get(builds.size() - 1 - index);
+          }
+
+          @Override
+          public int size() {
+            return builds.size();
+          }
+        }, Order.ASCENDING);
+      default:
+        return new BuildSeries(sortByNumber(builds), Order.ASCENDING);
+    }
+  }
+
+  /**
+   * @return given builds in ascending order, in linear time if they are already ordered in any direction
+   */
+  public static BuildSeries ascending(List<Build> builds) {
+    if (builds instanceof BuildSeries) {
+      return ((BuildSeries) builds).ascending();
+    }
+    List<Build> copy = builds instanceof RandomAccess ? builds : new ArrayList<Build>(builds);
+    return new BuildSeries(copy, getOrder(copy)).ascending();
+  }
+
+  static Order getOrder(List<Build> builds) {
+    boolean ascending = true;
+    boolean descending = true;
+    for (int i = 1; i < builds.size() && (ascending || descending); i++) {
+      int previous = builds.get(i - 1).getNumber();
+      int current = builds.get(i).getNumber();
+      ascending &= previous <= current;
+      descending &= previous >= current;
+    }
+    if (ascending) {
+      return Order.ASCENDING;
+    }
+    return descending ? Order.DESCENDING : Order.UNORDERED;
+  }
+
+  /**
+   * Stable sort by number without boxing: number and index are packed into single long key.
+   */
+  static List<Build> sortByNumber(List<Build> builds) {
+    long[] keys = new long[builds.size()];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = ((long) builds.get(i).getNumber() << 32) | i;
+    }
+    Arrays.sort(keys);
+    List<Build> sorted = new ArrayList<Build>(keys.length);
+    for (long key : keys) {
+      sorted.add(builds.get((int) key));
+    }
+    return sorted;
+  }
+}
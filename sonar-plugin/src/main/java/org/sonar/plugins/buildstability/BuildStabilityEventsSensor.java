@@ -17,52 +17,17 @@
 package org.sonar.plugins.buildstability;
 
 import org.apache.commons.lang.StringUtils;
-import org.sonar.api.batch.Event;
-import org.sonar.api.batch.Sensor;
-import org.sonar.api.batch.SensorContext;
 import org.sonar.api.resources.Project;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
+ * Saves measures into modules. Instead of replay of events for each module, reuses results of analysis of builds,
+ * which are shared by all projects of multi-module build (see {@link BuildStabilityResults}).
+ *
  * @author Evgeny Mandrikov
  */
 public class BuildStabilityEventsSensor extends BuildStabilitySensor {
-  public static final String CATEGORY_BUILD = "Build";
-
   public boolean shouldExecuteOnProject(Project project) {
       return !project.isRoot() &&
               StringUtils.isNotEmpty(getCiUrl(project));
   }
-
-  public void analyse(Project project, SensorContext context) {
-    // TODO we can remove old events here
-    List<Build> builds = getBuildsFromEvents(project, context);
-    analyseBuilds(builds, context);
-  }
-
-  public static List<Build> getBuildsFromEvents(Project project, SensorContext context) {
-    List<Build> builds = new ArrayList<Build>();
-    for (Event event : context.getEvents(project)) {
-      if (isBuildCategory(event)) {
-        Build build = parse(event);
-        if (build != null) {
-          builds.add(build);
-        }
-      }
-    }
-    return builds;
-  }
-
-  protected static Build parse(Event event) {
-    if (event.getData() == null) {
-      return null;
-    }
-    return Build.fromString(event.getData());
-  }
-
-  private static boolean isBuildCategory(Event event) {
-    return CATEGORY_BUILD.equalsIgnoreCase(event.getCategory());
-  }
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability;
+
+import org.sonar.api.batch.Event;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.measures.Measure;
+import org.sonar.api.measures.Metric;
+import org.sonar.api.resources.Project;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Result of analysis of builds, which can be saved into any number of projects.
+ * It becomes immutable after {@link #freeze()}, e.g. when shared through {@link BuildStabilityResults}.
+ * New {@link Measure} created for each save, because Sonar keeps state in saved measures.
+ */
+public class BuildStabilityMeasures {
+  private final List<Entry> entries = new ArrayList<Entry>();
+  private final List<Event> events = new ArrayList<Event>();
+  private long expiry = Long.MAX_VALUE;
+  private boolean frozen;
+
+  /**
+   * Any further modification throws {@link IllegalStateException}.
+   */
+  public BuildStabilityMeasures freeze() {
+    frozen = true;
+    return this;
+  }
+
+  /**
+   * Replaces previously added value of given metric.
+   */
+  public BuildStabilityMeasures add(Metric metric, double value) {
+    return add(new Entry(metric, value, null));
+  }
+
+  /**
+   * Replaces previously added data of given metric.
+   */
+  public BuildStabilityMeasures add(Metric metric, String data) {
+    return add(new Entry(metric, null, data));
+  }
+
+  private BuildStabilityMeasures add(Entry entry) {
+    checkNotFrozen();
+    Entry previous = find(entry.metric);
+    if (previous != null) {
+      entries.set(entries.indexOf(previous), entry);
+    } else {
+      entries.add(entry);
+    }
+    return this;
+  }
+
+  public Double getValue(Metric metric) {
+    Entry entry = find(metric);
+    return entry == null ? null : entry.value;
+  }
+
+  public String getData(Metric metric) {
+    Entry entry = find(metric);
+    return entry == null ? null : entry.data;
+  }
+
+  public List<Metric> getMetrics() {
+    List<Metric> metrics = new ArrayList<Metric>(entries.size());
+    for (Entry entry : entries) {
+      metrics.add(entry.metric);
+    }
+    return Collections.unmodifiableList(metrics);
+  }
+
+  public BuildStabilityMeasures addEvent(String name, String description, String category, Date date) {
+    checkNotFrozen();
+    events.add(new Event(name, description, category, date, null));
+    return this;
+  }
+
+  public List<Event> getEvents() {
+    return Collections.unmodifiableList(events);
+  }
+
+  /**
+   * Measures, which depend on current time, are valid only until given time.
+   * Earliest of given times wins.
+   */
+  public BuildStabilityMeasures expireAt(long time) {
+    checkNotFrozen();
+    expiry = Math.min(expiry, time);
+    return this;
+  }
+
+  /**
+   * @return time, until which measures are valid, or {@link Long#MAX_VALUE}, if they don't depend on current time
+   */
+  public long getExpiry() {
+    return expiry;
+  }
+
+  public void saveTo(SensorContext context) {
+    for (Entry entry : entries) {
+      context.saveMeasure(entry.toMeasure());
+    }
+  }
+
+  /**
+   * Creates events, which were not created by previous analyses.
+   */
+  public void saveEvents(Project project, SensorContext context) {
+    if (events.isEmpty()) {
+      return;
+    }
+    List<Event> existing = context.getEvents(project);
+    for (Event event : events) {
+      if (!contains(existing, event)) {
+        context.createEvent(project, event.getName(), event.getDescription(), event.getCategory(), event.getDate());
+      }
+    }
+  }
+
+  private static boolean contains(List<Event> events, Event event) {
+    if (events == null) {
+      return false;
+    }
+    for (Event other : events) {
+      if (event.getName().equals(other.getName()) && event.getCategory().equals(other.getCategory())
+          && event.getDate().equals(other.getDate())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void checkNotFrozen() {
+    if (frozen) {
+      throw new IllegalStateException("Measures are shared and can't be modified");
+    }
+  }
+
+  private Entry find(Metric metric) {
+    for (Entry entry : entries) {
+      if (entry.metric.equals(metric)) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  private static class Entry {
+    private final Metric metric;
+    private final Double value;
+    private final String data;
+
+    private Entry(Metric metric, Double value, String data) {
+      this.metric = metric;
+      this.value = value;
+      this.data = data;
+    }
+
+    private Measure toMeasure() {
+      return value == null ? new Measure(metric, data) : new Measure(metric, value);
+    }
+  }
+}
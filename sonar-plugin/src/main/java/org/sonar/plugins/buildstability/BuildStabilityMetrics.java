@@ -158,6 +158,59 @@ public class BuildStabilityMetrics implements Metrics {
       DOMAIN_BUILD
   );
 
+  /**
+   * Ratio of successful builds, which were started during last 24 hours.
+   */
+  public static final Metric SUCCESS_RATE_DAY = new Metric(
+      "build_success_density_1d",
+      "Success Rate 24h (%)",
+      "Ratio of successful builds during last 24 hours",
+      Metric.ValueType.PERCENT,
+      Metric.DIRECTION_BETTER,
+      false,
+      DOMAIN_BUILD
+  );
+
+  /**
+   * Ratio of successful builds, which were started during last 7 days.
+   */
+  public static final Metric SUCCESS_RATE_WEEK = new Metric(
+      "build_success_density_7d",
+      "Success Rate 7d (%)",
+      "Ratio of successful builds during last 7 days",
+      Metric.ValueType.PERCENT,
+      Metric.DIRECTION_BETTER,
+      false,
+      DOMAIN_BUILD
+  );
+
+  /**
+   * Ratio of successful builds, which were started during last 30 days.
+   * Limited by number of days to retrieve.
+   */
+  public static final Metric SUCCESS_RATE_MONTH = new Metric(
+      "build_success_density_30d",
+      "Success Rate 30d (%)",
+      "Ratio of successful builds during last 30 days",
+      Metric.ValueType.PERCENT,
+      Metric.DIRECTION_BETTER,
+      false,
+      DOMAIN_BUILD
+  );
+
+  /**
+   * Ratio of successful builds, where weight of build halves every week.
+   */
+  public static final Metric DECAYED_SUCCESS_RATE = new Metric(
+      "build_decayed_success_density",
+      "Decayed Success Rate (%)",
+      "Ratio of successful builds, where recent builds weigh more",
+      Metric.ValueType.PERCENT,
+      Metric.DIRECTION_BETTER,
+      false,
+      DOMAIN_BUILD
+  );
+
   /**
    * Build average duration. Includes only duration of successful builds.
    */
@@ -184,6 +237,32 @@ public class BuildStabilityMetrics implements Metrics {
       DOMAIN_BUILD
   );
 
+  /**
+   * Median duration of successful builds, estimated from histogram of durations.
+   */
+  public static final Metric MEDIAN_DURATION = new Metric(
+      "build_median_duration",
+      "Median duration",
+      "Duration, which is not exceeded by half of successful builds",
+      Metric.ValueType.MILLISEC,
+      Metric.DIRECTION_WORST,
+      false,
+      DOMAIN_BUILD
+  );
+
+  /**
+   * 90th percentile of durations of successful builds, estimated from histogram of durations.
+   */
+  public static final Metric P90_DURATION = new Metric(
+      "build_p90_duration",
+      "90th percentile of duration",
+      "Duration, which is not exceeded by 90% of successful builds",
+      Metric.ValueType.MILLISEC,
+      Metric.DIRECTION_WORST,
+      false,
+      DOMAIN_BUILD
+  );
+
   /**
    * Duration of shortest successful build.
    */
@@ -197,6 +276,34 @@ public class BuildStabilityMetrics implements Metrics {
       DOMAIN_BUILD
   );
 
+  /**
+   * Average time spent by build in queue waiting for executor.
+   * Saved only if CI server reports queue time.
+   */
+  public static final Metric AVG_QUEUE_TIME = new Metric(
+      "build_average_queue_time",
+      "Average queue time",
+      "Average time spent by build in queue waiting for executor",
+      Metric.ValueType.MILLISEC,
+      Metric.DIRECTION_WORST,
+      false,
+      DOMAIN_BUILD
+  );
+
+  /**
+   * 90th percentile of time spent by build in queue waiting for executor.
+   * Saved only if CI server reports queue time.
+   */
+  public static final Metric P90_QUEUE_TIME = new Metric(
+      "build_p90_queue_time",
+      "90th percentile of queue time",
+      "Time in queue, which is not exceeded by 90% of builds",
+      Metric.ValueType.MILLISEC,
+      Metric.DIRECTION_WORST,
+      false,
+      DOMAIN_BUILD
+  );
+
   /**
    * Average time to fix a failure.
    */
@@ -275,6 +382,168 @@ public class BuildStabilityMetrics implements Metrics {
             DOMAIN_BUILD
     );
 
+  /**
+   * Number of changes of result between consecutive builds.
+   */
+  public static final Metric FLAKY_ALTERNATIONS = new Metric(
+      "build_flaky_alternations",
+      "Result alternations",
+      "Number of changes of result between consecutive builds",
+      Metric.ValueType.INT,
+      Metric.DIRECTION_WORST,
+      false,
+      DOMAIN_BUILD
+  );
+
+  /**
+   * Number of builds, which passed right after failure caused by the same upstream build.
+   */
+  public static final Metric FLAKY_RERUN_PASSES = new Metric(
+      "build_flaky_rerun_passes",
+      "Passes after failure",
+      "Number of builds passed after failure of the same upstream build",
+      Metric.ValueType.INT,
+      Metric.DIRECTION_WORST,
+      false,
+      DOMAIN_BUILD
+  );
+
+  /**
+   * Percentage of changes of result among all pairs of consecutive builds.
+   */
+  public static final Metric FLIP_RATE = new Metric(
+      "build_flip_rate",
+      "Flip rate (%)",
+      "Ratio of changes of result between consecutive builds",
+      Metric.ValueType.PERCENT,
+      Metric.DIRECTION_WORST,
+      false,
+      DOMAIN_BUILD
+  );
+
+  /**
+   * Maximal flip rate over sliding window of consecutive builds.
+   */
+  public static final Metric MAX_FLIP_RATE = new Metric(
+      "build_max_flip_rate",
+      "Max flip rate (%)",
+      "Maximal ratio of changes of result within sliding window of builds",
+      Metric.ValueType.PERCENT,
+      Metric.DIRECTION_WORST,
+      false,
+      DOMAIN_BUILD
+  );
+
+  /**
+   * Number of first build after last detected shift of duration of successful builds.
+   */
+  public static final Metric DURATION_CHANGE_BUILD = new Metric(
+      "build_duration_change_build",
+      "Duration change build",
+      "Build, since which duration changed",
+      Metric.ValueType.INT,
+      Metric.DIRECTION_NONE,
+      false,
+      DOMAIN_BUILD
+  );
+
+  /**
+   * Difference between average duration of successful builds after and before last detected shift.
+   */
+  public static final Metric DURATION_CHANGE = new Metric(
+      "build_duration_change",
+      "Duration change",
+      "Change of average duration",
+      Metric.ValueType.MILLISEC,
+      Metric.DIRECTION_WORST,
+      false,
+      DOMAIN_BUILD
+  );
+
+  /**
+   * Average duration of stage by name of stage in seconds.
+   * Saved only if stages of builds were retrieved.
+   */
+  public static final Metric STAGE_AVG_DURATIONS = new Metric(
+      "build_stage_average_durations",
+      "Average durations of stages",
+      "Average duration of each stage of pipeline build",
+      Metric.ValueType.DATA,
+      Metric.DIRECTION_NONE,
+      false,
+      DOMAIN_BUILD
+  );
+
+  /**
+   * Duration of longest execution of stage by name of stage in seconds.
+   * Saved only if stages of builds were retrieved.
+   */
+  public static final Metric STAGE_LONGEST_DURATIONS = new Metric(
+      "build_stage_longest_durations",
+      "Longest durations of stages",
+      "Longest duration of each stage of pipeline build",
+      Metric.ValueType.DATA,
+      Metric.DIRECTION_NONE,
+      false,
+      DOMAIN_BUILD
+  );
+
+  /**
+   * Failures, broken builds and average time to fix in seconds by developer, whose changes broke build.
+   * Saved only if CI server reports authors of changes.
+   */
+  public static final Metric DEVELOPER_CULPRITS = new Metric(
+      "build_developer_culprits",
+      "Developers, who broke build",
+      "Failures, broken builds and average time to fix by developer, whose changes broke build",
+      Metric.ValueType.DATA,
+      Metric.DIRECTION_NONE,
+      false,
+      DOMAIN_BUILD
+  );
+
+  /**
+   * Failures, broken builds and average time to fix in seconds by upstream project, which triggered breaking build.
+   * Saved only if builds were triggered by upstream projects.
+   */
+  public static final Metric UPSTREAM_CULPRITS = new Metric(
+      "build_upstream_culprits",
+      "Upstream projects, which broke build",
+      "Failures, broken builds and average time to fix by upstream project, which triggered breaking build",
+      Metric.ValueType.DATA,
+      Metric.DIRECTION_NONE,
+      false,
+      DOMAIN_BUILD
+  );
+
+  /**
+   * Average duration of slowest tests by name of test in seconds.
+   * Saved only if reports about tests were retrieved.
+   */
+  public static final Metric SLOWEST_TESTS = new Metric(
+      "build_slowest_tests",
+      "Slowest tests",
+      "Tests with highest average duration",
+      Metric.ValueType.DATA,
+      Metric.DIRECTION_NONE,
+      false,
+      DOMAIN_BUILD
+  );
+
+  /**
+   * Number of changes between passed and failed status of most flaky tests by name of test.
+   * Saved only if reports about tests were retrieved.
+   */
+  public static final Metric FLAKY_TESTS = new Metric(
+      "build_flaky_tests",
+      "Flaky tests",
+      "Tests, which change status most often",
+      Metric.ValueType.DATA,
+      Metric.DIRECTION_NONE,
+      false,
+      DOMAIN_BUILD
+  );
+
   /**
    * TODO comment me (seconds)
    */
@@ -301,6 +570,72 @@ public class BuildStabilityMetrics implements Metrics {
       DOMAIN_BUILD
   );
 
+  /**
+   * Set, if time budget of retrieval ran out, so measures are computed from builds retrieved so far.
+   */
+  public static final Metric PARTIAL = new Metric(
+      "build_partial",
+      "Partial",
+      "Builds were not retrieved completely within time budget",
+      Metric.ValueType.BOOL,
+      Metric.DIRECTION_WORST,
+      false,
+      DOMAIN_BUILD
+  );
+
+  /**
+   * Wall time spent in retrieving builds from CI server.
+   */
+  public static final Metric FETCH_TIME = new Metric(
+      "build_fetch_time",
+      "Fetch time",
+      "Time spent in retrieving builds from CI server",
+      Metric.ValueType.MILLISEC,
+      Metric.DIRECTION_WORST,
+      false,
+      DOMAIN_BUILD
+  );
+
+  /**
+   * Number of HTTP requests sent to CI server.
+   */
+  public static final Metric FETCH_REQUESTS = new Metric(
+      "build_fetch_requests",
+      "Fetch requests",
+      "Number of requests sent to CI server",
+      Metric.ValueType.INT,
+      Metric.DIRECTION_WORST,
+      false,
+      DOMAIN_BUILD
+  );
+
+  /**
+   * Number of bytes downloaded from CI server.
+   */
+  public static final Metric FETCH_BYTES = new Metric(
+      "build_fetch_bytes",
+      "Fetched bytes",
+      "Number of bytes downloaded from CI server",
+      Metric.ValueType.INT,
+      Metric.DIRECTION_WORST,
+      false,
+      DOMAIN_BUILD
+  );
+
+  /**
+   * Number of builds shared by another analysis within JVM instead of retrieval from CI server.
+   * Saved only, if sharing of builds is enabled.
+   */
+  public static final Metric FETCH_CACHED_BUILDS = new Metric(
+      "build_fetch_cached_builds",
+      "Cached builds",
+      "Number of builds served from cache",
+      Metric.ValueType.INT,
+      Metric.DIRECTION_BETTER,
+      false,
+      DOMAIN_BUILD
+  );
+
   public List<Metric> getMetrics() {
     return Arrays.asList(
         CAUSE_DESCRIPTION,
@@ -315,10 +650,19 @@ public class BuildStabilityMetrics implements Metrics {
         FAILED,
         UNSTABLE,
         SUCCESS_RATE,
+        SUCCESS_RATE_DAY,
+        SUCCESS_RATE_WEEK,
+        SUCCESS_RATE_MONTH,
+        DECAYED_SUCCESS_RATE,
 
         AVG_DURATION,
         LONGEST_DURATION,
         SHORTEST_DURATION,
+        MEDIAN_DURATION,
+        P90_DURATION,
+
+        AVG_QUEUE_TIME,
+        P90_QUEUE_TIME,
 
         AVG_TIME_TO_FIX,
         LONGEST_TIME_TO_FIX,
@@ -328,8 +672,31 @@ public class BuildStabilityMetrics implements Metrics {
         LONGEST_TIME_TO_STABILIZE,
         AVG_BUILDS_TO_STABILIZE,
 
+        FLAKY_ALTERNATIONS,
+        FLAKY_RERUN_PASSES,
+        FLIP_RATE,
+        MAX_FLIP_RATE,
+
+        DURATION_CHANGE_BUILD,
+        DURATION_CHANGE,
+
+        STAGE_AVG_DURATIONS,
+        STAGE_LONGEST_DURATIONS,
+
+        DEVELOPER_CULPRITS,
+        UPSTREAM_CULPRITS,
+
+        SLOWEST_TESTS,
+        FLAKY_TESTS,
+
         DURATIONS,
-        RESULTS
+        RESULTS,
+
+        PARTIAL,
+        FETCH_TIME,
+        FETCH_REQUESTS,
+        FETCH_BYTES,
+        FETCH_CACHED_BUILDS
     );
   }
 }
@@ -43,7 +43,8 @@ import java.util.List;
         name = "CiManagement",
         description = "Continuous Integration Server. Leave blank to take this value from <i>pom.xml</i>. Example:" +
             "\"Hudson:http://hudson.glassfish.org/job/hudson/\"" +
-            "or \"Bamboo:http://ci.codehaus.org/browse/SONAR\".",
+            "or \"Bamboo:http://ci.codehaus.org/browse/SONAR\" " +
+            "or \"GitLab:https://gitlab.com/api/v4/projects/42\" (password is used as private token).",
         global = false,
         project = true,
         module = false
@@ -74,6 +75,99 @@ import java.util.List;
         global = true,
         project = true,
         module = false
+    ),
+    @Property(
+        key = BuildStabilitySensor.USE_JSON_API_PROPERTY,
+        defaultValue = BuildStabilitySensor.USE_JSON_API_DEFAULT_VALUE + "",
+        name = "Use JSON API",
+        description = "Set this property to true, to retrieve builds from Hudson through <i>/api/json</i> instead of <i>/api/xml</i>.",
+        global = true,
+        project = true,
+        module = false
+    ),
+    @Property(
+        key = BuildStabilitySensor.STORE_PROPERTY,
+        defaultValue = "",
+        name = "Build store",
+        description = "Directory, where builds pushed by Continuous Integration Server are stored. " +
+            "If set, then builds are read from this directory instead of Continuous Integration Server. " +
+            "See <i>BuildNotificationReceiver</i>.",
+        global = true,
+        project = true,
+        module = false
+    ),
+    @Property(
+        key = BuildStabilitySensor.STAGES_PROPERTY,
+        defaultValue = BuildStabilitySensor.STAGES_DEFAULT_VALUE + "",
+        name = "Retrieve stages",
+        description = "Set this property to true, to retrieve durations of stages of pipeline builds. " +
+            "Requires additional request per build.",
+        global = true,
+        project = true,
+        module = false
+    ),
+    @Property(
+        key = BuildStabilitySensor.TESTS_PROPERTY,
+        defaultValue = BuildStabilitySensor.TESTS_DEFAULT_VALUE + "",
+        name = "Retrieve test reports",
+        description = "Set this property to true, to retrieve reports about tests of builds and find slowest and most flaky tests. " +
+            "Requires additional request per build.",
+        global = true,
+        project = true,
+        module = false
+    ),
+    @Property(
+        key = BuildStabilitySensor.BUDGET_PROPERTY,
+        defaultValue = BuildStabilitySensor.BUDGET_DEFAULT_VALUE + "",
+        name = "Time budget",
+        description = "Maximal time in seconds of retrieval of builds from Continuous Integration Server. " +
+            "If exceeded, then measures are computed from builds retrieved so far, newest first. " +
+            "Zero means no limit.",
+        global = true,
+        project = true,
+        module = false
+    ),
+    @Property(
+        key = BuildStabilitySensor.SHARE_BUILDS_PROPERTY,
+        defaultValue = BuildStabilitySensor.SHARE_BUILDS_DEFAULT_VALUE + "",
+        name = "Share builds",
+        description = "If true, then builds retrieved from Continuous Integration Server are shared between analyses " +
+            "of all projects within one JVM, so projects referring to the same job don't retrieve its builds again. " +
+            "Ignored when responses are recorded or replayed.",
+        global = true,
+        project = true,
+        module = false
+    ),
+    @Property(
+        key = BuildStabilitySensor.RECORD_PROPERTY,
+        defaultValue = "",
+        name = "Record responses",
+        description = "File, where all responses of Continuous Integration Server are recorded as ZIP archive. " +
+            "Allows to reproduce analysis later, see <i>" + BuildStabilitySensor.REPLAY_PROPERTY + "</i>.",
+        global = false,
+        project = true,
+        module = false
+    ),
+    @Property(
+        key = BuildStabilitySensor.REPLAY_PROPERTY,
+        defaultValue = "",
+        name = "Replay responses",
+        description = "File with responses, which were recorded previously. " +
+            "If set, then builds are retrieved from this file instead of Continuous Integration Server.",
+        global = false,
+        project = true,
+        module = false
+    ),
+    @Property(
+        key = BuildStabilitySensor.RESULT_CACHE_PROPERTY,
+        defaultValue = "",
+        name = "Result cache",
+        description = "Directory, where results of analysis are cached between analyses. " +
+            "If set and there is no new builds since previous analysis, then only last build is retrieved " +
+            "from Continuous Integration Server and previous results are reused.",
+        global = true,
+        project = true,
+        module = false
     )
 })
 public class BuildStabilityPlugin implements Plugin {
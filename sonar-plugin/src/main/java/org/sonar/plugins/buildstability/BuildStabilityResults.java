@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Results of analysis shared between all projects of a multi-module build within one JVM,
+ * so builds of the same CI job are retrieved and analysed only once.
+ */
+public final class BuildStabilityResults {
+  /**
+   * Only few analyses expected to be in progress simultaneously, so oldest results can be dropped.
+   */
+  private static final int MAX_RESULTS = 16;
+
+  private static final Map<String, BuildStabilityMeasures> RESULTS = new LinkedHashMap<String, BuildStabilityMeasures>();
+
+  private BuildStabilityResults() {
+  }
+
+  public static synchronized BuildStabilityMeasures get(String key) {
+    return RESULTS.get(key);
+  }
+
+  /**
+   * Shared measures are frozen, so one project can't change measures of another.
+   */
+  public static synchronized void put(String key, BuildStabilityMeasures measures) {
+    RESULTS.put(key, measures.freeze());
+    if (RESULTS.size() > MAX_RESULTS) {
+      Iterator<String> eldest = RESULTS.keySet().iterator();
+      eldest.next();
+      eldest.remove();
+    }
+  }
+
+  public static synchronized void clear() {
+    RESULTS.clear();
+  }
+}
@@ -16,19 +16,33 @@
 
 package org.sonar.plugins.buildstability;
 
+import org.apache.commons.configuration.Configuration;
 import org.apache.commons.lang.StringUtils;
 import org.apache.maven.model.CiManagement;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.Event;
 import org.sonar.api.batch.Sensor;
 import org.sonar.api.batch.SensorContext;
 import org.sonar.api.measures.Measure;
+import org.sonar.api.measures.Metric;
 import org.sonar.api.measures.PropertiesBuilder;
 import org.sonar.api.resources.Project;
+import org.sonar.api.utils.SonarException;
 import org.sonar.plugins.buildstability.ci.CiConnector;
 import org.sonar.plugins.buildstability.ci.CiFactory;
+import org.sonar.plugins.buildstability.ci.CiSettings;
+import org.sonar.plugins.buildstability.ci.FetchStatistics;
+import org.sonar.plugins.buildstability.store.BuildStore;
+import org.sonar.plugins.buildstability.store.ResultCache;
+
+import java.io.File;
+import java.io.IOException;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * @author Evgeny Mandrikov
@@ -41,6 +55,30 @@ public class BuildStabilitySensor implements Sensor {
   public static final String USE_JSECURITYCHECK_PROPERTY = "sonar.build-stability.use_jsecuritycheck";
   public static final boolean USE_JSECURITYCHECK_DEFAULT_VALUE = false;
   public static final String CI_URL_PROPERTY = "sonar.build-stability.url";
+  public static final String USE_JSON_API_PROPERTY = "sonar.build-stability.use_json_api";
+  public static final boolean USE_JSON_API_DEFAULT_VALUE = false;
+  public static final String STORE_PROPERTY = "sonar.build-stability.store";
+  public static final String STAGES_PROPERTY = "sonar.build-stability.stages";
+  public static final boolean STAGES_DEFAULT_VALUE = false;
+  public static final String TESTS_PROPERTY = "sonar.build-stability.tests";
+  public static final boolean TESTS_DEFAULT_VALUE = false;
+  public static final String RESULT_CACHE_PROPERTY = "sonar.build-stability.cache";
+  public static final String RECORD_PROPERTY = "sonar.build-stability.record";
+  public static final String REPLAY_PROPERTY = "sonar.build-stability.replay";
+  public static final String BUDGET_PROPERTY = "sonar.build-stability.budget";
+  public static final int BUDGET_DEFAULT_VALUE = 300;
+  public static final String SHARE_BUILDS_PROPERTY = "sonar.build-stability.shareBuilds";
+  public static final boolean SHARE_BUILDS_DEFAULT_VALUE = true;
+
+  /**
+   * Minimal number of builds, which are aggregated in parallel.
+   */
+  private static final int PARALLEL_THRESHOLD = 10000;
+
+  /**
+   * Number of slowest and most flaky tests, which are saved.
+   */
+  private static final int TOP_TESTS = 10;
 
   public boolean shouldExecuteOnProject(Project project) {
     return project.isRoot() &&
@@ -61,157 +99,484 @@ public class BuildStabilitySensor implements Sensor {
     return null;
   }
 
+  protected CiSettings getSettings(Project project) {
+    Configuration configuration = project.getConfiguration();
+    return new CiSettings()
+        .setUsername(configuration.getString(USERNAME_PROPERTY))
+        .setPassword(configuration.getString(PASSWORD_PROPERTY))
+        .setUseJSecurityCheck(configuration.getBoolean(USE_JSECURITYCHECK_PROPERTY, USE_JSECURITYCHECK_DEFAULT_VALUE))
+        .setUseJsonApi(configuration.getBoolean(USE_JSON_API_PROPERTY, USE_JSON_API_DEFAULT_VALUE))
+        .setShareBuilds(configuration.getBoolean(SHARE_BUILDS_PROPERTY, SHARE_BUILDS_DEFAULT_VALUE))
+        .setRecordTo(toFile(configuration.getString(RECORD_PROPERTY)))
+        .setReplayFrom(toFile(configuration.getString(REPLAY_PROPERTY)));
+  }
+
+  private static File toFile(String path) {
+    return StringUtils.isBlank(path) ? null : new File(path);
+  }
+
   public void analyse(Project project, SensorContext context) {
     Logger logger = LoggerFactory.getLogger(getClass());
     String ciUrl = getCiUrl(project);
     logger.info("CI URL: {}", ciUrl);
-    String username = project.getConfiguration().getString(USERNAME_PROPERTY);
-    String password = project.getConfiguration().getString(PASSWORD_PROPERTY);
-    boolean useJSecurityCheck = project.getConfiguration().getBoolean(USE_JSECURITYCHECK_PROPERTY, USE_JSECURITYCHECK_DEFAULT_VALUE);
+    String key = getResultsKey(project, ciUrl);
+    BuildStabilityMeasures measures = BuildStabilityResults.get(key);
+    if (measures != null) {
+      logger.info("Reusing results of analysis of builds from {}", ciUrl);
+    } else {
+      measures = retrieveMeasures(project, ciUrl, context);
+      if (measures == null) {
+        return;
+      }
+      BuildStabilityResults.put(key, measures);
+    }
+    measures.saveTo(context);
+    measures.saveEvents(project, context);
+  }
+
+  /**
+   * All projects of one analysis with the same settings share results, independently of order of their analysis.
+   */
+  protected String getResultsKey(Project project, String ciUrl) {
+    Configuration configuration = project.getConfiguration();
+    Project root = project.getRoot() == null ? project : project.getRoot();
+    return getCacheKey(project, ciUrl) +
+        "|" + configuration.getString(STORE_PROPERTY) +
+        "|" + root.getKey() +
+        "|" + (root.getAnalysisDate() == null ? null : root.getAnalysisDate().getTime());
+  }
+
+  /**
+   * @return measures or null, if builds can't be retrieved
+   */
+  protected BuildStabilityMeasures retrieveMeasures(Project project, String ciUrl, SensorContext context) {
+    Logger logger = LoggerFactory.getLogger(getClass());
+    int daysToRetrieve = project.getConfiguration().getInt(DAYS_PROPERTY, DAYS_DEFAULT_VALUE);
+    Calendar calendar = Calendar.getInstance();
+    long now = calendar.getTimeInMillis();
+    calendar.add(Calendar.DAY_OF_MONTH, -daysToRetrieve);
+    Date date = calendar.getTime();
+    String storeDirectory = project.getConfiguration().getString(STORE_PROPERTY);
+    if (StringUtils.isNotBlank(storeDirectory)) {
+      return analyseStore(new BuildStore(new File(storeDirectory)), ciUrl, date);
+    }
+    ResultCache cache = getResultCache(project);
+    String cacheKey = getCacheKey(project, ciUrl);
+    Build last = null;
     List<Build> builds;
+    TestStatistics tests = null;
+    FetchStatistics statistics;
+    boolean partial;
+    CiConnector connector = null;
     try {
-      CiConnector connector = CiFactory.create(ciUrl, username, password, useJSecurityCheck);
+      connector = CiFactory.create(ciUrl, getSettings(project));
       if (connector == null) {
         logger.warn("Unknown CiManagement system or incorrect URL: {}", ciUrl);
-        return;
+        return null;
+      }
+      int budget = project.getConfiguration().getInt(BUDGET_PROPERTY, BUDGET_DEFAULT_VALUE);
+      if (budget > 0) {
+        connector.setDeadline(System.currentTimeMillis() + budget * 1000L);
+      }
+      if (cache != null) {
+        last = connector.getMostRecentBuild();
+        BuildStabilityMeasures cached = getCachedMeasures(cache, cacheKey, last);
+        if (cached != null) {
+          logger.info("Last build {} not changed since previous analysis, reusing its results", last.getNumber());
+          saveStatistics(connector.getStatistics(), context);
+          return cached;
+        }
       }
-      int daysToRetrieve = project.getConfiguration().getInt(DAYS_PROPERTY, DAYS_DEFAULT_VALUE);
-      Calendar calendar = Calendar.getInstance();
-      calendar.add(Calendar.DAY_OF_MONTH, -daysToRetrieve);
-      Date date = calendar.getTime();
       builds = connector.getBuildsSince(date);
+      if (project.getConfiguration().getBoolean(STAGES_PROPERTY, STAGES_DEFAULT_VALUE)) {
+        connector.fetchStages(builds, date);
+      }
+      if (project.getConfiguration().getBoolean(TESTS_PROPERTY, TESTS_DEFAULT_VALUE)) {
+        tests = connector.fetchTestReports(builds, date);
+      }
+      statistics = connector.getStatistics();
+      partial = connector.isPartial();
+      if (partial) {
+        logger.warn("Time budget of {} sec exceeded, measures are computed from retrieved builds",
+            project.getConfiguration().getInt(BUDGET_PROPERTY, BUDGET_DEFAULT_VALUE));
+      }
       logger.info("Retrieved {} builds since {}", builds.size(), date);
+      logger.debug("Fetch statistics: {}", statistics);
     } catch (Exception e) {
       logger.error(e.getMessage(), e);
+      return null;
+    } finally {
+      close(connector);
+    }
+    // Statistics describe this analysis only, so not shared
+    saveStatistics(statistics, context);
+    BuildStabilityMeasures measures = computeMeasures(builds);
+    if (tests != null) {
+      addTestMeasures(measures, tests);
+    }
+    measures.add(BuildStabilityMetrics.PARTIAL, partial ? 1.0 : 0.0);
+    measures.expireAt(getPeriodExpiry(builds, date, now - date.getTime()));
+    // Next analysis may retrieve all builds
+    if (last != null && !partial) {
+      try {
+        cache.put(cacheKey, last, measures);
+      } catch (IOException e) {
+        logger.warn("Unable to cache results of analysis: " + e.getMessage(), e);
+      }
+    }
+    return measures;
+  }
+
+  private void close(CiConnector connector) {
+    if (connector == null) {
+      return;
+    }
+    try {
+      connector.close();
+    } catch (IOException e) {
+      LoggerFactory.getLogger(getClass()).warn("Unable to close connection: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @return cache of results or null, if not configured
+   */
+  protected ResultCache getResultCache(Project project) {
+    String directory = project.getConfiguration().getString(RESULT_CACHE_PROPERTY);
+    return StringUtils.isBlank(directory) ? null : new ResultCache(new File(directory));
+  }
+
+  /**
+   * Unlike {@link #getResultsKey(Project, String)}, doesn't depend on analysis, but depends on all settings,
+   * which affect retrieved builds.
+   */
+  protected String getCacheKey(Project project, String ciUrl) {
+    Configuration configuration = project.getConfiguration();
+    return ciUrl + "|" + configuration.getInt(DAYS_PROPERTY, DAYS_DEFAULT_VALUE) +
+        "|" + configuration.getBoolean(STAGES_PROPERTY, STAGES_DEFAULT_VALUE) +
+        "|" + configuration.getBoolean(TESTS_PROPERTY, TESTS_DEFAULT_VALUE) +
+        "|" + configuration.getBoolean(USE_JSON_API_PROPERTY, USE_JSON_API_DEFAULT_VALUE);
+  }
+
+  /**
+   * Broken cache doesn't prevent analysis.
+   *
+   * @return cached measures or null, if there is no valid ones
+   */
+  private BuildStabilityMeasures getCachedMeasures(ResultCache cache, String key, Build last) {
+    if (last == null) {
+      return null;
+    }
+    try {
+      return cache.get(key, last, getCurrentTime());
+    } catch (Exception e) {
+      LoggerFactory.getLogger(getClass()).warn("Unable to read cached results of analysis: " + e.getMessage(), e);
+      return null;
+    }
+  }
+
+  /**
+   * Builds leave period of analysis one by one, so results expire, when oldest build in period leaves it.
+   *
+   * @param period length of period in millisec
+   */
+  private static long getPeriodExpiry(List<Build> builds, Date date, long period) {
+    long expiry = Long.MAX_VALUE;
+    for (Build build : builds) {
+      if (date.before(build.getDate())) {
+        expiry = Math.min(expiry, build.getTimestamp() + period);
+      }
+    }
+    return expiry;
+  }
+
+  /**
+   * Nothing saved, if reports contain no tests.
+   */
+  protected void addTestMeasures(BuildStabilityMeasures measures, TestStatistics tests) {
+    if (tests.size() == 0) {
       return;
     }
-    analyseBuilds(builds, context);
+    PropertiesBuilder<String, Double> slowestBuilder = new PropertiesBuilder<String, Double>(BuildStabilityMetrics.SLOWEST_TESTS);
+    for (String name : tests.getSlowest(TOP_TESTS)) {
+      slowestBuilder.add(toDataKey(name), tests.getAverageDuration(name) / 1000);
+    }
+    PropertiesBuilder<String, Integer> flakiestBuilder = new PropertiesBuilder<String, Integer>(BuildStabilityMetrics.FLAKY_TESTS);
+    for (String name : tests.getFlakiest(TOP_TESTS)) {
+      flakiestBuilder.add(toDataKey(name), tests.getFlips(name));
+    }
+    measures.add(BuildStabilityMetrics.SLOWEST_TESTS, slowestBuilder.buildData());
+    measures.add(BuildStabilityMetrics.FLAKY_TESTS, flakiestBuilder.buildData());
+  }
+
+  /**
+   * Separators of data measure are not allowed in keys.
+   */
+  private static String toDataKey(String name) {
+    return name.replace(';', ' ').replace('=', ' ');
+  }
+
+  /**
+   * Analyses builds, which were pushed by CI server, without any request to CI server.
+   * Aggregated measures are computed from rollups, so they include builds, which were compacted in store,
+   * and are the same as for builds retrieved from CI server, while first day of period was not compacted.
+   * Builds are read only for measures of individual builds (windows, detectors, culprits and charts).
+   */
+  protected BuildStabilityMeasures analyseStore(BuildStore store, String ciUrl, Date date) {
+    Logger logger = LoggerFactory.getLogger(getClass());
+    String job = CiFactory.getKey(ciUrl);
+    if (job == null) {
+      logger.warn("Unknown CiManagement system or incorrect URL: {}", ciUrl);
+      return null;
+    }
+    List<Build> builds;
+    BuildAccumulator total;
+    try {
+      builds = store.getBuildsSince(job, date);
+      total = store.getRollups(job).getTotal(date, builds);
+      logger.info("Read {} builds of {} from {}", new Object[]{builds.size(), job, store.getDirectory()});
+    } catch (Exception e) {
+      logger.error(e.getMessage(), e);
+      return null;
+    }
+    return computeMeasures(builds, total);
+  }
+
+  /**
+   * Number of cached builds saved only, if builds are shared, otherwise nothing can be taken from cache.
+   */
+  protected void saveStatistics(FetchStatistics statistics, SensorContext context) {
+    context.saveMeasure(new Measure(BuildStabilityMetrics.FETCH_TIME, (double) statistics.getTime()));
+    context.saveMeasure(new Measure(BuildStabilityMetrics.FETCH_REQUESTS, (double) statistics.getRequests()));
+    context.saveMeasure(new Measure(BuildStabilityMetrics.FETCH_BYTES, (double) statistics.getBytes()));
+    if (statistics.isSharing()) {
+      context.saveMeasure(new Measure(BuildStabilityMetrics.FETCH_CACHED_BUILDS, (double) statistics.getCachedBuilds()));
+    }
   }
 
   protected void analyseBuilds(List<Build> builds, SensorContext context) {
+    computeMeasures(builds).saveTo(context);
+  }
+
+  /**
+   * @param unordered builds in any order, but computation is faster for {@link BuildSeries} or already ordered builds
+   */
+  protected BuildStabilityMeasures computeMeasures(List<Build> unordered) {
+    return computeMeasures(unordered, null);
+  }
+
+  /**
+   * @param unordered builds in any order
+   * @param total aggregate of builds of period or null to aggregate given builds
+   */
+  protected BuildStabilityMeasures computeMeasures(List<Build> unordered, BuildAccumulator total) {
     Logger logger = LoggerFactory.getLogger(getClass());
 
-    Collections.sort(builds, new Comparator<Build>() {
-      public int compare(Build o1, Build o2) {
-        return o1.getNumber() - o2.getNumber();
-      }
-    });
+    List<Build> builds = BuildSeries.ascending(unordered);
 
     PropertiesBuilder<Integer, Double> durationsBuilder = new PropertiesBuilder<Integer, Double>(BuildStabilityMetrics.DURATIONS);
     PropertiesBuilder<Integer, String> resultsBuilder = new PropertiesBuilder<Integer, String>(BuildStabilityMetrics.RESULTS);
 
-    double successful = 0;
-    double unstable = 0;
-    double failed = 0;
-    double duration = 0;
-    double shortest = Double.POSITIVE_INFINITY;
-    double longest = Double.NEGATIVE_INFINITY;
-
-    double totalTimeToFix = 0;
-    double totalBuildsToFix = 0;
-    double longestTimeToFix = Double.NEGATIVE_INFINITY;
-    int fixes = 0;
-    Build firstFailed = null;
-
-    double totalTimeToStabilize = 0;
-    double totalBuildsToStabilize = 0;
-    double longestTimeToStabilize = Double.NEGATIVE_INFINITY;
-    int stabilized = 0;
-    Build firstUnstable = null;
-
+    long decayReference = builds.isEmpty() ? 0 : builds.get(builds.size() - 1).getTimestamp();
+    WindowedStability windows = new WindowedStability(getCurrentTime(), decayReference);
+    FlakinessDetector flakiness = new FlakinessDetector();
+    DurationChangeDetector durationChange = new DurationChangeDetector();
+    List<Double> queueDurations = new ArrayList<Double>();
+    CulpritAggregator culprits = new CulpritAggregator();
     for (Build build : builds) {
-      logger.debug(build.toString());
+      // Not formatted unless enabled, because formatting decodes lazy build
+      logger.debug("{}", build);
+      windows.add(build);
+      flakiness.add(build);
+      culprits.add(build);
+      if (build.isSuccessful()) {
+        durationChange.add(build);
+      }
 
       int buildNumber = build.getNumber();
-      double buildDuration = build.getDuration();
-      
       String resultValue = "r";
       if(build.isSuccessful()) {
           resultValue = build.isStable() ? "g" : "y";
       }
       resultsBuilder.add(buildNumber, resultValue);
-      durationsBuilder.add(buildNumber, buildDuration / 1000);
-      if (build.isSuccessful()) {
-        if(build.isStable()) {
-          successful++;
-          if(firstUnstable != null) {
-            long buildsToStabilize = build.getNumber() - firstUnstable.getNumber();
-            totalBuildsToStabilize += buildsToStabilize;
-            double timeToStabilize = build.getTimestamp() - firstUnstable.getTimestamp();
-            totalTimeToStabilize += timeToStabilize;
-            longestTimeToStabilize = Math.max(longestTimeToStabilize, timeToStabilize);
-            stabilized++;
-            firstUnstable = null;
-          }
-        } else {
-          unstable++;
-          if(firstUnstable == null) {
-              firstUnstable = build;
-          }
-        }
-
-        duration += buildDuration;
-        shortest = Math.min(shortest, buildDuration);
-        longest = Math.max(longest, buildDuration);
-        if (firstFailed != null) {
-          // Build fixed
-          long buildsToFix = build.getNumber() - firstFailed.getNumber();
-          totalBuildsToFix += buildsToFix;
-          double timeToFix = build.getTimestamp() - firstFailed.getTimestamp();
-          totalTimeToFix += timeToFix;
-          longestTimeToFix = Math.max(longestTimeToFix, timeToFix);
-          fixes++;
-          firstFailed = null;
-        }
-      } else {
-        failed++;
-        if (firstFailed == null) {
-          // Build failed
-          firstFailed = build;
-        }
+      durationsBuilder.add(buildNumber, build.getDuration() / 1000);
+      if (build.getQueueDuration() != null) {
+        queueDurations.add(build.getQueueDuration());
       }
     }
 
-    double count = successful + unstable + failed;
+    BuildAccumulator accumulator = total != null ? total : aggregate(builds);
 
+    BuildStabilityMeasures measures = new BuildStabilityMeasures();
     Build mostRecentBuild = null;
     if(builds.size() > 0) {
         mostRecentBuild = builds.get(builds.size() - 1);
     }
     if(mostRecentBuild != null) {
-        context.saveMeasure(new Measure(BuildStabilityMetrics.CAUSE_DESCRIPTION, mostRecentBuild.getCauseDescription()));
+        measures.add(BuildStabilityMetrics.CAUSE_DESCRIPTION, mostRecentBuild.getCauseDescription());
         if(mostRecentBuild.getCauseUser() != null) {
-            context.saveMeasure(new Measure(BuildStabilityMetrics.CAUSE_USER, mostRecentBuild.getCauseUser()));
+            measures.add(BuildStabilityMetrics.CAUSE_USER, mostRecentBuild.getCauseUser());
         } else if(mostRecentBuild.getCauseProject() != null) {
-            context.saveMeasure(new Measure(BuildStabilityMetrics.CAUSE_PROJECT, mostRecentBuild.getCauseProject()));
-            context.saveMeasure(new Measure(BuildStabilityMetrics.CAUSE_PROJECT_BUILD, mostRecentBuild.getCauseProjectBuild()));
-            context.saveMeasure(new Measure(BuildStabilityMetrics.CAUSE_PROJECT_URL, mostRecentBuild.getCauseProjectUrl()));
+            measures.add(BuildStabilityMetrics.CAUSE_PROJECT, mostRecentBuild.getCauseProject());
+            measures.add(BuildStabilityMetrics.CAUSE_PROJECT_BUILD, mostRecentBuild.getCauseProjectBuild());
+            measures.add(BuildStabilityMetrics.CAUSE_PROJECT_URL, mostRecentBuild.getCauseProjectUrl());
         }
 
-        context.saveMeasure(new Measure(BuildStabilityMetrics.URL, mostRecentBuild.getUrl()));
+        measures.add(BuildStabilityMetrics.URL, mostRecentBuild.getUrl());
     }
 
-    context.saveMeasure(new Measure(BuildStabilityMetrics.BUILDS, count));
-    context.saveMeasure(new Measure(BuildStabilityMetrics.FAILED, failed));
-    context.saveMeasure(new Measure(BuildStabilityMetrics.UNSTABLE, unstable));
-    context.saveMeasure(new Measure(BuildStabilityMetrics.SUCCESS_RATE, divide(successful, count) * 100));
+    measures.expireAt(windows.getExpiry());
+    addAccumulatorMeasures(measures, accumulator);
+    addQueueMeasures(measures, queueDurations);
+    addStageMeasures(measures, builds);
+    addCulpritMeasures(measures, BuildStabilityMetrics.DEVELOPER_CULPRITS, culprits.getDevelopers());
+    addCulpritMeasures(measures, BuildStabilityMetrics.UPSTREAM_CULPRITS, culprits.getUpstreams());
+    measures.add(BuildStabilityMetrics.SUCCESS_RATE_DAY, windows.getSuccessRate(WindowedStability.DAY));
+    measures.add(BuildStabilityMetrics.SUCCESS_RATE_WEEK, windows.getSuccessRate(WindowedStability.WEEK));
+    measures.add(BuildStabilityMetrics.SUCCESS_RATE_MONTH, windows.getSuccessRate(WindowedStability.MONTH));
+    measures.add(BuildStabilityMetrics.DECAYED_SUCCESS_RATE, windows.getDecayedSuccessRate());
 
-    context.saveMeasure(new Measure(BuildStabilityMetrics.AVG_DURATION, divide(duration, successful + unstable)));
-    context.saveMeasure(new Measure(BuildStabilityMetrics.LONGEST_DURATION, normalize(longest)));
-    context.saveMeasure(new Measure(BuildStabilityMetrics.SHORTEST_DURATION, normalize(shortest)));
+    measures.add(BuildStabilityMetrics.FLAKY_ALTERNATIONS, (double) flakiness.getAlternations());
+    measures.add(BuildStabilityMetrics.FLAKY_RERUN_PASSES, (double) flakiness.getRerunPasses());
+    measures.add(BuildStabilityMetrics.FLIP_RATE, flakiness.getFlipRate());
+    measures.add(BuildStabilityMetrics.MAX_FLIP_RATE, flakiness.getMaxFlipRate());
 
-    context.saveMeasure(new Measure(BuildStabilityMetrics.AVG_TIME_TO_FIX, divide(totalTimeToFix, fixes)));
-    context.saveMeasure(new Measure(BuildStabilityMetrics.LONGEST_TIME_TO_FIX, normalize(longestTimeToFix)));
-    context.saveMeasure(new Measure(BuildStabilityMetrics.AVG_BUILDS_TO_FIX, divide(totalBuildsToFix, fixes)));
-
-    context.saveMeasure(new Measure(BuildStabilityMetrics.AVG_TIME_TO_STABILIZE, divide(totalTimeToStabilize, stabilized)));
-    context.saveMeasure(new Measure(BuildStabilityMetrics.LONGEST_TIME_TO_STABILIZE, normalize(longestTimeToStabilize)));
-    context.saveMeasure(new Measure(BuildStabilityMetrics.AVG_BUILDS_TO_STABILIZE, divide(totalBuildsToStabilize, stabilized)));
+    measures.add(BuildStabilityMetrics.DURATION_CHANGE_BUILD, (double) durationChange.getChangeNumber());
+    measures.add(BuildStabilityMetrics.DURATION_CHANGE, durationChange.getChange());
+    if (durationChange.isChanged()) {
+      measures.addEvent(
+          durationChange.getChange() > 0 ? "Build duration increased" : "Build duration decreased",
+          "Average duration of successful builds changed by " + Math.round(durationChange.getChange() / 1000) + " sec since build " + durationChange.getChangeNumber(),
+          Event.CATEGORY_ALERT,
+          new Date(durationChange.getChangeTimestamp())
+      );
+    }
 
     if (!builds.isEmpty()) {
-      context.saveMeasure(durationsBuilder.build());
-      context.saveMeasure(resultsBuilder.build());
+      measures.add(BuildStabilityMetrics.DURATIONS, durationsBuilder.buildData());
+      measures.add(BuildStabilityMetrics.RESULTS, resultsBuilder.buildData());
+    }
+    return measures;
+  }
+
+  /**
+   * Nothing saved, if CI server doesn't report time in queue.
+   */
+  private void addQueueMeasures(BuildStabilityMeasures measures, List<Double> queueDurations) {
+    if (queueDurations.isEmpty()) {
+      return;
+    }
+    Collections.sort(queueDurations);
+    double total = 0;
+    for (Double queueDuration : queueDurations) {
+      total += queueDuration;
+    }
+    measures.add(BuildStabilityMetrics.AVG_QUEUE_TIME, total / queueDurations.size());
+    // Nearest-rank percentile
+    int rank = (int) Math.ceil(queueDurations.size() * 0.9);
+    measures.add(BuildStabilityMetrics.P90_QUEUE_TIME, queueDurations.get(rank - 1));
+  }
+
+  /**
+   * Saves <tt>name=failures,broken builds,average time to fix in seconds</tt> for each culprit, who broke build.
+   * Nothing saved, if there are no such culprits.
+   */
+  private void addCulpritMeasures(BuildStabilityMeasures measures, Metric metric, CulpritAggregator.Culprits culprits) {
+    PropertiesBuilder<String, String> builder = new PropertiesBuilder<String, String>(metric);
+    boolean found = false;
+    for (int id = 0; id < culprits.size(); id++) {
+      if (culprits.getFailures(id) > 0) {
+        found = true;
+        builder.add(toDataKey(culprits.getName(id)),
+            culprits.getFailures(id) + "," + culprits.getBrokenBuilds(id) + "," + Math.round(culprits.getAverageTimeToFix(id) / 1000));
+      }
+    }
+    if (found) {
+      measures.add(metric, builder.buildData());
+    }
+  }
+
+  /**
+   * Nothing saved, if stages of builds were not retrieved.
+   */
+  private void addStageMeasures(BuildStabilityMeasures measures, List<Build> builds) {
+    Map<String, Double> totals = new TreeMap<String, Double>();
+    Map<String, Integer> counts = new HashMap<String, Integer>();
+    Map<String, Double> longest = new HashMap<String, Double>();
+    for (Build build : builds) {
+      if (build.getStageDurations() == null) {
+        continue;
+      }
+      for (Map.Entry<String, Double> stage : build.getStageDurations().entrySet()) {
+        String name = stage.getKey();
+        Double total = totals.get(name);
+        totals.put(name, total == null ? stage.getValue() : total + stage.getValue());
+        Integer count = counts.get(name);
+        counts.put(name, count == null ? 1 : count + 1);
+        Double max = longest.get(name);
+        longest.put(name, max == null ? stage.getValue() : Math.max(max, stage.getValue()));
+      }
+    }
+    if (totals.isEmpty()) {
+      return;
+    }
+    PropertiesBuilder<String, Double> avgBuilder = new PropertiesBuilder<String, Double>(BuildStabilityMetrics.STAGE_AVG_DURATIONS);
+    PropertiesBuilder<String, Double> longestBuilder = new PropertiesBuilder<String, Double>(BuildStabilityMetrics.STAGE_LONGEST_DURATIONS);
+    for (Map.Entry<String, Double> total : totals.entrySet()) {
+      String name = total.getKey();
+      String key = toDataKey(name);
+      avgBuilder.add(key, total.getValue() / counts.get(name) / 1000);
+      longestBuilder.add(key, longest.get(name) / 1000);
+    }
+    measures.add(BuildStabilityMetrics.STAGE_AVG_DURATIONS, avgBuilder.buildData());
+    measures.add(BuildStabilityMetrics.STAGE_LONGEST_DURATIONS, longestBuilder.buildData());
+  }
+
+  protected long getCurrentTime() {
+    return System.currentTimeMillis();
+  }
+
+  /**
+   * @param builds builds ordered by number
+   */
+  protected BuildAccumulator aggregate(List<Build> builds) {
+    if (builds.size() < PARALLEL_THRESHOLD) {
+      return BuildAccumulator.aggregate(builds);
     }
+    int threads = Runtime.getRuntime().availableProcessors();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      return BuildAccumulator.aggregate(builds, executor, threads);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SonarException(e);
+    } catch (ExecutionException e) {
+      throw new SonarException(e.getCause());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  protected void addAccumulatorMeasures(BuildStabilityMeasures measures, BuildAccumulator accumulator) {
+    double count = accumulator.getCount();
+    measures.add(BuildStabilityMetrics.BUILDS, count);
+    measures.add(BuildStabilityMetrics.FAILED, (double) accumulator.getFailed());
+    measures.add(BuildStabilityMetrics.UNSTABLE, (double) accumulator.getUnstable());
+    measures.add(BuildStabilityMetrics.SUCCESS_RATE, divide(accumulator.getSuccessful(), count) * 100);
+
+    measures.add(BuildStabilityMetrics.AVG_DURATION, divide(accumulator.getDuration(), accumulator.getSuccessful() + accumulator.getUnstable()));
+    measures.add(BuildStabilityMetrics.LONGEST_DURATION, normalize(accumulator.getLongestDuration()));
+    measures.add(BuildStabilityMetrics.SHORTEST_DURATION, normalize(accumulator.getShortestDuration()));
+    measures.add(BuildStabilityMetrics.MEDIAN_DURATION, accumulator.getDurationQuantile(0.5));
+    measures.add(BuildStabilityMetrics.P90_DURATION, accumulator.getDurationQuantile(0.9));
+
+    measures.add(BuildStabilityMetrics.AVG_TIME_TO_FIX, divide(accumulator.getTotalTimeToFix(), accumulator.getFixes()));
+    measures.add(BuildStabilityMetrics.LONGEST_TIME_TO_FIX, normalize(accumulator.getLongestTimeToFix()));
+    measures.add(BuildStabilityMetrics.AVG_BUILDS_TO_FIX, divide(accumulator.getTotalBuildsToFix(), accumulator.getFixes()));
+
+    measures.add(BuildStabilityMetrics.AVG_TIME_TO_STABILIZE, divide(accumulator.getTotalTimeToStabilize(), accumulator.getStabilizations()));
+    measures.add(BuildStabilityMetrics.LONGEST_TIME_TO_STABILIZE, normalize(accumulator.getLongestTimeToStabilize()));
+    measures.add(BuildStabilityMetrics.AVG_BUILDS_TO_STABILIZE, divide(accumulator.getTotalBuildsToStabilize(), accumulator.getStabilizations()));
   }
 
   private double normalize(double value) {
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Attributes failures to developers, whose changes were built by breaking build, and to upstream project,
+ * which triggered breaking build. Breaking build is failed build after successful one (or first build).
+ * For each culprit counts:
+ * <ul>
+ * <li>failures - number of breakages</li>
+ * <li>broken builds - number of failed builds from breakage until fix</li>
+ * <li>time to fix - time from breaking build until next successful build</li>
+ * </ul>
+ * Builds should be added in order of numbers. Culprits are identified by dense integer ids,
+ * so counters are kept in arrays instead of maps of objects.
+ */
+public class CulpritAggregator {
+  private static final int[] NO_CULPRITS = new int[0];
+
+  private final Culprits developers = new Culprits();
+  private final Culprits upstreams = new Culprits();
+
+  private boolean broken;
+  private long breakTimestamp;
+  private int brokenBuilds;
+  private int[] breakingDevelopers = NO_CULPRITS;
+  private int[] breakingUpstream = NO_CULPRITS;
+
+  public CulpritAggregator add(Build build) {
+    if (!build.isSuccessful()) {
+      if (!broken) {
+        broken = true;
+        breakTimestamp = build.getTimestamp();
+        brokenBuilds = 0;
+        breakingDevelopers = developers.toIds(build.getDevelopers());
+        breakingUpstream = upstreams.toIds(StringUtils.isEmpty(build.getCauseProject()) ? null : new String[]{build.getCauseProject()});
+        developers.addFailure(breakingDevelopers);
+        upstreams.addFailure(breakingUpstream);
+      }
+      brokenBuilds++;
+    } else if (broken) {
+      broken = false;
+      developers.addFix(breakingDevelopers, brokenBuilds, build.getTimestamp() - breakTimestamp);
+      upstreams.addFix(breakingUpstream, brokenBuilds, build.getTimestamp() - breakTimestamp);
+    }
+    return this;
+  }
+
+  /**
+   * Breakage, which is not fixed yet, is counted without time to fix.
+   */
+  private void flush() {
+    if (broken) {
+      broken = false;
+      developers.addBrokenBuilds(breakingDevelopers, brokenBuilds);
+      upstreams.addBrokenBuilds(breakingUpstream, brokenBuilds);
+    }
+  }
+
+  /**
+   * Should be called after all builds were added.
+   */
+  public Culprits getDevelopers() {
+    flush();
+    return developers;
+  }
+
+  /**
+   * Should be called after all builds were added.
+   */
+  public Culprits getUpstreams() {
+    flush();
+    return upstreams;
+  }
+
+  /**
+   * Counters of one kind of culprits, indexed by id of culprit.
+   */
+  public static class Culprits {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final StringDictionary names = new StringDictionary(Integer.MAX_VALUE);
+    private int[] failures = new int[INITIAL_CAPACITY];
+    private int[] brokenBuilds = new int[INITIAL_CAPACITY];
+    private int[] fixes = new int[INITIAL_CAPACITY];
+    private long[] timeToFix = new long[INITIAL_CAPACITY];
+
+    private int[] toIds(String[] values) {
+      if (values == null || values.length == 0) {
+        return NO_CULPRITS;
+      }
+      int[] ids = new int[values.length];
+      int count = 0;
+      for (String value : values) {
+        int id = names.add(value);
+        if (id != StringDictionary.NOT_FOUND && !contains(ids, count, id)) {
+          ids[count++] = id;
+        }
+      }
+      ensureCapacity(names.size());
+      if (count < ids.length) {
+        int[] result = new int[count];
+        System.arraycopy(ids, 0, result, 0, count);
+        return result;
+      }
+      return ids;
+    }
+
+    private static boolean contains(int[] ids, int count, int id) {
+      for (int i = 0; i < count; i++) {
+        if (ids[i] == id) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity <= failures.length) {
+        return;
+      }
+      int length = Math.max(capacity, failures.length * 2);
+      failures = copyOf(failures, length);
+      brokenBuilds = copyOf(brokenBuilds, length);
+      fixes = copyOf(fixes, length);
+      long[] grown = new long[length];
+      System.arraycopy(timeToFix, 0, grown, 0, timeToFix.length);
+      timeToFix = grown;
+    }
+
+    private void addFailure(int[] ids) {
+      for (int id : ids) {
+        failures[id]++;
+      }
+    }
+
+    private void addBrokenBuilds(int[] ids, int builds) {
+      for (int id : ids) {
+        brokenBuilds[id] += builds;
+      }
+    }
+
+    private void addFix(int[] ids, int builds, long time) {
+      addBrokenBuilds(ids, builds);
+      for (int id : ids) {
+        fixes[id]++;
+        timeToFix[id] += time;
+      }
+    }
+
+    /**
+     * @return number of culprits, ids are from 0 to size - 1
+     */
+    public int size() {
+      return names.size();
+    }
+
+    public String getName(int id) {
+      return names.get(id);
+    }
+
+    public int getFailures(int id) {
+      return failures[id];
+    }
+
+    public int getBrokenBuilds(int id) {
+      return brokenBuilds[id];
+    }
+
+    /**
+     * @return average time to fix in millisec or 0, if nothing was fixed
+     */
+    public double getAverageTimeToFix(int id) {
+      return fixes[id] == 0 ? 0 : (double) timeToFix[id] / fixes[id];
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+      int[] copy = new int[length];
+      System.arraycopy(array, 0, copy, 0, array.length);
+      return copy;
+    }
+  }
+}
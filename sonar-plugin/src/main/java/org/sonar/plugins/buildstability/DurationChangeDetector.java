@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability;
+
+/**
+ * Online Page-Hinkley test, which detects shift of build duration in both directions with constant memory.
+ * <p>
+ * Each duration is compared to mean duration of current regime as relative deviation, so thresholds don't depend
+ * on typical duration of job. Cumulative deviation, which exceeds its minimum (for increase) or maximum (for decrease)
+ * by {@link #THRESHOLD}, signals a change. Change is attributed to the first build after that extremum
+ * and new regime starts from this build.
+ * </p>
+ */
+public class DurationChangeDetector {
+  /**
+   * Number of builds in regime before detection starts, so mean becomes meaningful.
+   */
+  public static final int WARMUP = 10;
+
+  /**
+   * Tolerated relative deviation from mean.
+   */
+  static final double TOLERANCE = 0.05;
+
+  /**
+   * Cumulative relative deviation, which signals a change.
+   */
+  static final double THRESHOLD = 1.0;
+
+  // Current regime
+  private int count;
+  private double sum;
+
+  // Increase
+  private double up;
+  private double upMin;
+  private int upMinCount;
+  private double upMinSum;
+  private int upMinNextNumber;
+  private long upMinNextTimestamp;
+
+  // Decrease
+  private double down;
+  private double downMax;
+  private int downMaxCount;
+  private double downMaxSum;
+  private int downMaxNextNumber;
+  private long downMaxNextTimestamp;
+
+  private boolean upNextPending;
+  private boolean downNextPending;
+
+  // Last detected change
+  private boolean changed;
+  private int changeNumber;
+  private long changeTimestamp;
+  private double change;
+
+  public DurationChangeDetector add(Build build) {
+    return add(build.getNumber(), build.getTimestamp(), build.getDuration());
+  }
+
+  /**
+   * Builds should be added in order of numbers.
+   */
+  public DurationChangeDetector add(int number, long timestamp, double duration) {
+    if (upNextPending) {
+      upMinNextNumber = number;
+      upMinNextTimestamp = timestamp;
+      upNextPending = false;
+    }
+    if (downNextPending) {
+      downMaxNextNumber = number;
+      downMaxNextTimestamp = timestamp;
+      downNextPending = false;
+    }
+    if (count < WARMUP) {
+      count++;
+      sum += duration;
+      if (count == WARMUP) {
+        resetStatistics();
+      }
+      return this;
+    }
+    double mean = sum / count;
+    double deviation = mean == 0 ? 0 : duration / mean - 1;
+    count++;
+    sum += duration;
+
+    up += deviation - TOLERANCE;
+    if (up < upMin) {
+      upMin = up;
+      markUpExtremum();
+    }
+    down += deviation + TOLERANCE;
+    if (down > downMax) {
+      downMax = down;
+      markDownExtremum();
+    }
+
+    if (up - upMin > THRESHOLD) {
+      detect(upMinCount, upMinSum, upMinNextNumber, upMinNextTimestamp);
+    } else if (downMax - down > THRESHOLD) {
+      detect(downMaxCount, downMaxSum, downMaxNextNumber, downMaxNextTimestamp);
+    }
+    return this;
+  }
+
+  private void markUpExtremum() {
+    upMinCount = count;
+    upMinSum = sum;
+    upNextPending = true;
+  }
+
+  private void markDownExtremum() {
+    downMaxCount = count;
+    downMaxSum = sum;
+    downNextPending = true;
+  }
+
+  private void detect(int beforeCount, double beforeSum, int nextNumber, long nextTimestamp) {
+    int afterCount = count - beforeCount;
+    double afterSum = sum - beforeSum;
+    changed = true;
+    change = afterSum / afterCount - beforeSum / beforeCount;
+    changeNumber = nextNumber;
+    changeTimestamp = nextTimestamp;
+    // New regime starts from change
+    count = afterCount;
+    sum = afterSum;
+    if (count >= WARMUP) {
+      resetStatistics();
+    }
+  }
+
+  private void resetStatistics() {
+    up = 0;
+    upMin = 0;
+    down = 0;
+    downMax = 0;
+    markUpExtremum();
+    markDownExtremum();
+  }
+
+  /**
+   * @return true, if change was detected
+   */
+  public boolean isChanged() {
+    return changed;
+  }
+
+  /**
+   * @return number of first build after last detected change
+   */
+  public int getChangeNumber() {
+    return changeNumber;
+  }
+
+  /**
+   * @return timestamp of first build after last detected change
+   */
+  public long getChangeTimestamp() {
+    return changeTimestamp;
+  }
+
+  /**
+   * @return difference between mean duration after and before last detected change, positive for increase
+   */
+  public double getChange() {
+    return change;
+  }
+}
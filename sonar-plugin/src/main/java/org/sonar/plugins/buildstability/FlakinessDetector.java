@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Detects flaky jobs by sequence of build results in one pass with constant memory.
+ * Build considered as passed, if it is successful and stable.
+ * <ul>
+ * <li>alternation - result of build differs from result of previous build</li>
+ * <li>rerun pass - build passed right after failed build, which was triggered by the same upstream build,
+ * so the same changes both failed and passed</li>
+ * <li>flip rate - percentage of alternations among transitions between consecutive builds,
+ * maximal flip rate is computed over sliding window of {@link #WINDOW} transitions</li>
+ * </ul>
+ */
+public class FlakinessDetector {
+  public static final int WINDOW = 10;
+
+  /**
+   * Ring buffer of alternation flags of last transitions.
+   */
+  private final boolean[] window = new boolean[WINDOW];
+  private int windowAlternations;
+
+  private int transitions;
+  private int alternations;
+  private int rerunPasses;
+  private int maxWindowAlternations = -1;
+
+  private Boolean previousPassed;
+  private Build previous;
+
+  /**
+   * Causes are read only for pass after failure, so causes of {@link LazyBuild}s are rarely decoded.
+   */
+  public FlakinessDetector add(Build build) {
+    boolean passed = build.isSuccessful() && build.isStable();
+    if (previousPassed != null) {
+      boolean alternation = passed != previousPassed;
+      int slot = transitions % WINDOW;
+      if (transitions >= WINDOW && window[slot]) {
+        windowAlternations--;
+      }
+      window[slot] = alternation;
+      transitions++;
+      if (alternation) {
+        alternations++;
+        windowAlternations++;
+        if (passed && isSameUpstream(build, previous)) {
+          rerunPasses++;
+        }
+      }
+      if (transitions >= WINDOW) {
+        maxWindowAlternations = Math.max(maxWindowAlternations, windowAlternations);
+      }
+    }
+    previousPassed = passed;
+    previous = build;
+    return this;
+  }
+
+  private static boolean isSameUpstream(Build build, Build previous) {
+    String upstream = getUpstream(build);
+    return upstream != null && upstream.equals(getUpstream(previous));
+  }
+
+  private static String getUpstream(Build build) {
+    if (StringUtils.isEmpty(build.getCauseProject()) || StringUtils.isEmpty(build.getCauseProjectBuild())) {
+      return null;
+    }
+    return build.getCauseProject() + "#" + build.getCauseProjectBuild();
+  }
+
+  public int getAlternations() {
+    return alternations;
+  }
+
+  public int getRerunPasses() {
+    return rerunPasses;
+  }
+
+  /**
+   * @return percentage of alternations among all transitions
+   */
+  public double getFlipRate() {
+    return transitions == 0 ? 0 : alternations * 100.0 / transitions;
+  }
+
+  /**
+   * @return maximal flip rate over sliding window or overall flip rate, if there is less transitions than window size
+   */
+  public double getMaxFlipRate() {
+    return maxWindowAlternations < 0 ? getFlipRate() : maxWindowAlternations * 100.0 / WINDOW;
+  }
+}
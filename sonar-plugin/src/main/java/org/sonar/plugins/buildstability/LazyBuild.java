@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability;
+
+/**
+ * Build, which decodes variable-length fields (URL, causes and developers) only when one of them is accessed.
+ * Analysis uses them only for the most recent build and for builds around failures (build, which broke job,
+ * and pass after failure), so for most of history they are never decoded.
+ * Core fields (number, timestamp, duration, status) should be set eagerly.
+ */
+public abstract class LazyBuild extends Build {
+  private volatile boolean decoded;
+  private boolean decoding;
+
+  /**
+   * Sets variable-length fields using setters. Called once, or again on next access, if it has thrown exception.
+   */
+  protected abstract void decode();
+
+  private void ensureDecoded() {
+    if (decoded) {
+      return;
+    }
+    synchronized (this) {
+      // setters are called from decode
+      if (decoded || decoding) {
+        return;
+      }
+      decoding = true;
+      try {
+        decode();
+        decoded = true;
+      } finally {
+        decoding = false;
+      }
+    }
+  }
+
+  @Override
+  public String getUrl() {
+    ensureDecoded();
+    return super.getUrl();
+  }
+
+  @Override
+  public Build setUrl(String url) {
+    ensureDecoded();
+    return super.setUrl(url);
+  }
+
+  @Override
+  public String getCauseDescription() {
+    ensureDecoded();
+    return super.getCauseDescription();
+  }
+
+  @Override
+  public Build setCauseDescription(String causeDescription) {
+    ensureDecoded();
+    return super.setCauseDescription(causeDescription);
+  }
+
+  @Override
+  public String getCauseUser() {
+    ensureDecoded();
+    return super.getCauseUser();
+  }
+
+  @Override
+  public Build setCauseUser(String causeUser) {
+    ensureDecoded();
+    return super.setCauseUser(causeUser);
+  }
+
+  @Override
+  public String getCauseProject() {
+    ensureDecoded();
+    return super.getCauseProject();
+  }
+
+  @Override
+  public Build setCauseProject(String causeProject) {
+    ensureDecoded();
+    return super.setCauseProject(causeProject);
+  }
+
+  @Override
+  public String getCauseProjectBuild() {
+    ensureDecoded();
+    return super.getCauseProjectBuild();
+  }
+
+  @Override
+  public Build setCauseProjectBuild(String causeProjectBuild) {
+    ensureDecoded();
+    return super.setCauseProjectBuild(causeProjectBuild);
+  }
+
+  @Override
+  public String getCauseProjectUrl() {
+    ensureDecoded();
+    return super.getCauseProjectUrl();
+  }
+
+  @Override
+  public Build setCauseProjectUrl(String causeProjectUrl) {
+    ensureDecoded();
+    return super.setCauseProjectUrl(causeProjectUrl);
+  }
+
+  @Override
+  public String[] getDevelopers() {
+    ensureDecoded();
+    return super.getDevelopers();
+  }
+
+  @Override
+  public Build setDevelopers(String... developers) {
+    ensureDecoded();
+    return super.setDevelopers(developers);
+  }
+
+  /**
+   * Copy of build, which is not decoded yet, stays lazy: its variable-length fields are taken from this build
+   * only when one of them is accessed.
+   */
+  @Override
+  public Build copy() {
+    if (decoded) {
+      return super.copy();
+    }
+    final LazyBuild original = this;
+    LazyBuild copy = new LazyBuild() {
+      @Override
+      protected void decode() {
+        setUrl(original.getUrl());
+        setCauseDescription(original.getCauseDescription());
+        setCauseUser(original.getCauseUser());
+        setCauseProject(original.getCauseProject());
+        setCauseProjectBuild(original.getCauseProjectBuild());
+        setCauseProjectUrl(original.getCauseProjectUrl());
+        setDevelopers(original.getDevelopers());
+      }
+    };
+    copyTo(copy);
+    return copy;
+  }
+
+  /**
+   * @return true, if variable-length fields were decoded
+   */
+  public boolean isDecoded() {
+    return decoded;
+  }
+}
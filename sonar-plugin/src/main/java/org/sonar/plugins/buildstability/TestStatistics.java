@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Duration and failure counters of tests across builds.
+ * <p>
+ * Reports may contain tens of thousands of tests, so each test is stored once: name is mapped to index
+ * in parallel arrays of primitives instead of object per test per build.
+ * Results should be added in order of builds, because flakiness is number of changes of test status.
+ * </p>
+ */
+public class TestStatistics {
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final byte UNKNOWN = 0;
+  private static final byte PASSED = 1;
+  private static final byte FAILED = 2;
+
+  private final Map<String, Integer> index = new HashMap<String, Integer>();
+  private String[] names = new String[INITIAL_CAPACITY];
+  private double[] durations = new double[INITIAL_CAPACITY];
+  private int[] runs = new int[INITIAL_CAPACITY];
+  private int[] failures = new int[INITIAL_CAPACITY];
+  private int[] flips = new int[INITIAL_CAPACITY];
+  private byte[] statuses = new byte[INITIAL_CAPACITY];
+  private int size;
+
+  /**
+   * @param duration duration in millisec
+   */
+  public void add(String name, double duration, boolean failed) {
+    Integer i = index.get(name);
+    if (i == null) {
+      i = size;
+      ensureCapacity(size + 1);
+      names[size] = name;
+      index.put(name, size);
+      size++;
+    }
+    durations[i] += duration;
+    runs[i]++;
+    byte status = failed ? FAILED : PASSED;
+    if (failed) {
+      failures[i]++;
+    }
+    if (statuses[i] != UNKNOWN && statuses[i] != status) {
+      flips[i]++;
+    }
+    statuses[i] = status;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= names.length) {
+      return;
+    }
+    int length = names.length * 2;
+    names = copyOf(names, length);
+    durations = copyOf(durations, length);
+    runs = copyOf(runs, length);
+    failures = copyOf(failures, length);
+    flips = copyOf(flips, length);
+    statuses = copyOf(statuses, length);
+  }
+
+  /**
+   * @return number of distinct tests
+   */
+  public int size() {
+    return size;
+  }
+
+  public int getRuns(String name) {
+    Integer i = index.get(name);
+    return i == null ? 0 : runs[i];
+  }
+
+  public int getFailures(String name) {
+    Integer i = index.get(name);
+    return i == null ? 0 : failures[i];
+  }
+
+  /**
+   * @return number of changes of status between passed and failed
+   */
+  public int getFlips(String name) {
+    Integer i = index.get(name);
+    return i == null ? 0 : flips[i];
+  }
+
+  /**
+   * @return average duration in millisec
+   */
+  public double getAverageDuration(String name) {
+    Integer i = index.get(name);
+    return i == null ? 0 : durations[i] / runs[i];
+  }
+
+  /**
+   * @return at most count tests with highest average duration, from slowest
+   */
+  public List<String> getSlowest(int count) {
+    return top(count, new Comparator<Integer>() {
+      public int compare(Integer o1, Integer o2) {
+        return Double.compare(durations[o1] / runs[o1], durations[o2] / runs[o2]);
+      }
+    }, false);
+  }
+
+  /**
+   * @return at most count tests with highest number of status changes, from most flaky; tests without changes are excluded
+   */
+  public List<String> getFlakiest(int count) {
+    return top(count, new Comparator<Integer>() {
+      public int compare(Integer o1, Integer o2) {
+        return flips[o1] != flips[o2] ? flips[o1] - flips[o2] : failures[o1] - failures[o2];
+      }
+    }, true);
+  }
+
+  /**
+   * Keeps only given count of candidates in heap, so doesn't sort all tests.
+   */
+  private List<String> top(int count, Comparator<Integer> comparator, boolean onlyFlaky) {
+    if (count <= 0) {
+      return Collections.emptyList();
+    }
+    PriorityQueue<Integer> heap = new PriorityQueue<Integer>(count + 1, comparator);
+    for (int i = 0; i < size; i++) {
+      if (onlyFlaky && flips[i] == 0) {
+        continue;
+      }
+      heap.add(i);
+      if (heap.size() > count) {
+        heap.poll();
+      }
+    }
+    Integer[] top = heap.toArray(new Integer[heap.size()]);
+    Arrays.sort(top, Collections.reverseOrder(comparator));
+    List<String> result = new ArrayList<String>(top.length);
+    for (Integer i : top) {
+      result.add(names[i]);
+    }
+    return result;
+  }
+
+  private static String[] copyOf(String[] array, int length) {
+    String[] copy = new String[length];
+    System.arraycopy(array, 0, copy, 0, array.length);
+    return copy;
+  }
+
+  private static double[] copyOf(double[] array, int length) {
+    double[] copy = new double[length];
+    System.arraycopy(array, 0, copy, 0, array.length);
+    return copy;
+  }
+
+  private static int[] copyOf(int[] array, int length) {
+    int[] copy = new int[length];
+    System.arraycopy(array, 0, copy, 0, array.length);
+    return copy;
+  }
+
+  private static byte[] copyOf(byte[] array, int length) {
+    byte[] copy = new byte[length];
+    System.arraycopy(array, 0, copy, 0, array.length);
+    return copy;
+  }
+}
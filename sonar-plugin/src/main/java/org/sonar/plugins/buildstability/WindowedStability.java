@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability;
+
+/**
+ * Success rates over several time windows and exponentially decayed success rate, which are computed in one pass.
+ * <p>
+ * Weight of build halves every {@link #HALF_LIFE}. Weights are computed relatively to given reference time
+ * (usually time of last build) instead of current time, so they don't underflow for old builds. Ratio doesn't depend
+ * on reference time.
+ * </p>
+ */
+public class WindowedStability {
+  public static final int DAY = 0;
+  public static final int WEEK = 1;
+  public static final int MONTH = 2;
+
+  private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+  private static final long[] WINDOWS = {DAY_MILLIS, 7 * DAY_MILLIS, 30 * DAY_MILLIS};
+
+  public static final long HALF_LIFE = 7 * DAY_MILLIS;
+
+  private final long now;
+  private final long decayReference;
+  private final int[] builds = new int[WINDOWS.length];
+  private final int[] successful = new int[WINDOWS.length];
+  private long expiry = Long.MAX_VALUE;
+  private double weight;
+  private double successfulWeight;
+
+  /**
+   * @param now            end of windows
+   * @param decayReference time, for which weight of build is 1
+   */
+  public WindowedStability(long now, long decayReference) {
+    this.now = now;
+    this.decayReference = decayReference;
+  }
+
+  public WindowedStability add(Build build) {
+    boolean ok = build.isSuccessful() && build.isStable();
+    long age = now - build.getTimestamp();
+    for (int i = 0; i < WINDOWS.length; i++) {
+      if (age < WINDOWS[i]) {
+        builds[i]++;
+        expiry = Math.min(expiry, build.getTimestamp() + WINDOWS[i]);
+        if (ok) {
+          successful[i]++;
+        }
+      }
+    }
+    double buildWeight = Math.pow(0.5, (decayReference - build.getTimestamp()) / (double) HALF_LIFE);
+    weight += buildWeight;
+    if (ok) {
+      successfulWeight += buildWeight;
+    }
+    return this;
+  }
+
+  /**
+   * @param window one of {@link #DAY}, {@link #WEEK} or {@link #MONTH}
+   * @return percentage of successful builds in given window or 0, if there is no builds
+   */
+  public double getSuccessRate(int window) {
+    return builds[window] == 0 ? 0 : successful[window] * 100.0 / builds[window];
+  }
+
+  public int getBuilds(int window) {
+    return builds[window];
+  }
+
+  /**
+   * @return time, when first build leaves its window and so success rates change,
+   *         or {@link Long#MAX_VALUE}, if there is no builds in windows
+   */
+  public long getExpiry() {
+    return expiry;
+  }
+
+  /**
+   * @return weighted percentage of successful builds or 0, if there is no builds
+   */
+  public double getDecayedSuccessRate() {
+    return weight == 0 ? 0 : successfulWeight * 100 / weight;
+  }
+}
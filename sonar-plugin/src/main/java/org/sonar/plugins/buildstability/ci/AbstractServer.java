@@ -21,8 +21,20 @@ import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.lang.StringUtils;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.dom4j.Element;
+import org.sonar.plugins.buildstability.Build;
+import org.sonar.plugins.buildstability.TestStatistics;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author Evgeny Mandrikov
@@ -68,12 +80,132 @@ public abstract class AbstractServer {
     this.key = key;
   }
 
+  /**
+   * Applies connection settings. Subclasses may override this method in order to take into account specific settings.
+   */
+  protected void configure(CiSettings settings) {
+    setUsername(settings.getUsername());
+    setPassword(settings.getPassword());
+  }
+
+  public Set<CiCapability> getCapabilities() {
+    return EnumSet.noneOf(CiCapability.class);
+  }
+
+  /**
+   * @return fastest way to retrieve builds from this server
+   */
+  public RetrievalStrategy getRetrievalStrategy() {
+    return RetrievalStrategy.PER_BUILD;
+  }
+
   protected abstract String getBuildUrl(String number);
 
+  /**
+   * Required for {@link RetrievalStrategy#BULK} and {@link RetrievalStrategy#PAGED}.
+   *
+   * @return URL, which lists builds or first page of builds
+   */
+  protected String getBuildsUrl(Date since) {
+    return null;
+  }
+
+  /**
+   * Required for {@link RetrievalStrategy#PAGED}.
+   *
+   * @param response response for current page
+   * @return URL of next page or null, if current page is last
+   */
+  protected String getNextPageUrl(CiResponse response) {
+    return null;
+  }
+
   protected abstract String getLastBuildUrl();
 
+  /**
+   * Required for {@link CiCapability#STAGE_TIMINGS}.
+   *
+   * @return URL, which describes stages of given build in JSON
+   */
+  protected String getStagesUrl(Build build) {
+    return null;
+  }
+
+  /**
+   * Required for {@link CiCapability#STAGE_TIMINGS}.
+   *
+   * @param parser parser positioned at the start of root object
+   * @return durations of stages in millisec by name of stage
+   */
+  protected Map<String, Double> toStages(JsonParser parser) throws IOException {
+    return null;
+  }
+
+  /**
+   * Required for {@link CiCapability#TEST_REPORTS}.
+   *
+   * @return URL of report about tests of given build
+   */
+  protected String getTestReportUrl(Build build) {
+    return null;
+  }
+
+  /**
+   * Required for {@link CiCapability#TEST_REPORTS}. Report should be streamed, because it can be huge.
+   */
+  protected void readTestReport(InputStream input, TestStatistics statistics) throws IOException {
+  }
+
   protected abstract Unmarshaller getBuildUnmarshaller();
 
+  /**
+   * @return unmarshaller for JSON responses, or null if server should be accessed through XML
+   */
+  protected JsonUnmarshaller getJsonBuildUnmarshaller() {
+    return null;
+  }
+
+  /**
+   * Unmarshalls list of builds, where each child of root element represents build.
+   */
+  protected List<Build> toModels(Element root) {
+    List<Build> builds = new ArrayList<Build>();
+    for (Object element : root.elements()) {
+      builds.add(getBuildUnmarshaller().toModel((Element) element));
+    }
+    return builds;
+  }
+
+  /**
+   * Unmarshalls list of builds, where each array of root object contains builds.
+   *
+   * @param parser parser positioned at the start of root object
+   */
+  protected List<Build> toModels(JsonParser parser) throws IOException {
+    List<Build> builds = new ArrayList<Build>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      if (parser.nextToken() == JsonToken.START_ARRAY) {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+          if (token == JsonToken.START_OBJECT) {
+            addBuild(builds, getJsonBuildUnmarshaller().toModel(parser));
+          } else {
+            parser.skipChildren();
+          }
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return builds;
+  }
+
+  protected static void addBuild(List<Build> builds, Build build) {
+    if (build != null) {
+      builds.add(build);
+    }
+  }
+
   protected void doLogin(HttpClient client) throws IOException {
     if (!StringUtils.isBlank(getUsername()) && !StringUtils.isBlank(getPassword())) {
       client.getParams().setAuthenticationPreemptive(true);
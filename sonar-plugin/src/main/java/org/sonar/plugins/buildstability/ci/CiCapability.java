@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci;
+
+/**
+ * Optional features, which Continuous Integration Server connector may support.
+ * How builds are listed is described separately by {@link RetrievalStrategy}.
+ */
+public enum CiCapability {
+  /**
+   * Durations of stages of pipeline builds can be retrieved.
+   */
+  STAGE_TIMINGS,
+
+  /**
+   * Results of tests of builds can be retrieved.
+   */
+  TEST_REPORTS
+}
@@ -16,18 +16,37 @@
 
 package org.sonar.plugins.buildstability.ci;
 
-import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
 import org.dom4j.io.SAXReader;
 import org.sonar.api.utils.SonarException;
 import org.sonar.plugins.buildstability.Build;
+import org.sonar.plugins.buildstability.BuildSeries;
+import org.sonar.plugins.buildstability.LazyBuild;
+import org.sonar.plugins.buildstability.StringDictionary;
+import org.sonar.plugins.buildstability.TestStatistics;
+import org.sonar.plugins.buildstability.ci.SharedBuilds.Listing;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -35,98 +54,589 @@ import java.util.regex.Pattern;
  * @author Evgeny Mandrikov
  */
 public class CiConnector {
-  private static final int TIMEOUT = 30 * 1000;
+  /**
+   * Maximal number of concurrent requests to CI server.
+   */
+  static final int MAX_CONNECTIONS = 4;
+  /**
+   * Number of retries of request, which failed because of server error (status 5xx).
+   */
+  private static final int MAX_RETRIES = 2;
+  private static final long RETRY_DELAY = 100;
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  /**
+   * Maximal length of XML declaration in bytes, including byte order mark.
+   */
+  private static final int DECLARATION_LENGTH = 100;
+  /**
+   * Encoding in XML declaration, which is preceded only by optional UTF-8 byte order mark decoded as ISO-8859-1.
+   */
+  private static final Pattern XML_ENCODING = Pattern.compile("^(?:\\u00EF\\u00BB\\u00BF)?<\\?xml[^>]*\\sencoding=[\"']([^\"']+)[\"']");
+  private static final Pattern CHARSET = Pattern.compile("charset=\"?([^\";\\s]+)", Pattern.CASE_INSENSITIVE);
+  /**
+   * Maximal number of distinct users and upstream projects, which share instances within one connector.
+   */
+  private static final int MAX_CAUSES = 1000;
+  private static final Comparator<Build> DESCENDING_ORDER = new Comparator<Build>() {
+    public int compare(Build o1, Build o2) {
+      return o2.getNumber() - o1.getNumber();
+    }
+  };
 
-  private HttpClient client;
+  private CiTransport transport;
   private AbstractServer server;
+  private FetchStatistics statistics = new FetchStatistics();
+  private final StringDictionary causes = new StringDictionary(MAX_CAUSES);
+  private long deadline = Long.MAX_VALUE;
+  private volatile boolean partial;
+  private boolean shareBuilds;
 
   protected CiConnector(AbstractServer server) {
+    this(server, new HttpTransport(MAX_CONNECTIONS));
+  }
+
+  protected CiConnector(AbstractServer server, CiTransport transport) {
     this.server = server;
-    client = new HttpClient();
-    client.getParams().setSoTimeout(TIMEOUT);
+    this.transport = transport;
+  }
+
+  /**
+   * Limits time of all following requests. Requests, which are in progress at given time, are cancelled,
+   * and builds retrieved so far are returned, see {@link #isPartial()}.
+   *
+   * @param deadline time in millisec
+   */
+  public void setDeadline(long deadline) {
+    this.deadline = deadline;
+    transport.setDeadline(deadline);
+  }
+
+  /**
+   * Enables sharing of builds and listings of builds with other analyses within JVM, see {@link SharedBuilds}.
+   */
+  void setShareBuilds(boolean shareBuilds) {
+    this.shareBuilds = shareBuilds;
+    statistics.setSharing(shareBuilds);
+  }
+
+  /**
+   * @return true, if not all requested data was retrieved, because of deadline
+   */
+  public boolean isPartial() {
+    return partial;
   }
 
+  private boolean isExpired() {
+    return System.currentTimeMillis() >= deadline;
+  }
+
+  /**
+   * Marks result as partial, if exception caused by deadline.
+   */
+  private void handleTimeout(IOException e) throws IOException {
+    if (!isExpired()) {
+      throw e;
+    }
+    partial = true;
+  }
+
+  /**
+   * Releases connections and completes recording, if responses are recorded.
+   */
+  public void close() throws IOException {
+    transport.close();
+  }
+
+  /**
+   * Last build changes with each new build, so when shared, it's kept as short-lived listing.
+   */
   protected Build getLastBuild() throws IOException {
-    Document dom = executeGetMethod(server.getLastBuildUrl());
-    if (dom == null) {
-      return null;
+    final String url = server.getLastBuildUrl();
+    if (!shareBuilds) {
+      return fetchBuild(url);
     }
-    return server.getBuildUnmarshaller().toModel(dom.getRootElement());
+    Listing listing = SharedBuilds.getListing(getSharingKey(url), new Callable<Listing>() {
+      public Listing call() throws IOException {
+        Build last = fetchBuild(url);
+        return last == null ? null : new Listing(Collections.singletonList(last), null);
+      }
+    }, deadline, statistics);
+    return listing == null ? null : listing.getBuilds().get(0);
   }
 
   protected Build getBuild(String number) throws IOException {
-    Document dom = executeGetMethod(server.getBuildUrl(number));
+    final String url = server.getBuildUrl(number);
+    if (!shareBuilds) {
+      return fetchBuild(url);
+    }
+    return SharedBuilds.get(getSharingKey(url), new Callable<Build>() {
+      public Build call() throws IOException {
+        return fetchBuild(url);
+      }
+    }, deadline, statistics);
+  }
+
+  protected Build fetchBuild(String url) throws IOException {
+    JsonUnmarshaller jsonUnmarshaller = server.getJsonBuildUnmarshaller();
+    if (jsonUnmarshaller != null) {
+      JsonParser parser = executeGetJsonMethod(url);
+      if (parser == null) {
+        return null;
+      }
+      try {
+        parser.nextToken();
+        return intern(jsonUnmarshaller.toModel(parser));
+      } finally {
+        parser.close();
+      }
+    }
+    Document dom = executeGetMethod(url);
     if (dom == null) {
       return null;
     }
-    return server.getBuildUnmarshaller().toModel(dom.getRootElement());
+    return intern(server.getBuildUnmarshaller().toModel(dom.getRootElement()));
+  }
+
+  /**
+   * Users and upstream projects repeat in many builds, so builds retrieved by this connector share their instances.
+   * Lazy builds are skipped, because their causes are usually never decoded.
+   */
+  private Build intern(Build build) {
+    if (build != null && !(build instanceof LazyBuild)) {
+      build.setCauseUser(causes.intern(build.getCauseUser()));
+      build.setCauseProject(causes.intern(build.getCauseProject()));
+    }
+    return build;
+  }
+
+  private List<Build> intern(List<Build> builds) {
+    for (Build build : builds) {
+      intern(build);
+    }
+    return builds;
   }
 
   protected Build getBuild(int number) throws IOException {
     return getBuild(String.valueOf(number));
   }
 
+  public FetchStatistics getStatistics() {
+    return statistics;
+  }
+
   public List<Build> getBuilds(int count) throws IOException {
-    server.doLogin(client);
-    List<Build> builds = new ArrayList<Build>();
-    Build last = getLastBuild();
-    builds.add(last);
-    for (int i = 1; i <= count; i++) {
-      builds.add(getBuild(last.getNumber() - i));
+    long start = System.currentTimeMillis();
+    try {
+      transport.login(server);
+      List<Build> builds = new ArrayList<Build>();
+      Build last = getLastBuild();
+      builds.add(last);
+      for (int i = 1; i <= count; i++) {
+        builds.add(getBuild(last.getNumber() - i));
+      }
+      return builds;
+    } finally {
+      statistics.addTime(System.currentTimeMillis() - start);
+    }
+  }
+
+  /**
+   * @return last build or null, if there is no builds
+   */
+  public Build getMostRecentBuild() throws IOException {
+    long start = System.currentTimeMillis();
+    try {
+      transport.login(server);
+      return getLastBuild();
+    } finally {
+      statistics.addTime(System.currentTimeMillis() - start);
+    }
+  }
+
+  /**
+   * All strategies retrieve newest builds first, so if deadline comes, then only oldest builds are missing.
+   *
+   * @return builds ordered from last to first
+   */
+  public BuildSeries getBuildsSince(Date date) throws IOException {
+    long start = System.currentTimeMillis();
+    try {
+      transport.login(server);
+      List<Build> builds = new ArrayList<Build>();
+      try {
+        if (server.getRetrievalStrategy() == RetrievalStrategy.BULK) {
+          getBuildsSinceInBulk(builds, date);
+        } else if (server.getRetrievalStrategy() == RetrievalStrategy.PAGED) {
+          getBuildsSinceByPages(builds, date);
+        } else {
+          builds.add(getLastBuild());
+          appendBuildsSince(builds, date);
+        }
+      } catch (IOException e) {
+        handleTimeout(e);
+        Collections.sort(builds, DESCENDING_ORDER);
+      }
+      return new BuildSeries(builds, BuildSeries.Order.DESCENDING);
+    } finally {
+      statistics.addTime(System.currentTimeMillis() - start);
+    }
+  }
+
+  /**
+   * Retrieves durations of stages concurrently for builds after given date, which don't have them yet.
+   * Requests are sent from last build to first. Builds, which were not processed before deadline, remain without stages.
+   * Does nothing, if server doesn't support {@link CiCapability#STAGE_TIMINGS}.
+   */
+  public void fetchStages(List<Build> builds, Date date) throws IOException {
+    if (!server.getCapabilities().contains(CiCapability.STAGE_TIMINGS)) {
+      return;
+    }
+    final List<Build> missing = new ArrayList<Build>();
+    for (Build build : builds) {
+      if (build.getStageDurations() == null && date.before(build.getDate())) {
+        missing.add(build);
+      }
+    }
+    if (missing.isEmpty()) {
+      return;
+    }
+    long start = System.currentTimeMillis();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(MAX_CONNECTIONS, missing.size()));
+    try {
+      List<Future<Map<String, Double>>> futures = new ArrayList<Future<Map<String, Double>>>();
+      for (final Build build : missing) {
+        futures.add(executor.submit(new Callable<Map<String, Double>>() {
+          public Map<String, Double> call() throws IOException {
+            return fetchStages(build);
+          }
+        }));
+      }
+      for (int i = 0; i < missing.size(); i++) {
+        Map<String, Double> stages = get(futures.get(i));
+        if (stages != null) {
+          missing.get(i).setStageDurations(stages);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SonarException(e);
+    } finally {
+      executor.shutdownNow();
+      statistics.addTime(System.currentTimeMillis() - start);
+    }
+  }
+
+  /**
+   * @return result or null, if it was not retrieved before deadline
+   */
+  private <T> T get(Future<T> future) throws IOException, InterruptedException {
+    try {
+      if (deadline == Long.MAX_VALUE) {
+        return future.get();
+      }
+      return future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      partial = true;
+      return null;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        handleTimeout((IOException) e.getCause());
+        return null;
+      }
+      throw new SonarException(e.getCause());
+    }
+  }
+
+  /**
+   * @return durations of stages or empty map, if build is not a pipeline
+   */
+  protected Map<String, Double> fetchStages(Build build) throws IOException {
+    JsonParser parser = executeGetJsonMethod(server.getStagesUrl(build));
+    if (parser == null) {
+      return Collections.emptyMap();
+    }
+    try {
+      parser.nextToken();
+      return server.toStages(parser);
+    } finally {
+      parser.close();
+    }
+  }
+
+  /**
+   * Retrieves reports about tests of builds after given date one by one, from first to last, and streams them into statistics.
+   * Order is required to detect flips of tests, so if deadline comes, then reports of last builds are missing.
+   *
+   * @return statistics or null, if server doesn't support {@link CiCapability#TEST_REPORTS}
+   */
+  public TestStatistics fetchTestReports(List<Build> builds, Date date) throws IOException {
+    if (!server.getCapabilities().contains(CiCapability.TEST_REPORTS)) {
+      return null;
+    }
+    long start = System.currentTimeMillis();
+    try {
+      TestStatistics tests = new TestStatistics();
+      try {
+        for (Build build : BuildSeries.ascending(builds)) {
+          if (date.before(build.getDate())) {
+            fetchTestReport(build, tests);
+          }
+        }
+      } catch (IOException e) {
+        handleTimeout(e);
+      }
+      return tests;
+    } finally {
+      statistics.addTime(System.currentTimeMillis() - start);
     }
-    return builds;
   }
 
-  public List<Build> getBuildsSince(Date date) throws IOException {
-    server.doLogin(client);
-    List<Build> builds = new ArrayList<Build>();
-    Build current = getLastBuild();
-    builds.add(current);
-    Build last = current;
+  /**
+   * Build without tests has no report, so it's skipped.
+   */
+  private void fetchTestReport(Build build, TestStatistics tests) throws IOException {
+    CiResponse response = execute(server.getTestReportUrl(build));
+    if (response == null) {
+      return;
+    }
+    try {
+      CountingInputStream input = new CountingInputStream(response.getBodyAsStream());
+      try {
+        server.readTestReport(input, tests);
+      } finally {
+        statistics.addRequest(input.count);
+      }
+    } finally {
+      response.close();
+    }
+  }
+
+  private void getBuildsSinceInBulk(List<Build> builds, Date date) throws IOException {
+    Listing listing = getListing(server.getBuildsUrl(date));
+    List<Build> all = listing == null ? null : listing.getBuilds();
+    if (all == null || all.isEmpty()) {
+      builds.add(getLastBuild());
+      appendBuildsSince(builds, date);
+      return;
+    }
+    Collections.sort(all, DESCENDING_ORDER);
+    for (Build build : all) {
+      builds.add(build);
+      if (!date.before(build.getDate())) {
+        return;
+      }
+    }
+    // Server may list not all builds, so retrieve the rest one by one
+    appendBuildsSince(builds, date);
+  }
+
+  /**
+   * Unlike other strategies, doesn't include build, which is not after given date,
+   * because server lists only builds changed since this date.
+   */
+  private void getBuildsSinceByPages(List<Build> builds, Date date) throws IOException {
+    String url = server.getBuildsUrl(date);
+    while (url != null) {
+      Listing page = getListing(url);
+      if (page == null || page.getBuilds().isEmpty()) {
+        break;
+      }
+      for (Build build : page.getBuilds()) {
+        // Server may list old builds, which were updated recently
+        if (date.before(build.getDate())) {
+          builds.add(build);
+        }
+      }
+      url = page.getNextUrl();
+    }
+    Collections.sort(builds, DESCENDING_ORDER);
+  }
+
+  /**
+   * Retrieves builds one by one, starting from predecessor of last build in given list, until build, which is not after given date.
+   */
+  private void appendBuildsSince(List<Build> builds, Date date) throws IOException {
+    Build last = builds.get(builds.size() - 1);
     int number = last.getNumber();
     while (date.before(last.getDate()) && number > 0) {
       number--;
-      current = getBuild(number);
+      Build current = getBuild(number);
       if (current != null) {
         builds.add(current);
         last = current;
       }
     }
-    return builds;
+  }
+
+  /**
+   * @return builds, which caller may modify, or null, if resource not found
+   */
+  private Listing getListing(final String url) throws IOException {
+    if (!shareBuilds) {
+      return fetchListing(url);
+    }
+    return SharedBuilds.getListing(getSharingKey(url), new Callable<Listing>() {
+      public Listing call() throws IOException {
+        return fetchListing(url);
+      }
+    }, deadline, statistics);
+  }
+
+  /**
+   * Credentials are part of key, so builds retrieved with credentials are not given to analysis
+   * with other or without credentials. Lengths are included, so different credentials never give the same key.
+   */
+  private String getSharingKey(String url) {
+    String username = StringUtils.defaultString(server.getUsername());
+    String password = StringUtils.defaultString(server.getPassword());
+    return username.length() + ":" + username + password.length() + ":" + password + url;
+  }
+
+  private Listing fetchListing(String url) throws IOException {
+    CiResponse response = executeRaw(url);
+    if (response == null) {
+      return null;
+    }
+    return new Listing(fetchBuilds(response), server.getNextPageUrl(response));
+  }
+
+  /**
+   * @param response response, which body was already read by {@link #executeRaw(String)}
+   */
+  protected List<Build> fetchBuilds(CiResponse response) throws IOException {
+    if (server.getJsonBuildUnmarshaller() != null) {
+      JsonParser parser = JSON_FACTORY.createJsonParser(response.getBodyAsStream());
+      try {
+        parser.nextToken();
+        return intern(server.toModels(parser));
+      } finally {
+        parser.close();
+      }
+    }
+    return intern(server.toModels(parse(response).getRootElement()));
   }
 
   protected Document executeGetMethod(String url) throws IOException {
-    return executeMethod(new GetMethod(url));
+    CiResponse response = executeRaw(url);
+    if (response == null) {
+      return null;
+    }
+    return parse(response);
+  }
+
+  protected JsonParser executeGetJsonMethod(String url) throws IOException {
+    CiResponse response = executeRaw(url);
+    if (response == null) {
+      return null;
+    }
+    return JSON_FACTORY.createJsonParser(response.getBodyAsStream());
   }
 
-  protected Document executeMethod(GetMethod method) throws IOException {
-    client.executeMethod(method);
-    if (method.getStatusCode() == 404) {
+  /**
+   * Reads body fully and releases connection.
+   *
+   * @return response, which body can be read from memory, or null, if resource not found
+   */
+  protected CiResponse executeRaw(String url) throws IOException {
+    CiResponse response = execute(url);
+    if (response == null) {
       return null;
     }
-    if (method.getStatusCode() != 200) {
-      throw new IOException("Unexpected status code: " + method.getStatusCode());
+    byte[] body;
+    try {
+      body = response.getBody();
+    } finally {
+      response.close();
+    }
+    statistics.addRequest(body.length);
+    return new CiResponse(url, response.getStatusCode(), response.getHeaders(), new ByteArrayInputStream(body));
+  }
+
+  /**
+   * Request counted, if resource not found or status is unexpected, otherwise caller should count it after reading of body.
+   * Server errors are usually transient (e.g. restart or overload of server), so request is retried with growing delay,
+   * unless deadline comes before end of delay.
+   *
+   * @return response, which should be closed, or null, if resource not found
+   */
+  private CiResponse execute(String url) throws IOException {
+    for (int attempt = 0; ; attempt++) {
+      CiResponse response = transport.get(url);
+      int statusCode = response.getStatusCode();
+      if (statusCode == 200) {
+        return response;
+      }
+      response.close();
+      statistics.addRequest(0);
+      if (statusCode == 404) {
+        return null;
+      }
+      long delay = RETRY_DELAY * (attempt + 1);
+      if (statusCode < 500 || attempt >= MAX_RETRIES || System.currentTimeMillis() + delay >= deadline) {
+        throw new IOException("Unexpected status code: " + statusCode);
+      }
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for retry of " + url);
+      }
     }
+  }
+
+  /**
+   * @param response response, which body was already read by {@link #executeRaw(String)}
+   */
+  protected Document parse(CiResponse response) throws IOException {
     try {
       SAXReader reader = new SAXReader();
-      String response = method.getResponseBodyAsString();
-      Pattern pattern = Pattern.compile("<\\?xml(?: \\w*=\".*\") encoding=\"([^ ]*)\".*");
-      Matcher matcher = pattern.matcher(response);
+      byte[] body = response.getBody();
+      // Declaration is ASCII and precedes any content, so only beginning of document is decoded
+      String start = new String(body, 0, Math.min(body.length, DECLARATION_LENGTH), "ISO-8859-1");
+      Matcher matcher = XML_ENCODING.matcher(start);
       String encoding = "UTF-8";
-      if (matcher.matches()) {
+      if (matcher.find()) {
         encoding = matcher.group(1);
       } else {
-        String contentType = method.getResponseHeader("Content-Type").getValue();
-        pattern = Pattern.compile(".*charset=([^;]*).*");
-        matcher = pattern.matcher(contentType);
-        if (matcher.matches()) {
-          encoding = matcher.group(1);
+        // Recorded responses may have no headers
+        String contentType = response.getHeader("Content-Type");
+        if (contentType != null) {
+          matcher = CHARSET.matcher(contentType);
+          if (matcher.find()) {
+            encoding = matcher.group(1);
+          }
         }
       }
       reader.setEncoding(encoding);
-      return reader.read(method.getResponseBodyAsStream());
+      return reader.read(new ByteArrayInputStream(body));
     } catch (DocumentException e) {
       throw new SonarException(e);
     }
   }
+
+  private static class CountingInputStream extends FilterInputStream {
+    private long count;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        count += n;
+      }
+      return n;
+    }
+  }
 }
@@ -17,13 +17,27 @@
 package org.sonar.plugins.buildstability.ci;
 
 import org.apache.commons.lang.StringUtils;
-import org.sonar.plugins.buildstability.ci.bamboo.BambooServer;
-import org.sonar.plugins.buildstability.ci.hudson.HudsonServer;
+import org.sonar.api.utils.SonarException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * @author Evgeny Mandrikov
  */
 public final class CiFactory {
+  private static final String SERVICES = "META-INF/services/";
+
+  private static List<CiServerProvider> providers;
+
   /**
    * Hide utility-class constructor.
    */
@@ -38,35 +52,128 @@ public final class CiFactory {
     return StringUtils.substringAfter(ciUrl, ":");
   }
 
+  /**
+   * @return key of project on CI server (for example name of job in Hudson) or null, if system is unknown or URL is incorrect
+   */
+  public static String getKey(String ciUrl) {
+    CiServerProvider provider = getProvider(getSystem(ciUrl));
+    if (provider == null) {
+      return null;
+    }
+    String url = getUrl(ciUrl);
+    int i = url.indexOf(provider.getPattern());
+    if (i == -1) {
+      return null;
+    }
+    return StringUtils.removeEnd(url.substring(i + provider.getPattern().length()), "/");
+  }
+
   public static CiConnector create(String ciUrl, String username, String password, boolean useJSecurityCheck) {
     return create(getSystem(ciUrl), getUrl(ciUrl), username, password, useJSecurityCheck);
   }
 
   public static CiConnector create(String system, String url, String username, String password, boolean useJSecurityCheck) {
-    AbstractServer server;
-    String pattern;
-    if (BambooServer.SYSTEM.equalsIgnoreCase(system)) {
-      server = new BambooServer();
-      pattern = BambooServer.PATTERN;
-    } else if (HudsonServer.SYSTEM.equalsIgnoreCase(system)) {
-      server = new HudsonServer();
-      ((HudsonServer) server).setUseJSecurityCheck(useJSecurityCheck);
-      pattern = HudsonServer.PATTERN;
-    } else {
+    CiSettings settings = new CiSettings()
+        .setUsername(username)
+        .setPassword(password)
+        .setUseJSecurityCheck(useJSecurityCheck);
+    return create(system, url, settings);
+  }
+
+  public static CiConnector create(String ciUrl, CiSettings settings) {
+    return create(getSystem(ciUrl), getUrl(ciUrl), settings);
+  }
+
+  public static CiConnector create(String system, String url, CiSettings settings) {
+    CiServerProvider provider = getProvider(system);
+    if (provider == null) {
       return null;
     }
-    server.setUsername(username);
-    server.setPassword(password);
-
+    String pattern = provider.getPattern();
     int i = url.indexOf(pattern);
     if (i == -1) {
       return null;
     }
-    String base = url.substring(0, i);
-    String key = url.substring(i + pattern.length());
-    server.setHost(base);
-    server.setKey(key);
+    AbstractServer server = provider.createServer();
+    server.configure(settings);
+    server.setHost(url.substring(0, i));
+    server.setKey(url.substring(i + pattern.length()));
 
-    return new CiConnector(server);
+    CiConnector connector = new CiConnector(server, createTransport(settings));
+    // Recorded responses should be complete and replayed responses should be used, so nothing is shared
+    connector.setShareBuilds(settings.isShareBuilds() && settings.getRecordTo() == null && settings.getReplayFrom() == null);
+    return connector;
+  }
+
+  private static CiTransport createTransport(CiSettings settings) {
+    try {
+      if (settings.getReplayFrom() != null) {
+        return new ReplayTransport(settings.getReplayFrom());
+      }
+      CiTransport transport = new HttpTransport(CiConnector.MAX_CONNECTIONS);
+      if (settings.getRecordTo() != null) {
+        return new RecordingTransport(transport, settings.getRecordTo());
+      }
+      return transport;
+    } catch (IOException e) {
+      throw new SonarException("Unable to open archive of responses", e);
+    }
+  }
+
+  /**
+   * @return provider for given system or null, if there is no such provider
+   */
+  public static CiServerProvider getProvider(String system) {
+    for (CiServerProvider provider : getProviders()) {
+      if (provider.getSystem().equalsIgnoreCase(system)) {
+        return provider;
+      }
+    }
+    return null;
+  }
+
+  public static synchronized List<CiServerProvider> getProviders() {
+    if (providers == null) {
+      List<CiServerProvider> result = new ArrayList<CiServerProvider>();
+      // Plugin classes are not visible from context class loader
+      ClassLoader classLoader = CiFactory.class.getClassLoader();
+      for (String className : getProviderClassNames(classLoader)) {
+        try {
+          result.add((CiServerProvider) classLoader.loadClass(className).newInstance());
+        } catch (Exception e) {
+          throw new SonarException("Unable to create provider " + className, e);
+        }
+      }
+      providers = Collections.unmodifiableList(result);
+    }
+    return providers;
+  }
+
+  /**
+   * Reads provider-configuration files in format of <tt>java.util.ServiceLoader</tt>, which is not available in Java 5:
+   * one class name per line, <tt>#</tt> starts comment.
+   */
+  private static Set<String> getProviderClassNames(ClassLoader classLoader) {
+    Set<String> classNames = new LinkedHashSet<String>();
+    try {
+      Enumeration<URL> resources = classLoader.getResources(SERVICES + CiServerProvider.class.getName());
+      while (resources.hasMoreElements()) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(resources.nextElement().openStream(), "UTF-8"));
+        try {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            String className = StringUtils.substringBefore(line, "#").trim();
+            if (className.length() > 0) {
+              classNames.add(className);
+            }
+          }
+        } finally {
+          reader.close();
+        }
+      }
+    } catch (IOException e) {
+      throw new SonarException("Unable to read providers of Continuous Integration Servers", e);
+    }
+    return classNames;
   }
 }
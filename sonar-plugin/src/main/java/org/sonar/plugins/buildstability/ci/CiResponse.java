@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Response of Continuous Integration Server, which was received through {@link CiTransport}.
+ * Body can be either streamed or read fully, but only once. Response should be closed after use.
+ */
+public class CiResponse {
+  private final String url;
+  private final int statusCode;
+  private final Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+  private final InputStream body;
+
+  /**
+   * @param body body or null, if response has no body
+   */
+  public CiResponse(String url, int statusCode, Map<String, String> headers, InputStream body) {
+    this.url = url;
+    this.statusCode = statusCode;
+    this.headers.putAll(headers);
+    this.body = body == null ? new ByteArrayInputStream(new byte[0]) : body;
+  }
+
+  /**
+   * @return requested URL
+   */
+  public String getUrl() {
+    return url;
+  }
+
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  /**
+   * @return value of header with given case-insensitive name or null, if there is no such header
+   */
+  public String getHeader(String name) {
+    return headers.get(name);
+  }
+
+  public Map<String, String> getHeaders() {
+    return Collections.unmodifiableMap(headers);
+  }
+
+  public InputStream getBodyAsStream() {
+    return body;
+  }
+
+  public byte[] getBody() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int n;
+    while ((n = body.read(buffer)) != -1) {
+      out.write(buffer, 0, n);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Releases connection.
+   */
+  public void close() throws IOException {
+    body.close();
+  }
+}
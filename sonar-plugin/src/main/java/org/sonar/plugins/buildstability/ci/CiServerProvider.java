@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci;
+
+/**
+ * Service provider interface for Continuous Integration Server connectors.
+ * Implementations are discovered by {@link CiFactory} as services, so in order to add new connector
+ * it should be registered in <tt>META-INF/services/org.sonar.plugins.buildstability.ci.CiServerProvider</tt>
+ * and have public no-argument constructor.
+ */
+public interface CiServerProvider {
+  /**
+   * @return name of system, for example "Hudson"
+   */
+  String getSystem();
+
+  /**
+   * @return part of URL, which separates host and key, for example "/job/"
+   */
+  String getPattern();
+
+  AbstractServer createServer();
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci;
+
+import java.io.File;
+
+/**
+ * Settings of connection with Continuous Integration Server.
+ */
+public class CiSettings {
+  private String username;
+  private String password;
+  private boolean useJSecurityCheck;
+  private boolean useJsonApi;
+  private boolean shareBuilds;
+  private File recordTo;
+  private File replayFrom;
+
+  public String getUsername() {
+    return username;
+  }
+
+  public CiSettings setUsername(String username) {
+    this.username = username;
+    return this;
+  }
+
+  public String getPassword() {
+    return password;
+  }
+
+  public CiSettings setPassword(String password) {
+    this.password = password;
+    return this;
+  }
+
+  public boolean isUseJSecurityCheck() {
+    return useJSecurityCheck;
+  }
+
+  public CiSettings setUseJSecurityCheck(boolean useJSecurityCheck) {
+    this.useJSecurityCheck = useJSecurityCheck;
+    return this;
+  }
+
+  public boolean isUseJsonApi() {
+    return useJsonApi;
+  }
+
+  public CiSettings setUseJsonApi(boolean useJsonApi) {
+    this.useJsonApi = useJsonApi;
+    return this;
+  }
+
+  /**
+   * @return true, if builds should be shared with other analyses within JVM, see {@link SharedBuilds}
+   */
+  public boolean isShareBuilds() {
+    return shareBuilds;
+  }
+
+  public CiSettings setShareBuilds(boolean shareBuilds) {
+    this.shareBuilds = shareBuilds;
+    return this;
+  }
+
+  /**
+   * @return archive, where responses are recorded, or null
+   */
+  public File getRecordTo() {
+    return recordTo;
+  }
+
+  public CiSettings setRecordTo(File recordTo) {
+    this.recordTo = recordTo;
+    return this;
+  }
+
+  /**
+   * @return archive, from which responses are replayed instead of network requests, or null
+   */
+  public File getReplayFrom() {
+    return replayFrom;
+  }
+
+  public CiSettings setReplayFrom(File replayFrom) {
+    this.replayFrom = replayFrom;
+    return this;
+  }
+}
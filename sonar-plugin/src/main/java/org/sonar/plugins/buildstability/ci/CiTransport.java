@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci;
+
+import java.io.IOException;
+
+/**
+ * The way {@link CiConnector} sends requests to Continuous Integration Server.
+ * Allows to record responses and replay them later without network, see {@link RecordingTransport} and {@link ReplayTransport}.
+ * Implementations should be thread-safe, because some requests are sent concurrently.
+ */
+public interface CiTransport {
+  /**
+   * Authenticates on given server before first request.
+   */
+  void login(AbstractServer server) throws IOException;
+
+  /**
+   * Requests after given time fail, requests in progress at given time are aborted.
+   *
+   * @param deadline time in millisec
+   */
+  void setDeadline(long deadline);
+
+  /**
+   * @return response with any status code
+   * @throws IOException if deadline passed
+   */
+  CiResponse get(String url) throws IOException;
+
+  void close() throws IOException;
+}
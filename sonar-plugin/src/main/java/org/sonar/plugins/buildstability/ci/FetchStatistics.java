@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+
+/**
+ * Cost of retrieving builds from Continuous Integration Server.
+ */
+public class FetchStatistics {
+  private long time;
+  private int requests;
+  private long bytes;
+  private int cachedBuilds;
+  private boolean sharing;
+
+  /**
+   * @return wall time spent in fetching builds in millisec
+   */
+  public synchronized long getTime() {
+    return time;
+  }
+
+  public synchronized void addTime(long time) {
+    this.time += time;
+  }
+
+  /**
+   * @return number of HTTP requests sent to CI server
+   */
+  public synchronized int getRequests() {
+    return requests;
+  }
+
+  /**
+   * @return number of bytes downloaded from CI server
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  public synchronized void addRequest(long bytes) {
+    this.requests++;
+    this.bytes += bytes;
+  }
+
+  /**
+   * @return true, if builds are shared with other analyses, so {@link #getCachedBuilds()} is meaningful
+   */
+  public synchronized boolean isSharing() {
+    return sharing;
+  }
+
+  public synchronized void setSharing(boolean sharing) {
+    this.sharing = sharing;
+  }
+
+  /**
+   * @return number of builds, which were taken from {@link SharedBuilds} instead of CI server
+   */
+  public synchronized int getCachedBuilds() {
+    return cachedBuilds;
+  }
+
+  public synchronized void addCachedBuild() {
+    this.cachedBuilds++;
+  }
+
+  public synchronized void addCachedBuilds(int count) {
+    this.cachedBuilds += count;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return new ToStringBuilder(this).
+        append("time", time).
+        append("requests", requests).
+        append("bytes", bytes).
+        append("cachedBuilds", cachedBuilds).
+        toString();
+  }
+}
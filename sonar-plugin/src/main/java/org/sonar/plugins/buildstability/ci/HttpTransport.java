@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.GetMethod;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends requests over network through {@link HttpClient}.
+ */
+public class HttpTransport implements CiTransport {
+  private static final int TIMEOUT = 30 * 1000;
+
+  private final MultiThreadedHttpConnectionManager connectionManager;
+  private final HttpClient client;
+  private volatile long deadline = Long.MAX_VALUE;
+  /**
+   * Aborts requests at deadline, created only if deadline set.
+   */
+  private ScheduledExecutorService watchdog;
+
+  /**
+   * @param maxConnections maximal number of concurrent requests
+   */
+  public HttpTransport(int maxConnections) {
+    connectionManager = new MultiThreadedHttpConnectionManager();
+    connectionManager.getParams().setDefaultMaxConnectionsPerHost(maxConnections);
+    client = new HttpClient(connectionManager);
+    client.getParams().setSoTimeout(TIMEOUT);
+  }
+
+  public void login(AbstractServer server) throws IOException {
+    server.doLogin(client);
+  }
+
+  /**
+   * Socket timeout limits only waiting for each packet, so slow response could exceed deadline without abort.
+   */
+  public synchronized void setDeadline(long deadline) {
+    this.deadline = deadline;
+    if (watchdog == null) {
+      watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "build-stability-watchdog");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+  }
+
+  public CiResponse get(String url) throws IOException {
+    long remaining = deadline - System.currentTimeMillis();
+    if (remaining <= 0) {
+      throw new IOException("Deadline passed before request to " + url);
+    }
+    final GetMethod method = new GetMethod(url);
+    final ScheduledFuture<?> abort = scheduleAbort(method, remaining);
+    try {
+      client.executeMethod(method);
+      Map<String, String> headers = new HashMap<String, String>();
+      for (Header header : method.getResponseHeaders()) {
+        headers.put(header.getName(), header.getValue());
+      }
+      InputStream body = method.getResponseBodyAsStream();
+      if (body == null) {
+        release(method, abort);
+        return new CiResponse(url, method.getStatusCode(), headers, null);
+      }
+      return new CiResponse(url, method.getStatusCode(), headers, new FilterInputStream(body) {
+        @Override
+        public void close() throws IOException {
+          release(method, abort);
+        }
+      });
+    } catch (IOException e) {
+      release(method, abort);
+      throw e;
+    } catch (RuntimeException e) {
+      release(method, abort);
+      // Watchdog may abort method before it is executed
+      if (method.isAborted()) {
+        throw new IOException("Deadline passed during request to " + url);
+      }
+      throw e;
+    }
+  }
+
+  private synchronized ScheduledFuture<?> scheduleAbort(final GetMethod method, long delay) {
+    if (watchdog == null) {
+      return null;
+    }
+    return watchdog.schedule(new Runnable() {
+      public void run() {
+        method.abort();
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private static void release(GetMethod method, ScheduledFuture<?> abort) {
+    if (abort != null) {
+      abort.cancel(false);
+    }
+    method.releaseConnection();
+  }
+
+  public synchronized void close() {
+    if (watchdog != null) {
+      watchdog.shutdownNow();
+    }
+    connectionManager.shutdown();
+  }
+}
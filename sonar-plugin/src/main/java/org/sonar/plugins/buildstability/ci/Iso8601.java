@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci;
+
+/**
+ * Parser and formatter of ISO-8601 date-time, like <tt>2010-01-04T11:02:17.114-0600</tt>, which are used by CI servers.
+ * <p>
+ * Unlike {@link java.text.SimpleDateFormat} it has no state, so can be shared between threads, and doesn't allocate
+ * calendars. Accepted offsets are <tt>Z</tt>, <tt>+hh</tt>, <tt>+hhmm</tt> and <tt>+hh:mm</tt>;
+ * date-time without offset is considered as UTC. Fraction of second can have any number of digits.
+ * </p>
+ */
+public final class Iso8601 {
+  private static final long MINUTE = 60L * 1000;
+  private static final long HOUR = 60 * MINUTE;
+  private static final long DAY = 24 * HOUR;
+
+  private Iso8601() {
+  }
+
+  /**
+   * @return milliseconds since epoch
+   * @throws IllegalArgumentException if value is not ISO-8601 date-time
+   */
+  public static long parse(String value) {
+    if (value == null) {
+      throw new IllegalArgumentException("Date is null");
+    }
+    Cursor cursor = new Cursor(value);
+    int year = cursor.digits(4);
+    cursor.expect('-');
+    int month = cursor.digits(2);
+    cursor.expect('-');
+    int day = cursor.digits(2);
+    if (!cursor.skip('T') && !cursor.skip(' ')) {
+      throw cursor.error();
+    }
+    int hour = cursor.digits(2);
+    cursor.expect(':');
+    int minute = cursor.digits(2);
+    int second = 0;
+    int millis = 0;
+    if (cursor.skip(':')) {
+      second = cursor.digits(2);
+      if (cursor.skip('.') || cursor.skip(',')) {
+        millis = cursor.fraction();
+      }
+    }
+    if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 60) {
+      throw cursor.error();
+    }
+    long offset = 0;
+    if (!cursor.atEnd() && !cursor.skip('Z')) {
+      int sign;
+      if (cursor.skip('+')) {
+        sign = 1;
+      } else if (cursor.skip('-')) {
+        sign = -1;
+      } else {
+        throw cursor.error();
+      }
+      int offsetHours = cursor.digits(2);
+      int offsetMinutes = 0;
+      if (!cursor.atEnd()) {
+        cursor.skip(':');
+        offsetMinutes = cursor.digits(2);
+      }
+      offset = sign * (offsetHours * HOUR + offsetMinutes * MINUTE);
+    }
+    if (!cursor.atEnd()) {
+      throw cursor.error();
+    }
+    return daysFromEpoch(year, month, day) * DAY + hour * HOUR + minute * MINUTE + second * 1000L + millis - offset;
+  }
+
+  /**
+   * @return date-time in UTC without fraction of second, for example <tt>2010-05-03T00:00:00Z</tt>
+   */
+  public static String format(long millis) {
+    long days = floorDiv(millis, DAY);
+    long time = millis - days * DAY;
+    // Inverse of daysFromEpoch, see http://howardhinnant.github.io/date_algorithms.html
+    long z = days + 719468;
+    long era = floorDiv(z, 146097);
+    long dayOfEra = z - era * 146097;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long mp = (5 * dayOfYear + 2) / 153;
+    int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+    int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+    StringBuilder sb = new StringBuilder(20);
+    pad(sb, year, 4).append('-');
+    pad(sb, month, 2).append('-');
+    pad(sb, day, 2).append('T');
+    pad(sb, time / HOUR, 2).append(':');
+    pad(sb, time % HOUR / MINUTE, 2).append(':');
+    pad(sb, time % MINUTE / 1000, 2).append('Z');
+    return sb.toString();
+  }
+
+  /**
+   * See http://howardhinnant.github.io/date_algorithms.html
+   */
+  static long daysFromEpoch(long year, int month, int day) {
+    long y = month <= 2 ? year - 1 : year;
+    long era = floorDiv(y, 400);
+    long yearOfEra = y - era * 400;
+    long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097 + dayOfEra - 719468;
+  }
+
+  private static long floorDiv(long x, long y) {
+    long q = x / y;
+    return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+  }
+
+  private static StringBuilder pad(StringBuilder sb, long value, int width) {
+    String s = String.valueOf(value);
+    for (int i = s.length(); i < width; i++) {
+      sb.append('0');
+    }
+    return sb.append(s);
+  }
+
+  private static class Cursor {
+    private final String value;
+    private int position;
+
+    Cursor(String value) {
+      this.value = value;
+    }
+
+    boolean atEnd() {
+      return position == value.length();
+    }
+
+    boolean skip(char c) {
+      if (position < value.length() && value.charAt(position) == c) {
+        position++;
+        return true;
+      }
+      return false;
+    }
+
+    void expect(char c) {
+      if (!skip(c)) {
+        throw error();
+      }
+    }
+
+    int digits(int count) {
+      int result = 0;
+      for (int i = 0; i < count; i++) {
+        result = result * 10 + digit();
+      }
+      return result;
+    }
+
+    /**
+     * @return fraction of second in millisec, extra digits are truncated
+     */
+    int fraction() {
+      int millis = digit() * 100;
+      int scale = 10;
+      while (position < value.length() && Character.isDigit(value.charAt(position))) {
+        millis += digit() * scale;
+        scale /= 10;
+      }
+      return millis;
+    }
+
+    private int digit() {
+      if (position >= value.length()) {
+        throw error();
+      }
+      char c = value.charAt(position);
+      if (c < '0' || c > '9') {
+        throw error();
+      }
+      position++;
+      return c - '0';
+    }
+
+    IllegalArgumentException error() {
+      return new IllegalArgumentException("Unparseable date: \"" + value + "\" at position " + position);
+    }
+  }
+}
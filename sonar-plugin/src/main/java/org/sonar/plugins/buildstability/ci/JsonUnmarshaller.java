@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci;
+
+import org.codehaus.jackson.JsonParser;
+import org.sonar.plugins.buildstability.Build;
+
+import java.io.IOException;
+
+/**
+ * Streaming counterpart of {@link Unmarshaller}, which fills {@link Build} directly from JSON tokens.
+ */
+public interface JsonUnmarshaller {
+  /**
+   * @param parser parser positioned at the start of build object
+   * @return build or null, if build should be ignored (for example, if it is not finished yet)
+   */
+  Build toModel(JsonParser parser) throws IOException;
+}
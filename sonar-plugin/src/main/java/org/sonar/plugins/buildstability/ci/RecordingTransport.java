@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Passes requests to another transport and records all responses into compressed archive,
+ * which can be replayed by {@link ReplayTransport}. Archive is complete only after {@link #close()}.
+ * <p>
+ * Each response is stored as two entries: <tt>N.properties</tt> with URL, status code and headers, and <tt>N.body</tt>,
+ * where N is sequential number of request.
+ * </p>
+ */
+public class RecordingTransport implements CiTransport {
+  static final String PROPERTIES_SUFFIX = ".properties";
+  static final String BODY_SUFFIX = ".body";
+  static final String URL = "url";
+  static final String STATUS = "status";
+  static final String HEADER_PREFIX = "header.";
+
+  private final CiTransport delegate;
+  private final ZipOutputStream out;
+  private int requests;
+
+  public RecordingTransport(CiTransport delegate, File archive) throws IOException {
+    this.delegate = delegate;
+    this.out = new ZipOutputStream(new FileOutputStream(archive));
+  }
+
+  public void login(AbstractServer server) throws IOException {
+    delegate.login(server);
+  }
+
+  public void setDeadline(long deadline) {
+    delegate.setDeadline(deadline);
+  }
+
+  /**
+   * Body is read fully, so streaming of large responses requires more memory while recording.
+   */
+  public CiResponse get(String url) throws IOException {
+    CiResponse response = delegate.get(url);
+    byte[] body;
+    try {
+      body = response.getBody();
+    } finally {
+      response.close();
+    }
+    Properties properties = new Properties();
+    properties.setProperty(URL, url);
+    properties.setProperty(STATUS, String.valueOf(response.getStatusCode()));
+    for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+      properties.setProperty(HEADER_PREFIX + header.getKey(), header.getValue());
+    }
+    synchronized (out) {
+      int n = requests++;
+      out.putNextEntry(new ZipEntry(n + PROPERTIES_SUFFIX));
+      properties.store(out, null);
+      out.closeEntry();
+      out.putNextEntry(new ZipEntry(n + BODY_SUFFIX));
+      out.write(body);
+      out.closeEntry();
+    }
+    return new CiResponse(url, response.getStatusCode(), response.getHeaders(), new ByteArrayInputStream(body));
+  }
+
+  public void close() throws IOException {
+    try {
+      synchronized (out) {
+        out.close();
+      }
+    } finally {
+      delegate.close();
+    }
+  }
+}
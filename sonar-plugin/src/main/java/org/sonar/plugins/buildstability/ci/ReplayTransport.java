@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Replays responses from archive, which was recorded by {@link RecordingTransport}, without network,
+ * so the same unmarshallers run on the same data. If URL was requested several times, then responses are
+ * replayed in the same order and last one is repeated.
+ * <p>
+ * Note that period of analysis is computed from current time, so it should be the same or shorter
+ * than during recording, otherwise builds, which were not recorded, are requested.
+ * URLs are matched ignoring values of timestamps in query (e.g. <tt>updated_after</tt> of GitLab),
+ * because they are computed from current time too.
+ * </p>
+ */
+public class ReplayTransport implements CiTransport {
+  private static final Pattern TIMESTAMP_PARAMETER = Pattern.compile("=\\d{4}-\\d{2}-\\d{2}T[^&]*");
+
+  private final ZipFile archive;
+  private final Map<String, List<Integer>> responses = new HashMap<String, List<Integer>>();
+  private final Map<String, Integer> replayed = new HashMap<String, Integer>();
+  private volatile long deadline = Long.MAX_VALUE;
+
+  public ReplayTransport(File archive) throws IOException {
+    this.archive = new ZipFile(archive);
+    Map<Integer, String> urls = new HashMap<Integer, String>();
+    Enumeration<? extends ZipEntry> entries = this.archive.entries();
+    while (entries.hasMoreElements()) {
+      ZipEntry entry = entries.nextElement();
+      if (entry.getName().endsWith(RecordingTransport.PROPERTIES_SUFFIX)) {
+        int n = Integer.parseInt(entry.getName().substring(0, entry.getName().length() - RecordingTransport.PROPERTIES_SUFFIX.length()));
+        urls.put(n, readProperties(n).getProperty(RecordingTransport.URL));
+      }
+    }
+    for (int n = 0; n < urls.size(); n++) {
+      String url = urls.get(n);
+      if (url == null) {
+        throw new IOException("Incomplete archive: " + archive);
+      }
+      url = normalize(url);
+      List<Integer> list = responses.get(url);
+      if (list == null) {
+        list = new ArrayList<Integer>();
+        responses.put(url, list);
+      }
+      list.add(n);
+    }
+  }
+
+  /**
+   * Authentication not required.
+   */
+  public void login(AbstractServer server) {
+  }
+
+  public void setDeadline(long deadline) {
+    this.deadline = deadline;
+  }
+
+  /**
+   * @throws IOException if response for given URL was not recorded
+   */
+  public CiResponse get(String url) throws IOException {
+    if (System.currentTimeMillis() >= deadline) {
+      throw new IOException("Deadline passed before request to " + url);
+    }
+    int n = next(url);
+    Properties properties = readProperties(n);
+    Map<String, String> headers = new HashMap<String, String>();
+    for (Enumeration<?> names = properties.propertyNames(); names.hasMoreElements(); ) {
+      String name = (String) names.nextElement();
+      if (name.startsWith(RecordingTransport.HEADER_PREFIX)) {
+        headers.put(name.substring(RecordingTransport.HEADER_PREFIX.length()), properties.getProperty(name));
+      }
+    }
+    int statusCode = Integer.parseInt(properties.getProperty(RecordingTransport.STATUS));
+    return new CiResponse(url, statusCode, headers, archive.getInputStream(getEntry(n + RecordingTransport.BODY_SUFFIX)));
+  }
+
+  private synchronized int next(String url) throws IOException {
+    String key = normalize(url);
+    List<Integer> list = responses.get(key);
+    if (list == null) {
+      throw new IOException("Response was not recorded: " + url);
+    }
+    Integer count = replayed.get(key);
+    int i = count == null ? 0 : count;
+    replayed.put(key, i + 1);
+    return list.get(Math.min(i, list.size() - 1));
+  }
+
+  static String normalize(String url) {
+    return TIMESTAMP_PARAMETER.matcher(url).replaceAll("=");
+  }
+
+  private Properties readProperties(int n) throws IOException {
+    Properties properties = new Properties();
+    InputStream in = archive.getInputStream(getEntry(n + RecordingTransport.PROPERTIES_SUFFIX));
+    try {
+      properties.load(in);
+    } finally {
+      in.close();
+    }
+    return properties;
+  }
+
+  private ZipEntry getEntry(String name) throws IOException {
+    ZipEntry entry = archive.getEntry(name);
+    if (entry == null) {
+      throw new IOException("Incomplete archive, entry not found: " + name);
+    }
+    return entry;
+  }
+
+  public void close() throws IOException {
+    archive.close();
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci;
+
+/**
+ * The way {@link CiConnector} retrieves builds from Continuous Integration Server.
+ */
+public enum RetrievalStrategy {
+  /**
+   * One request per build, starting from last build.
+   */
+  PER_BUILD,
+
+  /**
+   * Single request, which lists all builds. See {@link AbstractServer#getBuildsUrl(java.util.Date)}.
+   */
+  BULK,
+
+  /**
+   * Sequence of requests, which list builds changed since given date page by page.
+   * See {@link AbstractServer#getBuildsUrl(java.util.Date)} and {@link AbstractServer#getNextPageUrl(CiResponse)}.
+   */
+  PAGED
+}
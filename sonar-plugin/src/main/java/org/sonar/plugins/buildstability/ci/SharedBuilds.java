@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci;
+
+import org.sonar.plugins.buildstability.Build;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Builds shared between all analyses within one JVM, so when several projects refer to the same CI job,
+ * each build and each listing of builds is retrieved only once. Analysis, which requests data being retrieved
+ * by another analysis, waits for it instead of sending the same request.
+ * <p>
+ * Data is keyed by credentials and URL, which identifies server, job and number of build or period of listing,
+ * so analysis never receives builds retrieved with credentials of another analysis. Only finished builds
+ * are kept, and only for limited time, because CI server may rewrite history (e.g. when build deleted).
+ * Listings and last builds change with each new build, so they're kept only for analyses started together.
+ * Both caches are bounded by total number of builds, which they hold.
+ * </p>
+ * <p>
+ * Shared instances are never modified: each analysis receives its own copies, which it may modify (e.g. by adding
+ * durations of stages).
+ * </p>
+ */
+public final class SharedBuilds {
+  /**
+   * Approximately 10 MB of heap.
+   */
+  static final int MAX_BUILDS = 10000;
+  /**
+   * Long enough to cover analyses of all projects of one run, in millisec.
+   */
+  static final long TIME_TO_LIVE = 10 * 60 * 1000L;
+  /**
+   * Maximal number of builds in all kept listings. Listing, which is larger, is shared only with analyses,
+   * which request it during retrieval.
+   */
+  static final int MAX_LISTED_BUILDS = 20000;
+  /**
+   * Long enough to cover analyses started together, in millisec.
+   */
+  static final long LISTING_TIME_TO_LIVE = 60 * 1000L;
+
+  private static final Cache<Build> BUILDS = new Cache<Build>(MAX_BUILDS, TIME_TO_LIVE) {
+    @Override
+    boolean isReusable(Build build) {
+      // Not found or not finished yet, so may change
+      return build != null && build.getResult() != null;
+    }
+
+    @Override
+    Build copy(Build build) {
+      return build.copy();
+    }
+
+    @Override
+    int count(Build build) {
+      return 1;
+    }
+  };
+
+  private static final Cache<Listing> LISTINGS = new Cache<Listing>(MAX_LISTED_BUILDS, LISTING_TIME_TO_LIVE) {
+    @Override
+    boolean isReusable(Listing listing) {
+      return listing != null;
+    }
+
+    @Override
+    Listing copy(Listing listing) {
+      List<Build> builds = new ArrayList<Build>(listing.getBuilds().size());
+      for (Build build : listing.getBuilds()) {
+        builds.add(build.copy());
+      }
+      return new Listing(builds, listing.getNextUrl());
+    }
+
+    @Override
+    int count(Listing listing) {
+      return listing.getBuilds().size();
+    }
+  };
+
+  private SharedBuilds() {
+  }
+
+  /**
+   * Returns copy of shared build or retrieves it in calling thread using given loader.
+   * If retrieval by another analysis fails (e.g. because of its deadline), then build is retrieved again.
+   *
+   * @param deadline time in millisec, until which calling thread may wait for retrieval by another analysis
+   * @param statistics counts builds, which were not retrieved by calling thread
+   * @return build or null, if loader didn't find it
+   */
+  public static Build get(String key, Callable<Build> loader, long deadline, FetchStatistics statistics) throws IOException {
+    return BUILDS.get(key, loader, deadline, statistics);
+  }
+
+  /**
+   * Same as {@link #get(String, Callable, long, FetchStatistics)}, but for listing of builds.
+   *
+   * @return listing or null, if loader didn't find it
+   */
+  static Listing getListing(String key, Callable<Listing> loader, long deadline, FetchStatistics statistics) throws IOException {
+    return LISTINGS.get(key, loader, deadline, statistics);
+  }
+
+  static int size() {
+    return BUILDS.size();
+  }
+
+  /**
+   * @return number of builds in kept listings
+   */
+  static int getListedBuilds() {
+    return LISTINGS.getCount();
+  }
+
+  public static void clear() {
+    BUILDS.clear();
+    LISTINGS.clear();
+  }
+
+  /**
+   * Builds from one response of CI server.
+   */
+  static final class Listing {
+    private final List<Build> builds;
+    private final String nextUrl;
+
+    /**
+     * @param nextUrl URL of next page or null, if there is no more pages
+     */
+    Listing(List<Build> builds, String nextUrl) {
+      this.builds = builds;
+      this.nextUrl = nextUrl;
+    }
+
+    List<Build> getBuilds() {
+      return builds;
+    }
+
+    String getNextUrl() {
+      return nextUrl;
+    }
+  }
+
+  private abstract static class Cache<T> {
+    private final int maxCount;
+    private final long timeToLive;
+    /**
+     * In order of access, so least recently used entries are dropped first.
+     */
+    private final Map<String, Entry<T>> entries = new LinkedHashMap<String, Entry<T>>(16, 0.75f, true);
+    /**
+     * Number of builds in retrieved values.
+     */
+    private int count;
+
+    /**
+     * @param maxCount maximal number of builds in all values
+     */
+    Cache(int maxCount, long timeToLive) {
+      this.maxCount = maxCount;
+      this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @return true, if value retrieved by loader can be given to other analyses
+     */
+    abstract boolean isReusable(T value);
+
+    abstract T copy(T value);
+
+    /**
+     * @return number of builds in value
+     */
+    abstract int count(T value);
+
+    T get(String key, Callable<T> loader, long deadline, FetchStatistics statistics) throws IOException {
+      while (true) {
+        Entry<T> entry;
+        boolean owner = false;
+        synchronized (this) {
+          long now = System.currentTimeMillis();
+          entry = entries.get(key);
+          // Expired entries are replaced lazily, least recently used ones are dropped when there are too many
+          if (entry == null || (entry.expiry <= now && entry.task.isDone())) {
+            if (entry != null) {
+              count -= entry.count;
+            }
+            entry = new Entry<T>(new FutureTask<T>(loader), now + timeToLive);
+            entries.put(key, entry);
+            owner = true;
+          }
+        }
+        if (owner) {
+          entry.task.run();
+        }
+        try {
+          T value = await(entry.task, deadline);
+          if (owner) {
+            if (isReusable(value)) {
+              keep(key, entry, count(value));
+            } else {
+              remove(key, entry);
+            }
+          }
+          if (value == null) {
+            return null;
+          }
+          if (!owner) {
+            statistics.addCachedBuilds(count(value));
+          }
+          return copy(value);
+        } catch (ExecutionException e) {
+          remove(key, entry);
+          if (owner) {
+            throw rethrow(e.getCause());
+          }
+        }
+      }
+    }
+
+    /**
+     * Counts builds of retrieved value and drops least recently used retrieved values, while there are too many builds.
+     * Values being retrieved are not counted yet, so they're not dropped.
+     */
+    private synchronized void keep(String key, Entry<T> entry, int builds) {
+      if (entries.get(key) != entry) {
+        return;
+      }
+      entry.count = builds;
+      count += builds;
+      Iterator<Entry<T>> iterator = entries.values().iterator();
+      while (count > maxCount && iterator.hasNext()) {
+        Entry<T> eldest = iterator.next();
+        if (eldest.task.isDone()) {
+          count -= eldest.count;
+          iterator.remove();
+        }
+      }
+    }
+
+    private synchronized void remove(String key, Entry<T> entry) {
+      if (entries.get(key) == entry) {
+        count -= entry.count;
+        entries.remove(key);
+      }
+    }
+
+    synchronized int size() {
+      return entries.size();
+    }
+
+    synchronized int getCount() {
+      return count;
+    }
+
+    synchronized void clear() {
+      entries.clear();
+      count = 0;
+    }
+  }
+
+  private static <T> T await(FutureTask<T> task, long deadline) throws IOException, ExecutionException {
+    try {
+      if (deadline == Long.MAX_VALUE || task.isDone()) {
+        return task.get();
+      }
+      return task.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      throw new IOException("Deadline exceeded while waiting for builds retrieved by another analysis");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for builds retrieved by another analysis");
+    }
+  }
+
+  private static IOException rethrow(Throwable cause) {
+    if (cause instanceof IOException) {
+      return (IOException) cause;
+    }
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return (IOException) new IOException(cause.getMessage()).initCause(cause);
+  }
+
+  private static class Entry<T> {
+    private final FutureTask<T> task;
+    private final long expiry;
+    /**
+     * Number of builds in value, 0 until value is retrieved.
+     */
+    private int count;
+
+    Entry(FutureTask<T> task, long expiry) {
+      this.task = task;
+      this.expiry = expiry;
+    }
+  }
+}
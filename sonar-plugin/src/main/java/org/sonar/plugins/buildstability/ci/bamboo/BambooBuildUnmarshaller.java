@@ -17,13 +17,11 @@
 package org.sonar.plugins.buildstability.ci.bamboo;
 
 import org.dom4j.Element;
+import org.sonar.api.utils.SonarException;
 import org.sonar.plugins.buildstability.Build;
+import org.sonar.plugins.buildstability.ci.Iso8601;
 import org.sonar.plugins.buildstability.ci.Unmarshaller;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-
 /**
  * @author Evgeny Mandrikov
  */
@@ -31,11 +29,6 @@ public class BambooBuildUnmarshaller implements Unmarshaller {
   private static final String SUCCESSFULL = "Successful";
   private static final String FAILED = "Failed";
 
-  /**
-   * Bamboo date-time format. Example: 2010-01-04T11:02:17.114-0600
-   */
-  private static final String DATE_TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
-
   public Build toModel(Element domElement) {
     Build build = new Build();
 
@@ -43,13 +36,12 @@ public class BambooBuildUnmarshaller implements Unmarshaller {
     build.setNumber(Integer.parseInt(domElement.attributeValue("number")));
     build.setResult(state);
 
-    SimpleDateFormat sdf = new SimpleDateFormat(DATE_TIME_FORMAT);
-    String buildStartedTime = domElement.elementText("buildStartedTime");
-    try {
-      Date date = sdf.parse(buildStartedTime);
-      build.setTimestamp(date.getTime());
-    } catch (ParseException ignored) {
-      // ignore
+    long started = parseDate(domElement.elementText("buildStartedTime"));
+    build.setTimestamp(started);
+    // Queue timings are reported only by some versions of Bamboo
+    String queueStartedTime = domElement.elementText("queueStartedTime");
+    if (queueStartedTime != null) {
+      build.setQueueDuration((double) Math.max(0, started - parseDate(queueStartedTime)));
     }
     build.setDuration(Double.parseDouble(domElement.elementText("buildDurationInSeconds")) * 1000);
     // TODO: Account for unstable builds
@@ -58,4 +50,16 @@ public class BambooBuildUnmarshaller implements Unmarshaller {
 
     return build;
   }
+
+  /**
+   * Bamboo date-time format. Example: 2010-01-04T11:02:17.114-0600
+   * Build without time can't be placed in period, so it's an error.
+   */
+  private static long parseDate(String value) {
+    try {
+      return Iso8601.parse(value);
+    } catch (IllegalArgumentException e) {
+      throw new SonarException("Unable to parse Bamboo date", e);
+    }
+  }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci.gitlab;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.sonar.plugins.buildstability.Build;
+import org.sonar.plugins.buildstability.ci.Iso8601;
+import org.sonar.plugins.buildstability.ci.JsonUnmarshaller;
+
+import java.io.IOException;
+
+/**
+ * Maps pipeline to {@link Build}. Pipelines, which are not finished yet or were skipped, are ignored.
+ */
+public class GitLabPipelineUnmarshaller implements JsonUnmarshaller {
+  private static final String SUCCESS = "success";
+  private static final String FAILED = "failed";
+  private static final String CANCELED = "canceled";
+
+  public Build toModel(JsonParser parser) throws IOException {
+    Build build = new Build();
+
+    Integer id = null;
+    Integer iid = null;
+    String status = null;
+    Long created = null;
+    Long updated = null;
+    Long started = null;
+    Long finished = null;
+    Long duration = null;
+    Double queuedDuration = null;
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if (token == JsonToken.VALUE_NULL) {
+        continue;
+      }
+      if ("id".equals(name)) {
+        id = parser.getIntValue();
+      } else if ("iid".equals(name)) {
+        iid = parser.getIntValue();
+      } else if ("status".equals(name)) {
+        status = parser.getText();
+      } else if ("web_url".equals(name)) {
+        build.setUrl(parser.getText());
+      } else if ("created_at".equals(name)) {
+        created = parseDate(parser.getText());
+      } else if ("updated_at".equals(name)) {
+        updated = parseDate(parser.getText());
+      } else if ("started_at".equals(name)) {
+        started = parseDate(parser.getText());
+      } else if ("finished_at".equals(name)) {
+        finished = parseDate(parser.getText());
+      } else if ("duration".equals(name)) {
+        duration = parser.getLongValue();
+      } else if ("queued_duration".equals(name)) {
+        queuedDuration = parser.getDoubleValue();
+      } else if ("user".equals(name) && token == JsonToken.START_OBJECT) {
+        readUser(parser, build);
+      } else {
+        parser.skipChildren();
+      }
+    }
+
+    if (!isFinished(status) || created == null || (iid == null && id == null)) {
+      return null;
+    }
+    // Project-level number keeps number of builds between fixes meaningful
+    build.setNumber(iid != null ? iid : id);
+    build.setTimestamp(created);
+    build.setResult(status);
+    if (duration != null) {
+      build.setDurationInSeconds(duration);
+    } else {
+      long start = started != null ? started : created;
+      long end = finished != null ? finished : (updated != null ? updated : start);
+      build.setDuration(Math.max(0, end - start));
+    }
+    if (queuedDuration != null) {
+      build.setQueueDuration(queuedDuration * 1000);
+    } else if (started != null) {
+      build.setQueueDuration((double) Math.max(0, started - created));
+    }
+    build.setStable(SUCCESS.equals(status));
+    build.setSuccessful(SUCCESS.equals(status));
+
+    return build;
+  }
+
+  private void readUser(JsonParser parser, Build build) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if ("username".equals(name) && token != JsonToken.VALUE_NULL) {
+        build.setCauseUser(parser.getText());
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  static boolean isFinished(String status) {
+    return SUCCESS.equals(status) || FAILED.equals(status) || CANCELED.equals(status);
+  }
+
+  static long parseDate(String value) {
+    return Iso8601.parse(value);
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci.gitlab;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.params.HostParams;
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.sonar.plugins.buildstability.Build;
+import org.sonar.plugins.buildstability.ci.AbstractServer;
+import org.sonar.plugins.buildstability.ci.CiResponse;
+import org.sonar.plugins.buildstability.ci.Iso8601;
+import org.sonar.plugins.buildstability.ci.JsonUnmarshaller;
+import org.sonar.plugins.buildstability.ci.RetrievalStrategy;
+import org.sonar.plugins.buildstability.ci.Unmarshaller;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Connector for pipelines REST API. Pipelines are listed page by page, newest first,
+ * and only pipelines updated since start of analyzed period are requested.
+ * Password is used as private token.
+ * See <a href="https://docs.gitlab.com/ee/api/pipelines.html">GitLab Pipelines API</a>.
+ */
+public class GitLabServer extends AbstractServer {
+  public static final String SYSTEM = "GitLab";
+  public static final String PATTERN = "/api/v4/projects/";
+
+  public static final int PAGE_SIZE = 100;
+
+  private static final JsonUnmarshaller PIPELINE_UNMARSHALLER = new GitLabPipelineUnmarshaller();
+  private static final Pattern NEXT_LINK = Pattern.compile("<([^>]*)>\\s*;\\s*rel=\"next\"");
+
+  @Override
+  protected String getBuildUrl(String number) {
+    return getHost() + PATTERN + getKey() + "/pipelines/" + number;
+  }
+
+  @Override
+  protected String getLastBuildUrl() {
+    return getBuildUrl("latest");
+  }
+
+  @Override
+  protected String getBuildsUrl(Date since) {
+    return getHost() + PATTERN + getKey() + "/pipelines?order_by=id&sort=desc&per_page=" + PAGE_SIZE +
+        "&updated_after=" + Iso8601.format(since.getTime());
+  }
+
+  /**
+   * Follows <tt>Link</tt> header, which is used for both offset and keyset pagination,
+   * or <tt>X-Next-Page</tt> header, which is used for offset pagination.
+   */
+  @Override
+  protected String getNextPageUrl(CiResponse response) {
+    String link = response.getHeader("Link");
+    if (link != null) {
+      Matcher matcher = NEXT_LINK.matcher(link);
+      if (matcher.find()) {
+        return matcher.group(1);
+      }
+    }
+    String nextPage = response.getHeader("X-Next-Page");
+    if (StringUtils.isNotBlank(nextPage)) {
+      String url = response.getUrl().replaceAll("&page=\\d+", "");
+      return url + "&page=" + nextPage.trim();
+    }
+    return null;
+  }
+
+  @Override
+  public RetrievalStrategy getRetrievalStrategy() {
+    return RetrievalStrategy.PAGED;
+  }
+
+  /**
+   * Pipelines are available only in JSON.
+   */
+  @Override
+  protected Unmarshaller getBuildUnmarshaller() {
+    return null;
+  }
+
+  @Override
+  protected JsonUnmarshaller getJsonBuildUnmarshaller() {
+    return PIPELINE_UNMARSHALLER;
+  }
+
+  /**
+   * Unlike default implementation, expects array of pipelines as root.
+   */
+  @Override
+  protected List<Build> toModels(JsonParser parser) throws IOException {
+    if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+      parser.skipChildren();
+      return Collections.emptyList();
+    }
+    List<Build> builds = new ArrayList<Build>();
+    JsonToken token;
+    while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+      if (token == JsonToken.START_OBJECT) {
+        addBuild(builds, PIPELINE_UNMARSHALLER.toModel(parser));
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return builds;
+  }
+
+  @Override
+  protected void doLogin(HttpClient client) throws IOException {
+    if (StringUtils.isNotBlank(getPassword())) {
+      List<Header> headers = new ArrayList<Header>();
+      headers.add(new Header("PRIVATE-TOKEN", getPassword()));
+      client.getHostConfiguration().getParams().setParameter(HostParams.DEFAULT_HEADERS, headers);
+    }
+  }
+}
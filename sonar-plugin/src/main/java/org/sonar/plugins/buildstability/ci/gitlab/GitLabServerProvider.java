@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci.gitlab;
+
+import org.sonar.plugins.buildstability.ci.AbstractServer;
+import org.sonar.plugins.buildstability.ci.CiServerProvider;
+
+public class GitLabServerProvider implements CiServerProvider {
+  public String getSystem() {
+    return GitLabServer.SYSTEM;
+  }
+
+  public String getPattern() {
+    return GitLabServer.PATTERN;
+  }
+
+  public AbstractServer createServer() {
+    return new GitLabServer();
+  }
+}
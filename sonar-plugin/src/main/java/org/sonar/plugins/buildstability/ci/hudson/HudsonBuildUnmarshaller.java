@@ -20,34 +20,131 @@ import org.dom4j.Element;
 import org.dom4j.XPath;
 import org.dom4j.xpath.DefaultXPath;
 import org.sonar.plugins.buildstability.Build;
+import org.sonar.plugins.buildstability.LazyBuild;
 import org.sonar.plugins.buildstability.ci.Unmarshaller;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * @author Evgeny Mandrikov
  */
 public class HudsonBuildUnmarshaller implements Unmarshaller {
   public Build toModel(Element domElement) {
-    Build build = new Build();
+    String[] cause = null;
+    String url = null;
+    if ((domElement.element("action") != null) && (domElement.element("action").element("cause") != null)) {
+      cause = getCause(domElement.element("action").element("cause"));
+      url = domElement.elementText("url");
+    }
+    Build build = new HudsonBuild(cause, url, getAuthors(domElement));
 
     String result = domElement.elementText("result");
 
-    if((domElement.element("action") != null) && (domElement.element("action").element("cause") != null)) {
-      build.setCauseDescription(domElement.element("action").element("cause").elementText("shortDescription"));
-      build.setCauseUser(domElement.element("action").element("cause").elementText("userName"));
-      build.setCauseProject(domElement.element("action").element("cause").elementText("upstreamProject"));
-      build.setCauseProjectBuild(domElement.element("action").element("cause").elementText("upstreamBuild"));
-      build.setCauseProjectUrl(domElement.element("action").element("cause").elementText("upstreamUrl"));
-
-      build.setUrl(domElement.elementText("url"));
-    }
-      
     build.setNumber(Integer.parseInt(domElement.elementText("number")));
     build.setTimestamp(Long.parseLong(domElement.elementText("timestamp")));
     build.setResult(result);
     build.setDuration(Long.parseLong(domElement.elementText("duration")));
+    build.setQueueDuration(getQueueDuration(domElement));
     build.setStable("SUCCESS".equalsIgnoreCase(result));
     build.setSuccessful("SUCCESS".equalsIgnoreCase(result) || "UNSTABLE".equalsIgnoreCase(result));
 
     return build;
   }
+
+  /**
+   * Text of elements is only referenced, so lazy build doesn't hold any part of document.
+   *
+   * @return description, user, upstream project, upstream build and upstream URL
+   */
+  private static String[] getCause(Element cause) {
+    return new String[]{
+        cause.elementText("shortDescription"),
+        cause.elementText("userName"),
+        cause.elementText("upstreamProject"),
+        cause.elementText("upstreamBuild"),
+        cause.elementText("upstreamUrl")
+    };
+  }
+
+  /**
+   * Pipeline build can have several change sets, one per repository.
+   *
+   * @return authors of all changes in order, including duplicates, or null, if there are no changes
+   */
+  private static String[] getAuthors(Element domElement) {
+    List<String> authors = null;
+    for (Object changeSet : domElement.elements("changeSet")) {
+      for (Object item : ((Element) changeSet).elements("item")) {
+        Element author = ((Element) item).element("author");
+        if (author != null && author.elementText("fullName") != null) {
+          if (authors == null) {
+            authors = new ArrayList<String>();
+          }
+          authors.add(author.elementText("fullName"));
+        }
+      }
+    }
+    return authors == null ? null : authors.toArray(new String[authors.size()]);
+  }
+
+  /**
+   * @return distinct authors or null, if there are no authors
+   */
+  private static String[] getDevelopers(String[] authors) {
+    if (authors == null) {
+      return null;
+    }
+    Set<String> developers = new LinkedHashSet<String>(Arrays.asList(authors));
+    return developers.toArray(new String[developers.size()]);
+  }
+
+  /**
+   * Time in queue is exposed by <tt>TimeInQueueAction</tt>, which can be at any position among actions.
+   *
+   * @return time in queue in millisec or null, if not available
+   */
+  private static Double getQueueDuration(Element domElement) {
+    for (Object action : domElement.elements("action")) {
+      String queuingDuration = ((Element) action).elementText("queuingDurationMillis");
+      if (queuingDuration != null) {
+        return Double.parseDouble(queuingDuration);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Build, which keeps raw text of cause, URL and authors and sets fields from it only on first access.
+   */
+  private static class HudsonBuild extends LazyBuild {
+    private String[] cause;
+    private String url;
+    private String[] authors;
+
+    HudsonBuild(String[] cause, String url, String[] authors) {
+      this.cause = cause;
+      this.url = url;
+      this.authors = authors;
+    }
+
+    @Override
+    protected void decode() {
+      if (cause != null) {
+        setCauseDescription(cause[0]);
+        setCauseUser(cause[1]);
+        setCauseProject(cause[2]);
+        setCauseProjectBuild(cause[3]);
+        setCauseProjectUrl(cause[4]);
+        setUrl(url);
+      }
+      setDevelopers(HudsonBuildUnmarshaller.getDevelopers(authors));
+      cause = null;
+      url = null;
+      authors = null;
+    }
+  }
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci.hudson;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.sonar.plugins.buildstability.Build;
+import org.sonar.plugins.buildstability.ci.JsonUnmarshaller;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Reads build from <tt>/api/json</tt> and produces the same {@link Build} as {@link HudsonBuildUnmarshaller}.
+ */
+public class HudsonJsonBuildUnmarshaller implements JsonUnmarshaller {
+  public Build toModel(JsonParser parser) throws IOException {
+    Build build = new Build();
+
+    String result = null;
+    String url = null;
+    boolean hasCause = false;
+    Set<String> developers = new LinkedHashSet<String>();
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      if ("number".equals(name)) {
+        build.setNumber(parser.getIntValue());
+      } else if ("timestamp".equals(name)) {
+        build.setTimestamp(parser.getLongValue());
+      } else if ("duration".equals(name)) {
+        build.setDuration(parser.getLongValue());
+      } else if ("result".equals(name)) {
+        result = getText(parser);
+      } else if ("url".equals(name)) {
+        url = getText(parser);
+      } else if ("actions".equals(name)) {
+        hasCause = readActions(parser, build);
+      } else if ("changeSet".equals(name) && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+        readChangeSet(parser, developers);
+      } else if ("changeSets".equals(name) && parser.getCurrentToken() == JsonToken.START_ARRAY) {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+          if (token == JsonToken.START_OBJECT) {
+            readChangeSet(parser, developers);
+          } else {
+            parser.skipChildren();
+          }
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+
+    if (hasCause) {
+      build.setUrl(url);
+    }
+    if (!developers.isEmpty()) {
+      build.setDevelopers(developers.toArray(new String[developers.size()]));
+    }
+    build.setResult(result);
+    build.setStable("SUCCESS".equalsIgnoreCase(result));
+    build.setSuccessful("SUCCESS".equalsIgnoreCase(result) || "UNSTABLE".equalsIgnoreCase(result));
+
+    return build;
+  }
+
+  /**
+   * Like {@link HudsonBuildUnmarshaller}, takes into account only first cause of first action,
+   * but time in queue from any action.
+   *
+   * @return true, if cause was found
+   */
+  private boolean readActions(JsonParser parser, Build build) throws IOException {
+    if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+      parser.skipChildren();
+      return false;
+    }
+    boolean first = true;
+    boolean hasCause = false;
+    JsonToken token;
+    while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+      if (token == JsonToken.START_OBJECT) {
+        hasCause |= readAction(parser, build, first);
+        first = false;
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return hasCause;
+  }
+
+  private boolean readAction(JsonParser parser, Build build, boolean readCauses) throws IOException {
+    boolean hasCause = false;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if ("queuingDurationMillis".equals(name) && token != JsonToken.VALUE_NULL) {
+        build.setQueueDuration((double) parser.getLongValue());
+      } else if (readCauses && "causes".equals(name) && token == JsonToken.START_ARRAY) {
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+          if (!hasCause && token == JsonToken.START_OBJECT) {
+            hasCause = true;
+            readCause(parser, build);
+          } else {
+            parser.skipChildren();
+          }
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return hasCause;
+  }
+
+  /**
+   * Collects <tt>fullName</tt> of author of each item.
+   */
+  private void readChangeSet(JsonParser parser, Set<String> developers) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      if (parser.nextToken() == JsonToken.START_ARRAY && "items".equals(name)) {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+          if (token == JsonToken.START_OBJECT) {
+            readItem(parser, developers);
+          } else {
+            parser.skipChildren();
+          }
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  private void readItem(JsonParser parser, Set<String> developers) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      if (parser.nextToken() == JsonToken.START_OBJECT && "author".equals(name)) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String field = parser.getCurrentName();
+          JsonToken token = parser.nextToken();
+          if ("fullName".equals(field) && token != JsonToken.VALUE_NULL) {
+            developers.add(parser.getText());
+          } else {
+            parser.skipChildren();
+          }
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  private void readCause(JsonParser parser, Build build) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      if ("shortDescription".equals(name)) {
+        build.setCauseDescription(getText(parser));
+      } else if ("userName".equals(name)) {
+        build.setCauseUser(getText(parser));
+      } else if ("upstreamProject".equals(name)) {
+        build.setCauseProject(getText(parser));
+      } else if ("upstreamBuild".equals(name)) {
+        build.setCauseProjectBuild(getText(parser));
+      } else if ("upstreamUrl".equals(name)) {
+        build.setCauseProjectUrl(getText(parser));
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  private static String getText(JsonParser parser) throws IOException {
+    return parser.getCurrentToken() == JsonToken.VALUE_NULL ? null : parser.getText();
+  }
+}
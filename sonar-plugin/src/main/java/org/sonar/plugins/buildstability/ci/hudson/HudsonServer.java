@@ -18,10 +18,22 @@ package org.sonar.plugins.buildstability.ci.hudson;
 
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.lang.StringUtils;
+import org.codehaus.jackson.JsonParser;
+import org.sonar.plugins.buildstability.Build;
+import org.sonar.plugins.buildstability.TestStatistics;
 import org.sonar.plugins.buildstability.ci.AbstractServer;
+import org.sonar.plugins.buildstability.ci.CiCapability;
+import org.sonar.plugins.buildstability.ci.CiSettings;
+import org.sonar.plugins.buildstability.ci.JsonUnmarshaller;
+import org.sonar.plugins.buildstability.ci.RetrievalStrategy;
 import org.sonar.plugins.buildstability.ci.Unmarshaller;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * See <a href="http://wiki.hudson-ci.org/display/HUDSON/Remote+access+API">Hudson Remote access API</a>.
@@ -33,12 +45,50 @@ public class HudsonServer extends AbstractServer {
   public static final String PATTERN = "/job/";
 
   private static final Unmarshaller BUILD_UNMARSHALLER = new HudsonBuildUnmarshaller();
+  private static final JsonUnmarshaller JSON_BUILD_UNMARSHALLER = new HudsonJsonBuildUnmarshaller();
+  private static final HudsonStagesUnmarshaller STAGES_UNMARSHALLER = new HudsonStagesUnmarshaller();
+  private static final HudsonTestReportParser TEST_REPORT_PARSER = new HudsonTestReportParser();
+
+  /**
+   * Fields of build, which are used by unmarshallers. Brackets are escaped, because they are not allowed in URI.
+   */
+  private static final String BUILDS_TREE = "?tree=builds%5Bnumber,url,result,timestamp,duration," +
+      "actions%5Bcauses%5BshortDescription,userName,upstreamProject,upstreamBuild,upstreamUrl%5D,queuingDurationMillis%5D," +
+      "changeSet%5Bitems%5Bauthor%5BfullName%5D%5D%5D,changeSets%5Bitems%5Bauthor%5BfullName%5D%5D%5D%5D";
+
+  /**
+   * Fields of test cases, which are used by {@link HudsonTestReportParser}.
+   */
+  private static final String TEST_REPORT_TREE = "?tree=suites%5Bcases%5BclassName,name,duration,status,skipped%5D%5D";
 
   private boolean useJSecurityCheck;
+  private boolean useJsonApi;
 
   @Override
   protected String getBuildUrl(String number) {
-    return getHost() + "/job/" + getKey() + "/" + number + "/api/xml/";
+    return getHost() + "/job/" + getKey() + "/" + number + (isUseJsonApi() ? "/api/json" : "/api/xml/");
+  }
+
+  @Override
+  protected String getBuildsUrl(Date since) {
+    return getHost() + "/job/" + getKey() + (isUseJsonApi() ? "/api/json" : "/api/xml") + BUILDS_TREE;
+  }
+
+  @Override
+  public Set<CiCapability> getCapabilities() {
+    return EnumSet.of(CiCapability.STAGE_TIMINGS, CiCapability.TEST_REPORTS);
+  }
+
+  @Override
+  public RetrievalStrategy getRetrievalStrategy() {
+    return RetrievalStrategy.BULK;
+  }
+
+  @Override
+  protected void configure(CiSettings settings) {
+    super.configure(settings);
+    setUseJSecurityCheck(settings.isUseJSecurityCheck());
+    setUseJsonApi(settings.isUseJsonApi());
   }
 
   @Override
@@ -46,11 +96,39 @@ public class HudsonServer extends AbstractServer {
     return getBuildUrl("lastBuild");
   }
 
+  /**
+   * Stages are described by Pipeline Stage View plugin, which is available only for pipeline jobs.
+   */
+  @Override
+  protected String getStagesUrl(Build build) {
+    return getHost() + "/job/" + getKey() + "/" + build.getNumber() + "/wfapi/describe";
+  }
+
+  @Override
+  protected Map<String, Double> toStages(JsonParser parser) throws IOException {
+    return STAGES_UNMARSHALLER.toModel(parser);
+  }
+
+  @Override
+  protected String getTestReportUrl(Build build) {
+    return getHost() + "/job/" + getKey() + "/" + build.getNumber() + "/testReport/api/xml" + TEST_REPORT_TREE;
+  }
+
+  @Override
+  protected void readTestReport(InputStream input, TestStatistics statistics) {
+    TEST_REPORT_PARSER.parse(input, statistics);
+  }
+
   @Override
   protected Unmarshaller getBuildUnmarshaller() {
     return BUILD_UNMARSHALLER;
   }
 
+  @Override
+  protected JsonUnmarshaller getJsonBuildUnmarshaller() {
+    return isUseJsonApi() ? JSON_BUILD_UNMARSHALLER : null;
+  }
+
   @Override
   protected void doLogin(HttpClient client) throws IOException {
     if (!isUseJSecurityCheck()) {
@@ -69,4 +147,12 @@ public class HudsonServer extends AbstractServer {
   public void setUseJSecurityCheck(boolean useJSecurityCheck) {
     this.useJSecurityCheck = useJSecurityCheck;
   }
+
+  public boolean isUseJsonApi() {
+    return useJsonApi;
+  }
+
+  public void setUseJsonApi(boolean useJsonApi) {
+    this.useJsonApi = useJsonApi;
+  }
 }
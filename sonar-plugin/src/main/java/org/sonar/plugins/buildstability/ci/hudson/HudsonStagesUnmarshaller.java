@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci.hudson;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads durations of stages from <tt>/wfapi/describe</tt> of pipeline build.
+ */
+public class HudsonStagesUnmarshaller {
+  /**
+   * @param parser parser positioned at the start of root object
+   * @return durations of stages in millisec by name of stage, in order of execution
+   */
+  public Map<String, Double> toModel(JsonParser parser) throws IOException {
+    Map<String, Double> stages = new LinkedHashMap<String, Double>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      if (parser.nextToken() == JsonToken.START_ARRAY && "stages".equals(name)) {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+          if (token == JsonToken.START_OBJECT) {
+            readStage(parser, stages);
+          } else {
+            parser.skipChildren();
+          }
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return stages;
+  }
+
+  private void readStage(JsonParser parser, Map<String, Double> stages) throws IOException {
+    String name = null;
+    long duration = 0;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if ("name".equals(field) && token != JsonToken.VALUE_NULL) {
+        name = parser.getText();
+      } else if ("durationMillis".equals(field) && token != JsonToken.VALUE_NULL) {
+        duration = parser.getLongValue();
+      } else {
+        parser.skipChildren();
+      }
+    }
+    if (name != null) {
+      // Stage with the same name can be executed several times, e.g. in loop
+      Double previous = stages.get(name);
+      stages.put(name, previous == null ? duration : previous + duration);
+    }
+  }
+}
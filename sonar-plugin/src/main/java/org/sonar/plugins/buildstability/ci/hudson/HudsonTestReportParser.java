@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci.hudson;
+
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.dom4j.ElementHandler;
+import org.dom4j.ElementPath;
+import org.dom4j.io.SAXReader;
+import org.sonar.api.utils.SonarException;
+import org.sonar.plugins.buildstability.TestStatistics;
+
+import java.io.InputStream;
+
+/**
+ * Reads test cases from <tt>/testReport/api/xml</tt> into {@link TestStatistics}.
+ * <p>
+ * Reports can be huge, so each test case is detached from document as soon as it was read,
+ * and memory usage doesn't depend on size of report.
+ * </p>
+ */
+public class HudsonTestReportParser {
+  public void parse(InputStream input, final TestStatistics statistics) {
+    SAXReader reader = new SAXReader();
+    reader.setDefaultHandler(new ElementHandler() {
+      public void onStart(ElementPath path) {
+      }
+
+      public void onEnd(ElementPath path) {
+        Element element = path.getCurrent();
+        if ("case".equals(element.getName())) {
+          addCase(element, statistics);
+          element.detach();
+        } else if ("suite".equals(element.getName())) {
+          element.detach();
+        }
+      }
+    });
+    try {
+      reader.read(input);
+    } catch (DocumentException e) {
+      throw new SonarException(e);
+    }
+  }
+
+  private void addCase(Element element, TestStatistics statistics) {
+    String status = element.elementText("status");
+    if (status == null || "SKIPPED".equalsIgnoreCase(status) || Boolean.parseBoolean(element.elementText("skipped"))) {
+      return;
+    }
+    String className = element.elementText("className");
+    String name = className == null ? element.elementText("name") : className + "." + element.elementText("name");
+    String duration = element.elementText("duration");
+    statistics.add(
+        name,
+        duration == null ? 0 : Double.parseDouble(duration) * 1000,
+        "FAILED".equalsIgnoreCase(status) || "REGRESSION".equalsIgnoreCase(status)
+    );
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.notification;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.sonar.plugins.buildstability.Build;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Build-completed notification. Two formats are supported:
+ * <ul>
+ * <li>format of <a href="http://wiki.jenkins-ci.org/display/JENKINS/Notification+Plugin">Notification Plugin</a>:
+ * <tt>{"name":"sonar","build":{"number":18,"phase":"COMPLETED","status":"SUCCESS","url":"job/sonar/18/","timestamp":1272891187240,"duration":60000}}</tt></li>
+ * <li>simple format: <tt>{"job":"sonar","number":18,"result":"SUCCESS","url":"job/sonar/18/","timestamp":1272891187240,"duration":60000}</tt></li>
+ * </ul>
+ */
+public class BuildNotification {
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private String job;
+  private String phase;
+  private Integer number;
+  private String result;
+  private String url;
+  private Long timestamp;
+  private Long duration;
+  private boolean fullUrl;
+
+  public String getJob() {
+    return job;
+  }
+
+  /**
+   * @return phase of build or null, if notification doesn't specify it
+   */
+  public String getPhase() {
+    return phase;
+  }
+
+  public Integer getNumber() {
+    return number;
+  }
+
+  public Long getTimestamp() {
+    return timestamp;
+  }
+
+  public Long getDuration() {
+    return duration;
+  }
+
+  /**
+   * Notification Plugin sends both COMPLETED and FINALIZED notifications for each build,
+   * so both describe finished build, but only one of them should be stored.
+   *
+   * @return true, if notification describes finished build
+   */
+  public boolean isCompleted() {
+    return phase == null || "COMPLETED".equalsIgnoreCase(phase) || isFinalized();
+  }
+
+  /**
+   * @return true, if this is last notification about build
+   */
+  public boolean isFinalized() {
+    return "FINALIZED".equalsIgnoreCase(phase);
+  }
+
+  /**
+   * @param timestamp timestamp of build, if it is not specified in notification
+   * @param duration duration of build, if it is not specified in notification
+   */
+  public Build toBuild(long timestamp, long duration) {
+    Build build = new Build();
+    build.setNumber(number);
+    build.setTimestamp(this.timestamp != null ? this.timestamp : timestamp);
+    build.setDuration(this.duration != null ? this.duration : duration);
+    build.setResult(result);
+    build.setUrl(url);
+    build.setStable("SUCCESS".equalsIgnoreCase(result));
+    build.setSuccessful("SUCCESS".equalsIgnoreCase(result) || "UNSTABLE".equalsIgnoreCase(result));
+    return build;
+  }
+
+  /**
+   * @return notification or null, if it doesn't contain name of job or number of build
+   */
+  public static BuildNotification parse(InputStream in) throws IOException {
+    JsonParser parser = JSON_FACTORY.createJsonParser(in);
+    try {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return null;
+      }
+      BuildNotification notification = new BuildNotification();
+      notification.read(parser);
+      if (notification.job == null || notification.number == null) {
+        return null;
+      }
+      return notification;
+    } finally {
+      parser.close();
+    }
+  }
+
+  private void read(JsonParser parser) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if (token == JsonToken.VALUE_NULL) {
+        continue;
+      }
+      if ("name".equals(name) || "job".equals(name)) {
+        job = parser.getText();
+      } else if ("build".equals(name) && token == JsonToken.START_OBJECT) {
+        // URL of job is not needed
+        url = null;
+        read(parser);
+      } else if ("number".equals(name)) {
+        number = parser.getIntValue();
+      } else if ("phase".equals(name)) {
+        phase = parser.getText();
+      } else if ("status".equals(name) || "result".equals(name)) {
+        result = parser.getText();
+      } else if ("full_url".equals(name)) {
+        url = parser.getText();
+        fullUrl = true;
+      } else if ("url".equals(name)) {
+        if (!fullUrl) {
+          url = parser.getText();
+        }
+      } else if ("timestamp".equals(name)) {
+        timestamp = parser.getLongValue();
+      } else if ("duration".equals(name)) {
+        duration = parser.getLongValue();
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+}
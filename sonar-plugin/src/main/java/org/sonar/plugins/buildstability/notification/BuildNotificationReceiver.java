@@ -0,0 +1,450 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.notification;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.plugins.buildstability.store.BuildStore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lightweight HTTP endpoint, which receives build-completed notifications (see {@link BuildNotification})
+ * and appends builds to {@link BuildStore}. So analysis can read builds from store without any request to CI server.
+ * <p>
+ * Can be started alongside CI server:
+ * <tt>java -cp ... org.sonar.plugins.buildstability.notification.BuildNotificationReceiver &lt;store directory&gt; &lt;port&gt; [&lt;days to keep&gt; [&lt;bind address&gt;]]</tt>
+ * and notifications should be posted to <tt>http://host:port/notify</tt>.
+ * If days to keep specified, then older builds are compacted into rollups once a day.
+ * </p>
+ * <p>
+ * By default receiver listens only on loopback interface, bind address <tt>0.0.0.0</tt> opens it to all interfaces.
+ * If environment variable <tt>BUILD_NOTIFICATION_TOKEN</tt> is set, then only notifications, which contain it
+ * in header <tt>X-Build-Token</tt> or in query parameter <tt>token</tt>, are accepted.
+ * </p>
+ */
+public class BuildNotificationReceiver {
+  public static final String CONTEXT = "/notify";
+  public static final String TOKEN_HEADER = "X-Build-Token";
+  public static final String TOKEN_PARAMETER = "token";
+  public static final String TOKEN_VARIABLE = "BUILD_NOTIFICATION_TOKEN";
+  public static final String DEFAULT_BIND_ADDRESS = "127.0.0.1";
+
+  private static final int MAX_STARTED_BUILDS = 1000;
+  private static final int MAX_LINE_LENGTH = 8 * 1024;
+  private static final int MAX_BODY_LENGTH = 64 * 1024;
+  /**
+   * Time to wait for request data, in millisec.
+   */
+  private static final int READ_TIMEOUT = 10000;
+  /**
+   * Number of threads, which handle requests, so slow sender doesn't block others.
+   */
+  private static final int HANDLERS = 4;
+  private static final long DAY = 24L * 60 * 60 * 1000;
+
+  private final BuildStore store;
+  private final int port;
+  private String bindAddress = DEFAULT_BIND_ADDRESS;
+  private String token;
+  private ServerSocket serverSocket;
+  private ExecutorService handlers;
+  private final ExecutorService compactor = Executors.newSingleThreadExecutor();
+  private int daysToKeep;
+  private long lastCompaction;
+
+  /**
+   * Start time of builds, for which STARTED notification was received, to compute duration,
+   * if COMPLETED notification doesn't contain it. Kept until FINALIZED notification,
+   * so it is also used, when COMPLETED notification was lost. Eldest builds are dropped, when there are too many.
+   */
+  private final Map<String, Long> started = new LinkedHashMap<String, Long>();
+
+  /**
+   * @param port port to listen, 0 for any free port
+   */
+  public BuildNotificationReceiver(BuildStore store, int port) {
+    this.store = store;
+    this.port = port;
+  }
+
+  /**
+   * @param daysToKeep number of days, during which builds are kept in history, 0 to keep all builds
+   */
+  public void setDaysToKeep(int daysToKeep) {
+    this.daysToKeep = daysToKeep;
+  }
+
+  /**
+   * @param bindAddress address of interface to listen, <tt>0.0.0.0</tt> for all interfaces
+   */
+  public void setBindAddress(String bindAddress) {
+    this.bindAddress = bindAddress;
+  }
+
+  /**
+   * @param token shared secret, which notifications should contain, or null to accept all notifications
+   */
+  public void setToken(String token) {
+    this.token = StringUtils.isEmpty(token) ? null : token;
+  }
+
+  public void start() throws IOException {
+    final ServerSocket socket = new ServerSocket();
+    socket.bind(new InetSocketAddress(bindAddress, port));
+    final ExecutorService executor = Executors.newFixedThreadPool(HANDLERS);
+    serverSocket = socket;
+    handlers = executor;
+    new Thread("BuildNotificationReceiver") {
+      @Override
+      public void run() {
+        accept(socket, executor);
+      }
+    }.start();
+  }
+
+  /**
+   * Stops listening, waits for notifications being stored and compaction, and writes rollups, which were not written yet.
+   */
+  public void stop() {
+    if (serverSocket != null) {
+      try {
+        serverSocket.close();
+      } catch (IOException e) {
+        LoggerFactory.getLogger(BuildNotificationReceiver.class).debug("Unable to close socket", e);
+      }
+      serverSocket = null;
+      handlers.shutdown();
+    }
+    compactor.shutdown();
+    try {
+      if (handlers != null) {
+        handlers.awaitTermination(READ_TIMEOUT, TimeUnit.MILLISECONDS);
+      }
+      compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      store.flush();
+    } catch (IOException e) {
+      LoggerFactory.getLogger(BuildNotificationReceiver.class).error("Unable to write rollups", e);
+    }
+  }
+
+  /**
+   * @return port, on which receiver listens
+   */
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  private void accept(ServerSocket socket, ExecutorService executor) {
+    while (!socket.isClosed()) {
+      final Socket connection;
+      try {
+        connection = socket.accept();
+      } catch (IOException e) {
+        if (!socket.isClosed()) {
+          LoggerFactory.getLogger(BuildNotificationReceiver.class).error("Unable to accept connection", e);
+        }
+        continue;
+      }
+      try {
+        executor.execute(new Runnable() {
+          public void run() {
+            handle(connection);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        close(connection);
+      }
+    }
+  }
+
+  private void handle(Socket connection) {
+    try {
+      connection.setSoTimeout(READ_TIMEOUT);
+      OutputStream out = connection.getOutputStream();
+      int status;
+      try {
+        status = handle(connection.getInputStream(), out);
+      } catch (RuntimeException e) {
+        LoggerFactory.getLogger(BuildNotificationReceiver.class).error("Unable to handle notification", e);
+        status = HttpURLConnection.HTTP_INTERNAL_ERROR;
+      }
+      out.write(("HTTP/1.1 " + status + " " + getReason(status) + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+          .getBytes("US-ASCII"));
+      out.flush();
+    } catch (IOException e) {
+      LoggerFactory.getLogger(BuildNotificationReceiver.class).debug("Unable to send response", e);
+    } finally {
+      close(connection);
+    }
+  }
+
+  private static void close(Socket connection) {
+    try {
+      connection.close();
+    } catch (IOException e) {
+      LoggerFactory.getLogger(BuildNotificationReceiver.class).debug("Unable to close connection", e);
+    }
+  }
+
+  /**
+   * Supports only requests with <tt>Content-Length</tt>, which is enough for notifications.
+   *
+   * @return HTTP status
+   */
+  private int handle(InputStream in, OutputStream out) throws IOException {
+    Map<String, String> headers = new HashMap<String, String>();
+    String[] request;
+    try {
+      request = StringUtils.split(readLine(in), ' ');
+      String line = readLine(in);
+      while (!StringUtils.isEmpty(line)) {
+        int colon = line.indexOf(':');
+        if (colon > 0) {
+          headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH), line.substring(colon + 1).trim());
+        }
+        line = readLine(in);
+      }
+      if (request == null || request.length != 3 || line == null) {
+        return HttpURLConnection.HTTP_BAD_REQUEST;
+      }
+    } catch (IOException e) {
+      LoggerFactory.getLogger(BuildNotificationReceiver.class).debug("Unable to read request", e);
+      return HttpURLConnection.HTTP_BAD_REQUEST;
+    }
+    if (!CONTEXT.equals(StringUtils.substringBefore(request[1], "?"))) {
+      return HttpURLConnection.HTTP_NOT_FOUND;
+    }
+    if (!isAuthorized(headers.get(TOKEN_HEADER.toLowerCase(Locale.ENGLISH)), StringUtils.substringAfter(request[1], "?"))) {
+      return HttpURLConnection.HTTP_UNAUTHORIZED;
+    }
+    if (!"POST".equalsIgnoreCase(request[0])) {
+      return HttpURLConnection.HTTP_BAD_METHOD;
+    }
+    String contentLength = headers.get("content-length");
+    if (contentLength == null || headers.containsKey("transfer-encoding")) {
+      return HttpURLConnection.HTTP_LENGTH_REQUIRED;
+    }
+    int length;
+    try {
+      length = Integer.parseInt(contentLength);
+    } catch (NumberFormatException e) {
+      return HttpURLConnection.HTTP_BAD_REQUEST;
+    }
+    if (length < 0) {
+      return HttpURLConnection.HTTP_BAD_REQUEST;
+    }
+    if (length > MAX_BODY_LENGTH) {
+      return HttpURLConnection.HTTP_ENTITY_TOO_LARGE;
+    }
+    if ("100-continue".equalsIgnoreCase(headers.get("expect"))) {
+      out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes("US-ASCII"));
+      out.flush();
+    }
+    byte[] body = new byte[length];
+    try {
+      new DataInputStream(in).readFully(body);
+    } catch (EOFException e) {
+      return HttpURLConnection.HTTP_BAD_REQUEST;
+    }
+    return receive(new ByteArrayInputStream(body));
+  }
+
+  /**
+   * @return line without terminator or null, if stream ended
+   */
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b = in.read();
+    if (b == -1) {
+      return null;
+    }
+    while (b != -1 && b != '\n') {
+      if (line.size() == MAX_LINE_LENGTH) {
+        throw new IOException("Line is too long");
+      }
+      line.write(b);
+      b = in.read();
+    }
+    return StringUtils.removeEnd(line.toString("ISO-8859-1"), "\r");
+  }
+
+  private boolean isAuthorized(String header, String query) throws IOException {
+    if (token == null) {
+      return true;
+    }
+    String value = header;
+    if (value == null) {
+      for (String parameter : StringUtils.split(query, '&')) {
+        if (parameter.startsWith(TOKEN_PARAMETER + "=")) {
+          try {
+            value = URLDecoder.decode(parameter.substring(TOKEN_PARAMETER.length() + 1), "UTF-8");
+          } catch (IllegalArgumentException e) {
+            return false;
+          }
+        }
+      }
+    }
+    return value != null && MessageDigest.isEqual(value.getBytes("UTF-8"), token.getBytes("UTF-8"));
+  }
+
+  private static String getReason(int status) {
+    switch (status) {
+      case HttpURLConnection.HTTP_OK:
+        return "OK";
+      case HttpURLConnection.HTTP_BAD_REQUEST:
+        return "Bad Request";
+      case HttpURLConnection.HTTP_UNAUTHORIZED:
+        return "Unauthorized";
+      case HttpURLConnection.HTTP_NOT_FOUND:
+        return "Not Found";
+      case HttpURLConnection.HTTP_BAD_METHOD:
+        return "Method Not Allowed";
+      case HttpURLConnection.HTTP_LENGTH_REQUIRED:
+        return "Length Required";
+      case HttpURLConnection.HTTP_ENTITY_TOO_LARGE:
+        return "Request Entity Too Large";
+      default:
+        return "Internal Server Error";
+    }
+  }
+
+  /**
+   * @return HTTP status: bad request for malformed notification, internal error if it can't be stored
+   */
+  private int receive(InputStream body) {
+    BuildNotification notification;
+    try {
+      notification = BuildNotification.parse(body);
+    } catch (IOException e) {
+      LoggerFactory.getLogger(BuildNotificationReceiver.class).debug("Malformed notification", e);
+      return HttpURLConnection.HTTP_BAD_REQUEST;
+    } catch (RuntimeException e) {
+      LoggerFactory.getLogger(BuildNotificationReceiver.class).debug("Malformed notification", e);
+      return HttpURLConnection.HTTP_BAD_REQUEST;
+    }
+    if (notification == null) {
+      return HttpURLConnection.HTTP_BAD_REQUEST;
+    }
+    try {
+      receive(notification, System.currentTimeMillis());
+    } catch (IOException e) {
+      LoggerFactory.getLogger(BuildNotificationReceiver.class).error("Unable to store notification", e);
+      return HttpURLConnection.HTTP_INTERNAL_ERROR;
+    }
+    return HttpURLConnection.HTTP_OK;
+  }
+
+  /**
+   * Compaction is done in background, so it doesn't block senders of notifications.
+   */
+  synchronized void receive(BuildNotification notification, long now) throws IOException {
+    String key = notification.getJob() + "#" + notification.getNumber();
+    if (!notification.isCompleted()) {
+      if ("STARTED".equalsIgnoreCase(notification.getPhase())) {
+        started.put(key, notification.getTimestamp() != null ? notification.getTimestamp() : now);
+        if (started.size() > MAX_STARTED_BUILDS) {
+          Iterator<String> eldest = started.keySet().iterator();
+          eldest.next();
+          eldest.remove();
+        }
+      }
+      return;
+    }
+    Long start = notification.isFinalized() || notification.getPhase() == null ? started.remove(key) : started.get(key);
+    if (notification.getTimestamp() != null) {
+      start = notification.getTimestamp();
+    }
+    long timestamp = start != null ? start : now;
+    // FINALIZED notification is stored only if COMPLETED one was lost
+    if (!store.append(notification.getJob(), notification.toBuild(timestamp, now - timestamp))) {
+      LoggerFactory.getLogger(BuildNotificationReceiver.class).debug("Build {} already stored", key);
+    }
+    if (daysToKeep > 0 && now - lastCompaction >= DAY) {
+      lastCompaction = now;
+      compact(new Date(now - daysToKeep * DAY));
+    }
+  }
+
+  private void compact(final Date before) {
+    try {
+      compactor.execute(new Runnable() {
+        public void run() {
+          try {
+            LoggerFactory.getLogger(BuildNotificationReceiver.class).info("Compacted {} builds", store.compact(before));
+          } catch (IOException e) {
+            LoggerFactory.getLogger(BuildNotificationReceiver.class).error("Unable to compact builds", e);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      LoggerFactory.getLogger(BuildNotificationReceiver.class).debug("Receiver is stopped, compaction skipped");
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2 || args.length > 4) {
+      System.err.println("Usage: BuildNotificationReceiver <store directory> <port> [<days to keep> [<bind address>]]");
+      System.exit(1);
+    }
+    final BuildNotificationReceiver receiver = new BuildNotificationReceiver(new BuildStore(new File(args[0])), Integer.parseInt(args[1]));
+    if (args.length >= 3) {
+      receiver.setDaysToKeep(Integer.parseInt(args[2]));
+    }
+    if (args.length == 4) {
+      receiver.setBindAddress(args[3]);
+    }
+    receiver.setToken(System.getenv(TOKEN_VARIABLE));
+    receiver.start();
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        receiver.stop();
+      }
+    });
+    Logger logger = LoggerFactory.getLogger(BuildNotificationReceiver.class);
+    logger.info("Listening for notifications on {}:{}", receiver.bindAddress, receiver.getPort());
+  }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.store;
+
+import org.sonar.plugins.buildstability.Build;
+import org.sonar.plugins.buildstability.LazyBuild;
+import org.sonar.plugins.buildstability.StringDictionary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only history of builds of one job.
+ * <p>
+ * Builds are stored as fixed-size records in one file, so they can be scanned through {@link MappedByteBuffer}
+ * without creation of {@link Build} objects. Each record contains:
+ * <ul>
+ * <li>number - int</li>
+ * <li>timestamp - long</li>
+ * <li>duration in millisec - double</li>
+ * <li>status - byte, see {@link #SUCCESSFUL_FLAG} and {@link #STABLE_FLAG}</li>
+ * <li>offset of variable-length fields in strings file - long</li>
+ * </ul>
+ * Variable-length fields (result, url and cause) are stored in separate strings file as length-prefixed UTF-8 strings
+ * and decoded only for requested builds.
+ * </p>
+ * <p>
+ * Users and upstream projects repeat across builds, so they are stored once in names file, which is table of
+ * length-prefixed UTF-8 strings, and strings file contains only their ids in this table. When table is full,
+ * new names are stored in strings file.
+ * </p>
+ */
+public class BuildHistory {
+  public static final int RECORD_SIZE = 4 + 8 + 8 + 1 + 8;
+
+  static final byte SUCCESSFUL_FLAG = 1;
+  static final byte STABLE_FLAG = 2;
+
+  private static final String ENCODING = "UTF-8";
+  private static final int NULL_LENGTH = -1;
+  /**
+   * Marks name, which is stored in strings file instead of id in names table.
+   */
+  private static final int INLINE_NAME = -2;
+  /**
+   * Maximal number of distinct users and upstream projects in names table.
+   */
+  private static final int MAX_NAMES = 1000;
+
+  private final File recordsFile;
+  private final File stringsFile;
+  private final File namesFile;
+  /**
+   * Names table of writer, loaded on first append.
+   */
+  private StringDictionary names;
+
+  public BuildHistory(File recordsFile, File stringsFile, File namesFile) {
+    this.recordsFile = recordsFile;
+    this.stringsFile = stringsFile;
+    this.namesFile = namesFile;
+  }
+
+  public File getRecordsFile() {
+    return recordsFile;
+  }
+
+  public File getStringsFile() {
+    return stringsFile;
+  }
+
+  public File getNamesFile() {
+    return namesFile;
+  }
+
+  /**
+   * Names are written before strings and strings before record, so record never refers to missing data.
+   */
+  public void append(Build build) throws IOException {
+    long offset = stringsFile.length();
+    byte[] strings;
+    try {
+      strings = encodeStrings(build, getNames());
+    } catch (IOException e) {
+      // Table of writer can contain name, which was not written
+      names = null;
+      throw e;
+    }
+    write(stringsFile, strings);
+
+    ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    record.putInt(build.getNumber());
+    record.putLong(build.getTimestamp());
+    record.putDouble(build.getDuration());
+    record.put(encodeStatus(build));
+    record.putLong(offset);
+    write(recordsFile, record.array());
+  }
+
+  /**
+   * @return view of records, which were appended before this call
+   */
+  public Records open() throws IOException {
+    ByteBuffer records = map(recordsFile);
+    ByteBuffer strings = map(stringsFile);
+    return new Records(records, strings, readNames(map(namesFile)));
+  }
+
+  private StringDictionary getNames() throws IOException {
+    if (names == null) {
+      names = new StringDictionary(MAX_NAMES);
+      for (String name : readNames(map(namesFile))) {
+        names.add(name);
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Incomplete name at the end of file is ignored, because no record refers to it.
+   */
+  private static String[] readNames(ByteBuffer in) {
+    List<String> names = new ArrayList<String>();
+    while (in.remaining() >= 4) {
+      int length = in.getInt(in.position());
+      if (in.remaining() < 4 + length) {
+        break;
+      }
+      names.add(Records.readString(in));
+    }
+    return names.toArray(new String[names.size()]);
+  }
+
+  private static void write(File file, byte[] bytes) throws IOException {
+    OutputStream out = new FileOutputStream(file, true);
+    try {
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+  }
+
+  private static ByteBuffer map(File file) throws IOException {
+    if (!file.isFile() || file.length() == 0) {
+      return ByteBuffer.allocate(0);
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      // Mapping remains valid after channel closed
+      return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static byte encodeStatus(Build build) {
+    byte status = 0;
+    if (build.isSuccessful()) {
+      status |= SUCCESSFUL_FLAG;
+    }
+    if (build.isStable()) {
+      status |= STABLE_FLAG;
+    }
+    return status;
+  }
+
+  private byte[] encodeStrings(Build build, StringDictionary names) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    writeString(out, build.getResult());
+    writeString(out, build.getUrl());
+    writeString(out, build.getCauseDescription());
+    writeName(out, build.getCauseUser(), names);
+    writeName(out, build.getCauseProject(), names);
+    writeString(out, build.getCauseProjectBuild());
+    writeString(out, build.getCauseProjectUrl());
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private void writeName(DataOutputStream out, String value, StringDictionary names) throws IOException {
+    if (value == null) {
+      out.writeInt(NULL_LENGTH);
+      return;
+    }
+    int id = names.getId(value);
+    if (id == StringDictionary.NOT_FOUND) {
+      id = names.add(value);
+      if (id == StringDictionary.NOT_FOUND) {
+        out.writeInt(INLINE_NAME);
+        writeString(out, value);
+        return;
+      }
+      ByteArrayOutputStream name = new ByteArrayOutputStream();
+      DataOutputStream nameOut = new DataOutputStream(name);
+      writeString(nameOut, value);
+      nameOut.close();
+      write(namesFile, name.toByteArray());
+    }
+    out.writeInt(id);
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(NULL_LENGTH);
+    } else {
+      byte[] bytes = value.getBytes(ENCODING);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * Read-only view of history. Incomplete record at the end of file (e.g. after crash during append) is ignored.
+   * Builds decoded from one view share instances of users and upstream projects from names table.
+   */
+  public static class Records {
+    private final ByteBuffer records;
+    private final ByteBuffer strings;
+    private final String[] names;
+    private final int size;
+
+    Records(ByteBuffer records, ByteBuffer strings, String[] names) {
+      this.records = records;
+      this.strings = strings;
+      this.names = names;
+      this.size = records.capacity() / RECORD_SIZE;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public int getNumber(int index) {
+      return records.getInt(position(index));
+    }
+
+    public long getTimestamp(int index) {
+      return records.getLong(position(index) + 4);
+    }
+
+    public double getDuration(int index) {
+      return records.getDouble(position(index) + 12);
+    }
+
+    public boolean isSuccessful(int index) {
+      return (records.get(position(index) + 20) & SUCCESSFUL_FLAG) != 0;
+    }
+
+    public boolean isStable(int index) {
+      return (records.get(position(index) + 20) & STABLE_FLAG) != 0;
+    }
+
+    /**
+     * Decodes build including its result. URL and cause are decoded on first access.
+     */
+    public Build getBuild(int index) {
+      int offset = (int) records.getLong(position(index) + 21);
+      final ByteBuffer in = strings.duplicate();
+      in.position(offset);
+      Build build = new LazyBuild() {
+        @Override
+        protected void decode() {
+          setUrl(readString(in));
+          setCauseDescription(readString(in));
+          setCauseUser(readName(in));
+          setCauseProject(readName(in));
+          setCauseProjectBuild(readString(in));
+          setCauseProjectUrl(readString(in));
+        }
+      };
+      build.setNumber(getNumber(index));
+      build.setTimestamp(getTimestamp(index));
+      build.setStable(isStable(index));
+      build.setSuccessful(isSuccessful(index));
+      build.setDuration(getDuration(index));
+      build.setResult(readString(in));
+      return build;
+    }
+
+    private int position(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+      return index * RECORD_SIZE;
+    }
+
+    private String readName(ByteBuffer in) {
+      int id = in.getInt();
+      if (id == NULL_LENGTH) {
+        return null;
+      }
+      return id == INLINE_NAME ? readString(in) : names[id];
+    }
+
+    private static String readString(ByteBuffer in) {
+      int length = in.getInt();
+      if (length == NULL_LENGTH) {
+        return null;
+      }
+      byte[] bytes = new byte[length];
+      in.get(bytes);
+      try {
+        return new String(bytes, ENCODING);
+      } catch (UnsupportedEncodingException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.store;
+
+import org.apache.commons.lang.StringUtils;
+import org.sonar.plugins.buildstability.Build;
+import org.sonar.plugins.buildstability.BuildAccumulator;
+import org.sonar.plugins.buildstability.BuildSeries;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Daily, weekly and monthly {@link BuildAccumulator}s of all builds of one job, which are kept up to date by {@link BuildStore}
+ * on each append, so raw builds can be dropped from history after their day is complete.
+ * Only days are persisted, weeks and months are combined from them on read.
+ * Periods are aligned to UTC, weeks start on Monday.
+ */
+public class BuildRollups {
+  public static final long DAY = 24L * 60 * 60 * 1000;
+  public static final long WEEK = 7 * DAY;
+
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+  private static final String ENCODING = "UTF-8";
+  private static final String STATE_PREFIX = "#";
+  private static final String DAY_SEPARATOR = " ";
+  private static final int NONE = -1;
+  /**
+   * 1970-01-01 was Thursday.
+   */
+  private static final int DAYS_FROM_MONDAY_TO_EPOCH = 3;
+
+  private final SortedMap<Long, BuildAccumulator> days = new TreeMap<Long, BuildAccumulator>();
+  private final SortedMap<Long, BuildAccumulator> weeks = new TreeMap<Long, BuildAccumulator>();
+  private final SortedMap<Long, BuildAccumulator> months = new TreeMap<Long, BuildAccumulator>();
+
+  private int lastNumber = NONE;
+  private long compactedBefore = Long.MIN_VALUE;
+
+  /**
+   * @return start of UTC day, which contains given timestamp
+   */
+  public static long getDay(long timestamp) {
+    return timestamp - ((timestamp % DAY) + DAY) % DAY;
+  }
+
+  /**
+   * @return start of UTC week, which contains given timestamp
+   */
+  public static long getWeek(long timestamp) {
+    long day = getDay(timestamp);
+    long fromMonday = ((day / DAY + DAYS_FROM_MONDAY_TO_EPOCH) % 7 + 7) % 7;
+    return day - fromMonday * DAY;
+  }
+
+  /**
+   * @return start of UTC month, which contains given timestamp
+   */
+  public static long getMonth(long timestamp) {
+    Calendar calendar = Calendar.getInstance(UTC);
+    calendar.setTimeInMillis(getDay(timestamp));
+    calendar.set(Calendar.DAY_OF_MONTH, 1);
+    return calendar.getTimeInMillis();
+  }
+
+  private static long getNextMonth(long month) {
+    Calendar calendar = Calendar.getInstance(UTC);
+    calendar.setTimeInMillis(month);
+    calendar.add(Calendar.MONTH, 1);
+    return calendar.getTimeInMillis();
+  }
+
+  /**
+   * Adds build to rollup of its day. Exact only for build, which follows all added builds,
+   * see {@link #isAfterLast(int)}, otherwise rollup of its day should be recomputed by {@link #setDay(long, BuildAccumulator)}.
+   */
+  public void add(int number, long timestamp, boolean successful, boolean stable, double duration) {
+    getOrCreate(days, getDay(timestamp)).add(number, timestamp, successful, stable, duration);
+    getOrCreate(weeks, getWeek(timestamp)).add(number, timestamp, successful, stable, duration);
+    getOrCreate(months, getMonth(timestamp)).add(number, timestamp, successful, stable, duration);
+    lastNumber = Math.max(lastNumber, number);
+  }
+
+  private static BuildAccumulator getOrCreate(Map<Long, BuildAccumulator> rollups, long start) {
+    BuildAccumulator rollup = rollups.get(start);
+    if (rollup == null) {
+      rollup = new BuildAccumulator();
+      rollups.put(start, rollup);
+    }
+    return rollup;
+  }
+
+  public boolean isAfterLast(int number) {
+    return number > lastNumber;
+  }
+
+  /**
+   * Replaces rollup of given day and recombines its week and month.
+   */
+  public void setDay(long day, BuildAccumulator rollup) {
+    days.put(day, rollup);
+    long week = getWeek(day);
+    weeks.put(week, combine(week, week + WEEK));
+    long month = getMonth(day);
+    months.put(month, combine(month, getNextMonth(month)));
+  }
+
+  private BuildAccumulator combine(long from, long to) {
+    BuildAccumulator result = new BuildAccumulator();
+    for (BuildAccumulator day : days.subMap(from, to).values()) {
+      result.combine(day);
+    }
+    return result;
+  }
+
+  /**
+   * Weeks and months are combined from days in order, so they're the same as if builds were added to them.
+   */
+  private void combineWeeksAndMonths() {
+    weeks.clear();
+    months.clear();
+    for (Map.Entry<Long, BuildAccumulator> day : days.entrySet()) {
+      getOrCreate(weeks, getWeek(day.getKey())).combine(day.getValue());
+      getOrCreate(months, getMonth(day.getKey())).combine(day.getValue());
+    }
+  }
+
+  /**
+   * @return rollup of given day or null, if there is no builds
+   */
+  public BuildAccumulator get(long day) {
+    return days.get(day);
+  }
+
+  /**
+   * @param week start of week, see {@link #getWeek(long)}
+   * @return rollup of given week or null, if there is no builds
+   */
+  public BuildAccumulator getWeekRollup(long week) {
+    return weeks.get(week);
+  }
+
+  /**
+   * @param month start of month, see {@link #getMonth(long)}
+   * @return rollup of given month or null, if there is no builds
+   */
+  public BuildAccumulator getMonthRollup(long month) {
+    return months.get(month);
+  }
+
+  /**
+   * @return start of first day, which builds are still kept in history
+   */
+  public long getCompactedBefore() {
+    return compactedBefore;
+  }
+
+  public void setCompactedBefore(long compactedBefore) {
+    this.compactedBefore = Math.max(this.compactedBefore, compactedBefore);
+  }
+
+  /**
+   * @return rollups, which can be modified independently of these ones
+   */
+  public BuildRollups copy() {
+    BuildRollups copy = new BuildRollups();
+    for (Map.Entry<Long, BuildAccumulator> day : days.entrySet()) {
+      copy.days.put(day.getKey(), new BuildAccumulator().combine(day.getValue()));
+    }
+    copy.combineWeeksAndMonths();
+    copy.lastNumber = lastNumber;
+    copy.compactedBefore = compactedBefore;
+    return copy;
+  }
+
+  public boolean isEmpty() {
+    return days.isEmpty();
+  }
+
+  /**
+   * Builds of first day of period are taken from given builds, so result is exactly the same as aggregate of given builds,
+   * following days are taken from rollups. Whole months and weeks within month are taken from their rollups,
+   * so only few rollups are combined even for long period. If first day was already compacted,
+   * then it is taken from rollup as whole.
+   *
+   * @param since start of period
+   * @param builds builds since given date, see {@link BuildStore#getBuildsSince(String, Date)}
+   * @return aggregate of all builds since given date, including compacted ones
+   */
+  public BuildAccumulator getTotal(Date since, List<Build> builds) {
+    long firstDay = getDay(since.getTime());
+    BuildAccumulator total = new BuildAccumulator();
+    long nextDay = firstDay;
+    if (firstDay >= compactedBefore) {
+      nextDay = firstDay + DAY;
+      for (Build build : BuildSeries.ascending(builds)) {
+        if (build.getTimestamp() >= nextDay) {
+          break;
+        }
+        total.add(build);
+      }
+    }
+    if (days.isEmpty()) {
+      return total;
+    }
+    long lastDay = days.lastKey();
+    long day = nextDay;
+    while (day <= lastDay) {
+      long nextMonth = getNextMonth(getMonth(day));
+      BuildAccumulator rollup;
+      long next;
+      if (getMonth(day) == day) {
+        rollup = months.get(day);
+        next = nextMonth;
+      } else if (getWeek(day) == day && day + WEEK <= nextMonth) {
+        rollup = weeks.get(day);
+        next = day + WEEK;
+      } else {
+        rollup = days.get(day);
+        next = day + DAY;
+      }
+      if (rollup != null) {
+        total.combine(rollup);
+      }
+      day = next;
+    }
+    return total;
+  }
+
+  public void write(File file) throws IOException {
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), ENCODING);
+    try {
+      writer.write(STATE_PREFIX + "last=" + lastNumber + ";compacted=" + compactedBefore + ";\n");
+      for (Map.Entry<Long, BuildAccumulator> day : days.entrySet()) {
+        writer.write(day.getKey() + DAY_SEPARATOR + day.getValue().convertToString());
+        writer.write('\n');
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * @return rollups from given file or empty rollups, if file doesn't exist
+   */
+  public static BuildRollups read(File file) throws IOException {
+    BuildRollups rollups = new BuildRollups();
+    if (!file.isFile()) {
+      return rollups;
+    }
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith(STATE_PREFIX)) {
+          rollups.readState(line.substring(STATE_PREFIX.length()));
+        } else if (StringUtils.isNotBlank(line)) {
+          rollups.days.put(
+              Long.parseLong(StringUtils.substringBefore(line, DAY_SEPARATOR)),
+              BuildAccumulator.fromString(StringUtils.substringAfter(line, DAY_SEPARATOR)));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    rollups.combineWeeksAndMonths();
+    return rollups;
+  }
+
+  private void readState(String state) {
+    for (String field : StringUtils.split(state, ';')) {
+      String key = StringUtils.substringBefore(field, "=");
+      String value = StringUtils.substringAfter(field, "=");
+      if ("last".equals(key)) {
+        lastNumber = Integer.parseInt(value);
+      } else if ("compacted".equals(key)) {
+        compactedBefore = Long.parseLong(value);
+      }
+    }
+  }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.store;
+
+import org.apache.commons.lang.StringUtils;
+import org.sonar.plugins.buildstability.Build;
+import org.sonar.plugins.buildstability.BuildAccumulator;
+import org.sonar.plugins.buildstability.BuildSeries;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local storage of builds, which were pushed by Continuous Integration Server.
+ * Each job is stored in separate append-only {@link BuildHistory}, which contains each build number only once.
+ * Each append also updates daily {@link BuildRollups}, which are stored next to history,
+ * so old builds can be removed from history by compaction and still contribute to aggregated measures.
+ * <p>
+ * Rollups of jobs, which were appended by this store, are kept in memory and written only periodically,
+ * so directory should be appended by single store, which is flushed before exit. Builds appended after last write
+ * are restored from the end of history on read.
+ * </p>
+ */
+public class BuildStore {
+  private static final String RECORDS_EXTENSION = ".builds";
+  private static final String STRINGS_EXTENSION = ".strings";
+  private static final String NAMES_EXTENSION = ".names";
+  private static final String ROLLUPS_EXTENSION = ".rollups";
+  private static final String TEMP_SUFFIX = ".tmp";
+  /**
+   * Number of builds appended in order, after which rollups are written.
+   */
+  static final int WRITE_INTERVAL = 100;
+
+  private final File directory;
+  private final Map<String, Rollups> rollupsByJob = new HashMap<String, Rollups>();
+  /**
+   * Histories keep names table of writer, so it is loaded once per job.
+   */
+  private final Map<String, BuildHistory> histories = new HashMap<String, BuildHistory>();
+
+  public BuildStore(File directory) {
+    this.directory = directory;
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Appends build to history and to rollup of its day. Usually build follows all stored builds, so it can't be duplicate
+   * and rollup is updated incrementally without reading of history. Otherwise history is scanned for duplicate,
+   * rollup of that day is recomputed from history and rollups are written immediately.
+   *
+   * @return false, if build with same number was already stored or if its day was already compacted,
+   *         in this case given build is ignored
+   */
+  public synchronized boolean append(String job, Build build) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create directory: " + directory);
+    }
+    BuildHistory history = getHistory(job);
+    Rollups cached = getCachedRollups(job, history);
+    BuildRollups rollups = cached.rollups;
+    long day = BuildRollups.getDay(build.getTimestamp());
+    // Duplicates can't be detected after compaction
+    if (day < rollups.getCompactedBefore()) {
+      return false;
+    }
+    if (rollups.isAfterLast(build.getNumber())) {
+      history.append(build);
+      rollups.add(build.getNumber(), build.getTimestamp(), build.isSuccessful(), build.isStable(), build.getDuration());
+      cached.unsaved++;
+      if (cached.unsaved >= WRITE_INTERVAL) {
+        write(job, cached);
+      }
+      return true;
+    }
+    if (contains(history.open(), build.getNumber())) {
+      return false;
+    }
+    history.append(build);
+    rollups.setDay(day, aggregateDay(history.open(), day));
+    // Recomputed day can't be restored from the end of history
+    write(job, cached);
+    return true;
+  }
+
+  /**
+   * Writes rollups, which have builds appended since last write.
+   */
+  public synchronized void flush() throws IOException {
+    for (Map.Entry<String, Rollups> entry : rollupsByJob.entrySet()) {
+      if (entry.getValue().unsaved > 0) {
+        write(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * @return builds of given job ordered by number
+   */
+  public synchronized List<Build> getBuilds(String job) throws IOException {
+    BuildHistory.Records records = getHistory(job).open();
+    List<Build> builds = new ArrayList<Build>();
+    for (int index : getOrder(records)) {
+      builds.add(records.getBuild(index));
+    }
+    return builds;
+  }
+
+  /**
+   * Same as {@link org.sonar.plugins.buildstability.ci.CiConnector#getBuildsSince(Date)}:
+   * builds are ordered from last to first and include first build, which is not after given date.
+   * Only returned builds are decoded.
+   */
+  public synchronized BuildSeries getBuildsSince(String job, Date date) throws IOException {
+    BuildHistory.Records records = getHistory(job).open();
+    int[] indexes = getOrder(records);
+    List<Build> builds = new ArrayList<Build>();
+    for (int i = indexes.length - 1; i >= 0; i--) {
+      int index = indexes[i];
+      builds.add(records.getBuild(index));
+      if (date.getTime() >= records.getTimestamp(index)) {
+        break;
+      }
+    }
+    return new BuildSeries(builds, BuildSeries.Order.DESCENDING);
+  }
+
+  /**
+   * Only builds appended after last write of rollups are read from history.
+   *
+   * @return daily rollups of all builds of given job, including compacted ones
+   */
+  public synchronized BuildRollups getRollups(String job) throws IOException {
+    Rollups cached = rollupsByJob.get(job);
+    if (cached != null) {
+      return cached.rollups.copy();
+    }
+    return readRollups(job, getHistory(job));
+  }
+
+  /**
+   * Removes from history builds of all jobs, which were started before day of given date.
+   * Store is locked for one job at a time, so builds can be appended during compaction.
+   *
+   * @return number of compacted builds
+   */
+  public int compact(Date before) throws IOException {
+    int compacted = 0;
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return 0;
+    }
+    for (File file : files) {
+      if (file.getName().endsWith(RECORDS_EXTENSION)) {
+        compacted += compact(StringUtils.removeEnd(file.getName(), RECORDS_EXTENSION), before);
+      }
+    }
+    return compacted;
+  }
+
+  /**
+   * Removes from history builds of given job, which were started before day of given date.
+   * They are already in rollups, so only whole days are compacted and rollups of these days are not changed anymore.
+   * Compaction stops on first build, which is not before that day, so order of builds is preserved.
+   *
+   * @return number of compacted builds
+   */
+  public synchronized int compact(String job, Date before) throws IOException {
+    long day = BuildRollups.getDay(before.getTime());
+    BuildHistory.Records records = getHistory(job).open();
+    int[] indexes = getOrder(records);
+    int compacted = 0;
+    while (compacted < indexes.length && records.getTimestamp(indexes[compacted]) < day) {
+      compacted++;
+    }
+    if (compacted == 0) {
+      return 0;
+    }
+    BuildHistory history = getHistory(job);
+    Rollups cached = getCachedRollups(job, history);
+    cached.rollups.setCompactedBefore(day);
+    write(job, cached);
+
+    // Names table is append-only, so it is shared with compacted history
+    BuildHistory temp = new BuildHistory(
+        new File(directory, history.getRecordsFile().getName() + TEMP_SUFFIX),
+        new File(directory, history.getStringsFile().getName() + TEMP_SUFFIX),
+        history.getNamesFile());
+    temp.getRecordsFile().delete();
+    temp.getStringsFile().delete();
+    for (int i = compacted; i < indexes.length; i++) {
+      temp.append(records.getBuild(indexes[i]));
+    }
+    replace(temp.getStringsFile(), history.getStringsFile());
+    replace(temp.getRecordsFile(), history.getRecordsFile());
+    return compacted;
+  }
+
+  private Rollups getCachedRollups(String job, BuildHistory history) throws IOException {
+    Rollups cached = rollupsByJob.get(job);
+    if (cached == null) {
+      cached = new Rollups(readRollups(job, history));
+      rollupsByJob.put(job, cached);
+    }
+    return cached;
+  }
+
+  /**
+   * Builds are written to history before rollups, so builds after last number of written rollups are missing in them.
+   * Builds appended out of order cause immediate write, so missing builds are always at the end of history.
+   */
+  private BuildRollups readRollups(String job, BuildHistory history) throws IOException {
+    BuildRollups rollups = BuildRollups.read(getRollupsFile(job));
+    BuildHistory.Records records = history.open();
+    int from = records.size();
+    while (from > 0 && rollups.isAfterLast(records.getNumber(from - 1))) {
+      from--;
+    }
+    for (int index = from; index < records.size(); index++) {
+      rollups.add(records.getNumber(index), records.getTimestamp(index), records.isSuccessful(index), records.isStable(index), records.getDuration(index));
+    }
+    return rollups;
+  }
+
+  private void write(String job, Rollups cached) throws IOException {
+    File file = getRollupsFile(job);
+    File temp = new File(directory, file.getName() + TEMP_SUFFIX);
+    cached.rollups.write(temp);
+    replace(temp, file);
+    cached.unsaved = 0;
+  }
+
+  private static BuildAccumulator aggregateDay(BuildHistory.Records records, long day) {
+    BuildAccumulator accumulator = new BuildAccumulator();
+    for (int index : getOrder(records)) {
+      long timestamp = records.getTimestamp(index);
+      if (BuildRollups.getDay(timestamp) == day) {
+        accumulator.add(records.getNumber(index), timestamp, records.isSuccessful(index), records.isStable(index), records.getDuration(index));
+      }
+    }
+    return accumulator;
+  }
+
+  private static void replace(File source, File target) throws IOException {
+    if (!source.exists()) {
+      // Nothing left
+      target.delete();
+      return;
+    }
+    if ((target.exists() && !target.delete()) || !source.renameTo(target)) {
+      throw new IOException("Unable to replace " + target + " by " + source);
+    }
+  }
+
+  /**
+   * Scans from the end, because duplicates usually follow original build closely
+   * (Notification Plugin sends both COMPLETED and FINALIZED notifications).
+   */
+  private static boolean contains(BuildHistory.Records records, int number) {
+    for (int index = records.size() - 1; index >= 0; index--) {
+      if (records.getNumber(index) == number) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Builds are usually appended in order of numbers, so usually single scan without sorting is enough.
+   * Histories written before duplicates were rejected on append may contain same number several times,
+   * in this case first record wins.
+   *
+   * @return indexes of records ordered by build number
+   */
+  private static int[] getOrder(BuildHistory.Records records) {
+    int size = records.size();
+    int[] order = new int[size];
+    boolean ordered = true;
+    for (int index = 0; index < size; index++) {
+      order[index] = index;
+      if (index > 0 && records.getNumber(index - 1) >= records.getNumber(index)) {
+        ordered = false;
+      }
+    }
+    if (ordered) {
+      return order;
+    }
+    // Number in high bits and index in low bits, so sorting keeps first record of each number first
+    long[] keys = new long[size];
+    for (int index = 0; index < size; index++) {
+      keys[index] = ((long) records.getNumber(index) << 32) | index;
+    }
+    Arrays.sort(keys);
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      if (i == 0 || (int) (keys[i] >> 32) != (int) (keys[i - 1] >> 32)) {
+        order[count++] = (int) keys[i];
+      }
+    }
+    if (count == size) {
+      return order;
+    }
+    int[] unique = new int[count];
+    System.arraycopy(order, 0, unique, 0, count);
+    return unique;
+  }
+
+  private BuildHistory getHistory(String job) {
+    BuildHistory history = histories.get(job);
+    if (history == null) {
+      String name = getFileName(job);
+      history = new BuildHistory(new File(directory, name + RECORDS_EXTENSION), new File(directory, name + STRINGS_EXTENSION),
+          new File(directory, name + NAMES_EXTENSION));
+      histories.put(job, history);
+    }
+    return history;
+  }
+
+  private File getRollupsFile(String job) {
+    return new File(directory, getFileName(job) + ROLLUPS_EXTENSION);
+  }
+
+  private static String getFileName(String job) {
+    return job.replaceAll("[^\\w.-]", "_");
+  }
+
+  private static class Rollups {
+    private final BuildRollups rollups;
+    /**
+     * Number of builds added since last write.
+     */
+    private int unsaved;
+
+    Rollups(BuildRollups rollups) {
+      this.rollups = rollups;
+    }
+  }
+}
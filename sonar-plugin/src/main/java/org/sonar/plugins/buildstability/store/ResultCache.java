@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.store;
+
+import org.apache.commons.lang.StringUtils;
+import org.sonar.api.batch.Event;
+import org.sonar.api.measures.Metric;
+import org.sonar.plugins.buildstability.Build;
+import org.sonar.plugins.buildstability.BuildStabilityMeasures;
+import org.sonar.plugins.buildstability.BuildStabilityMetrics;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Results of previous analyses, which are kept between analyses in one file per key.
+ * Result can be reused, while last build of CI job is the same (same number, result and duration)
+ * and time-dependent measures are not expired, see {@link BuildStabilityMeasures#getExpiry()}.
+ */
+public class ResultCache {
+  private static final String EXTENSION = ".results";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private static final String KEY = "key";
+  private static final String LAST_BUILD = "lastBuild";
+  private static final String EXPIRY = "expiry";
+  private static final String METRICS = "metrics";
+  private static final String EVENTS = "events";
+  private static final String VALUE_PREFIX = "value.";
+  private static final String DATA_PREFIX = "data.";
+  private static final String EVENT_PREFIX = "event.";
+
+  private final File directory;
+
+  public ResultCache(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * @return cached measures or null, if there is no valid results for given key and last build
+   */
+  public synchronized BuildStabilityMeasures get(String key, Build lastBuild, long now) throws IOException {
+    File file = getFile(key);
+    if (!file.isFile()) {
+      return null;
+    }
+    Properties properties = new Properties();
+    InputStream in = new FileInputStream(file);
+    try {
+      properties.load(in);
+    } finally {
+      in.close();
+    }
+    if (!key.equals(properties.getProperty(KEY)) || !getFingerprint(lastBuild).equals(properties.getProperty(LAST_BUILD))) {
+      return null;
+    }
+    long expiry = Long.parseLong(properties.getProperty(EXPIRY));
+    if (now >= expiry) {
+      return null;
+    }
+    return toMeasures(properties).expireAt(expiry);
+  }
+
+  public synchronized void put(String key, Build lastBuild, BuildStabilityMeasures measures) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create directory: " + directory);
+    }
+    Properties properties = toProperties(measures);
+    properties.setProperty(KEY, key);
+    properties.setProperty(LAST_BUILD, getFingerprint(lastBuild));
+    properties.setProperty(EXPIRY, String.valueOf(measures.getExpiry()));
+
+    File file = getFile(key);
+    File temp = new File(directory, file.getName() + TEMP_SUFFIX);
+    OutputStream out = new FileOutputStream(temp);
+    try {
+      properties.store(out, null);
+    } finally {
+      out.close();
+    }
+    if ((file.exists() && !file.delete()) || !temp.renameTo(file)) {
+      throw new IOException("Unable to replace " + file + " by " + temp);
+    }
+  }
+
+  /**
+   * Key can contain URL, so it is stored inside of file, which is named by hash of key.
+   */
+  private File getFile(String key) {
+    return new File(directory, Integer.toHexString(key.hashCode()) + EXTENSION);
+  }
+
+  /**
+   * Result and duration of last build change, when it completes.
+   */
+  private static String getFingerprint(Build build) {
+    return build.getNumber() + "|" + build.getResult() + "|" + build.getDuration();
+  }
+
+  private static Properties toProperties(BuildStabilityMeasures measures) {
+    Properties properties = new Properties();
+    List<String> keys = new ArrayList<String>();
+    for (Metric metric : measures.getMetrics()) {
+      keys.add(metric.getKey());
+      Double value = measures.getValue(metric);
+      if (value != null) {
+        properties.setProperty(VALUE_PREFIX + metric.getKey(), String.valueOf(value));
+      } else if (measures.getData(metric) != null) {
+        properties.setProperty(DATA_PREFIX + metric.getKey(), measures.getData(metric));
+      }
+    }
+    properties.setProperty(METRICS, StringUtils.join(keys, ','));
+    List<Event> events = measures.getEvents();
+    properties.setProperty(EVENTS, String.valueOf(events.size()));
+    for (int i = 0; i < events.size(); i++) {
+      Event event = events.get(i);
+      properties.setProperty(EVENT_PREFIX + i + ".name", event.getName());
+      properties.setProperty(EVENT_PREFIX + i + ".description", event.getDescription());
+      properties.setProperty(EVENT_PREFIX + i + ".category", event.getCategory());
+      properties.setProperty(EVENT_PREFIX + i + ".date", String.valueOf(event.getDate().getTime()));
+    }
+    return properties;
+  }
+
+  private static BuildStabilityMeasures toMeasures(Properties properties) {
+    Map<String, Metric> metrics = new HashMap<String, Metric>();
+    for (Metric metric : new BuildStabilityMetrics().getMetrics()) {
+      metrics.put(metric.getKey(), metric);
+    }
+    BuildStabilityMeasures measures = new BuildStabilityMeasures();
+    for (String key : StringUtils.split(properties.getProperty(METRICS), ',')) {
+      Metric metric = metrics.get(key);
+      if (metric == null) {
+        // Metric was removed since previous analysis
+        continue;
+      }
+      String value = properties.getProperty(VALUE_PREFIX + key);
+      if (value != null) {
+        measures.add(metric, Double.parseDouble(value));
+      } else {
+        measures.add(metric, properties.getProperty(DATA_PREFIX + key));
+      }
+    }
+    int events = Integer.parseInt(properties.getProperty(EVENTS));
+    for (int i = 0; i < events; i++) {
+      measures.addEvent(
+          properties.getProperty(EVENT_PREFIX + i + ".name"),
+          properties.getProperty(EVENT_PREFIX + i + ".description"),
+          properties.getProperty(EVENT_PREFIX + i + ".category"),
+          new Date(Long.parseLong(properties.getProperty(EVENT_PREFIX + i + ".date"))));
+    }
+    return measures;
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class BuildAccumulatorTest {
+  @Test
+  public void combinedChunksShouldGiveSameResultAsSequentialAggregation() throws Exception {
+    List<Build> builds = createBuilds(200);
+    BuildAccumulator expected = BuildAccumulator.aggregate(builds);
+
+    for (int split = 0; split <= builds.size(); split++) {
+      BuildAccumulator actual = BuildAccumulator.aggregate(builds.subList(0, split))
+          .combine(BuildAccumulator.aggregate(builds.subList(split, builds.size())));
+      assertEquals(actual, expected);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      for (int chunks = 1; chunks <= 50; chunks++) {
+        assertEquals(BuildAccumulator.aggregate(builds, executor, chunks), expected);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void shouldCountFixSpanningChunks() throws Exception {
+    BuildAccumulator first = new BuildAccumulator()
+        .add(1, 0, true, true, 10)
+        .add(2, 100, false, false, 10);
+    BuildAccumulator second = new BuildAccumulator()
+        .add(3, 200, false, false, 10)
+        .add(4, 400, true, true, 10);
+
+    BuildAccumulator result = first.combine(second);
+
+    assertThat(result.getFixes(), is(1));
+    assertThat(result.getTotalTimeToFix(), is(300.0));
+    assertThat(result.getTotalBuildsToFix(), is(2.0));
+  }
+
+  @Test
+  public void restoredChunksShouldCombineAsOriginal() throws Exception {
+    List<Build> builds = createBuilds(200);
+    BuildAccumulator expected = BuildAccumulator.aggregate(builds);
+
+    for (int split = 0; split <= builds.size(); split += 7) {
+      BuildAccumulator actual = BuildAccumulator.fromString(BuildAccumulator.aggregate(builds.subList(0, split)).convertToString())
+          .combine(BuildAccumulator.fromString(BuildAccumulator.aggregate(builds.subList(split, builds.size())).convertToString()));
+      assertEquals(actual, expected);
+    }
+  }
+
+  @Test
+  public void shouldEstimateQuantilesOfDurations() throws Exception {
+    BuildAccumulator accumulator = new BuildAccumulator();
+    for (int i = 1; i <= 100; i++) {
+      accumulator.add(i, i, true, true, i * 1000);
+    }
+    accumulator.add(101, 101, false, false, 1000000);
+
+    assertThat(Math.abs(accumulator.getDurationQuantile(0.5) / 50000 - 1) < BuildAccumulator.BUCKET_BASE - 1, is(true));
+    assertThat(Math.abs(accumulator.getDurationQuantile(0.9) / 90000 - 1) < BuildAccumulator.BUCKET_BASE - 1, is(true));
+    assertThat(accumulator.getDurationQuantile(0), is(1000.0));
+    assertThat(accumulator.getDurationQuantile(1), is(100000.0));
+    assertThat(new BuildAccumulator().getDurationQuantile(0.5), is(0.0));
+  }
+
+  private static List<Build> createBuilds(int count) {
+    Random random = new Random(42);
+    List<Build> builds = new ArrayList<Build>();
+    for (int i = 1; i <= count; i++) {
+      boolean successful = random.nextInt(3) != 0;
+      boolean stable = !successful || random.nextInt(3) != 0;
+      builds.add(new Build(i, i * 1000L + random.nextInt(500), "", stable, successful, random.nextInt(10000)));
+    }
+    return builds;
+  }
+
+  private static void assertEquals(BuildAccumulator actual, BuildAccumulator expected) {
+    assertThat(actual.getCount(), is(expected.getCount()));
+    assertThat(actual.getSuccessful(), is(expected.getSuccessful()));
+    assertThat(actual.getUnstable(), is(expected.getUnstable()));
+    assertThat(actual.getDuration(), is(expected.getDuration()));
+    assertThat(actual.getShortestDuration(), is(expected.getShortestDuration()));
+    assertThat(actual.getLongestDuration(), is(expected.getLongestDuration()));
+    assertThat(actual.getDurationQuantile(0.5), is(expected.getDurationQuantile(0.5)));
+    assertThat(actual.getDurationQuantile(0.9), is(expected.getDurationQuantile(0.9)));
+    assertThat(actual.getFixes(), is(expected.getFixes()));
+    assertThat(actual.getTotalTimeToFix(), is(expected.getTotalTimeToFix()));
+    assertThat(actual.getTotalBuildsToFix(), is(expected.getTotalBuildsToFix()));
+    assertThat(actual.getLongestTimeToFix(), is(expected.getLongestTimeToFix()));
+    assertThat(actual.getStabilizations(), is(expected.getStabilizations()));
+    assertThat(actual.getTotalTimeToStabilize(), is(expected.getTotalTimeToStabilize()));
+    assertThat(actual.getTotalBuildsToStabilize(), is(expected.getTotalBuildsToStabilize()));
+    assertThat(actual.getLongestTimeToStabilize(), is(expected.getLongestTimeToStabilize()));
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class BuildSeriesTest {
+  @Test
+  public void shouldDetectOrder() throws Exception {
+    assertThat(BuildSeries.getOrder(builds(1, 2, 2, 5)), is(BuildSeries.Order.ASCENDING));
+    assertThat(BuildSeries.getOrder(builds(5, 3, 1)), is(BuildSeries.Order.DESCENDING));
+    assertThat(BuildSeries.getOrder(builds(3, 1, 2)), is(BuildSeries.Order.UNORDERED));
+    assertThat(BuildSeries.getOrder(builds()), is(BuildSeries.Order.ASCENDING));
+  }
+
+  @Test
+  public void shouldReturnBuildsInAscendingOrder() throws Exception {
+    assertThat(numbers(BuildSeries.ascending(builds(1, 2, 3))), is("1,2,3"));
+    assertThat(numbers(BuildSeries.ascending(builds(3, 2, 1))), is("1,2,3"));
+    assertThat(numbers(BuildSeries.ascending(builds(2, 3, 1, -1))), is("-1,1,2,3"));
+    assertThat(numbers(new BuildSeries(builds(9, 4), BuildSeries.Order.DESCENDING).ascending()), is("4,9"));
+  }
+
+  @Test
+  public void sortShouldBeStable() throws Exception {
+    List<Build> builds = builds(2, 1, 2);
+    List<Build> sorted = BuildSeries.ascending(builds);
+    assertThat(sorted.get(1) == builds.get(0), is(true));
+    assertThat(sorted.get(2) == builds.get(2), is(true));
+  }
+
+  private static List<Build> builds(int... numbers) {
+    Build[] builds = new Build[numbers.length];
+    for (int i = 0; i < numbers.length; i++) {
+      builds[i] = new Build(numbers[i], 0, "", true, true, 0);
+    }
+    return Arrays.asList(builds);
+  }
+
+  private static String numbers(List<Build> builds) {
+    StringBuilder sb = new StringBuilder();
+    for (Build build : builds) {
+      if (sb.length() > 0) {
+        sb.append(',');
+      }
+      sb.append(build.getNumber());
+    }
+    return sb.toString();
+  }
+}
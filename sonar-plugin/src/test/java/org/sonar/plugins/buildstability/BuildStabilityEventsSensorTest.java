@@ -16,17 +16,20 @@
 
 package org.sonar.plugins.buildstability;
 
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.configuration.Configuration;
 import org.junit.Before;
 import org.junit.Test;
-import org.sonar.api.batch.Event;
 import org.sonar.api.batch.SensorContext;
 import org.sonar.api.resources.Project;
-
-import java.util.Arrays;
+import org.sonar.api.test.IsMeasure;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.argThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 /**
@@ -40,18 +43,48 @@ public class BuildStabilityEventsSensorTest {
   public void setUp() {
     project = mock(Project.class);
     context = mock(SensorContext.class);
+    BuildStabilityResults.clear();
+  }
+
+  @Test
+  public void shouldReuseSharedResults() throws Exception {
+    Configuration configuration = new BaseConfiguration();
+    configuration.setProperty(BuildStabilitySensor.CI_URL_PROPERTY, "Hudson:http://localhost/job/sonar/");
+    when(project.getConfiguration()).thenReturn(configuration);
+    BuildStabilityEventsSensor sensor = new BuildStabilityEventsSensor();
+    BuildStabilityResults.put(
+        sensor.getResultsKey(project, "Hudson:http://localhost/job/sonar/"),
+        new BuildStabilityMeasures().add(BuildStabilityMetrics.BUILDS, 3.0)
+    );
+
+    sensor.analyse(project, context);
+    SensorContext otherContext = mock(SensorContext.class);
+    sensor.analyse(project, otherContext);
+
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.BUILDS, 3.0)));
+    verifyNoMoreInteractions(context);
+    verify(otherContext).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.BUILDS, 3.0)));
   }
 
   @Test
-  public void doNotTouchOtherCategories() throws Exception {
-    Event build = new Event("Build", "Description", BuildStabilityEventsSensor.CATEGORY_BUILD, null);
-    build.setData(new Build(1, 0, "ok", true, true, 60).convertToString());
-    when(context.getEvents(project)).thenReturn(Arrays.asList(
-        new Event("0.1-SNAPSHOT", "Description", Event.CATEGORY_VERSION, null),
-        new Event("Alert", "Description", Event.CATEGORY_ALERT, null),
-        build
-    ));
-
-    assertThat(BuildStabilityEventsSensor.getBuildsFromEvents(project, context).size(), is(1));
+  public void shouldNotShareResultsBetweenDifferentSettings() throws Exception {
+    Configuration configuration = new BaseConfiguration();
+    when(project.getConfiguration()).thenReturn(configuration);
+    BuildStabilityEventsSensor sensor = new BuildStabilityEventsSensor();
+    String key = sensor.getResultsKey(project, "Hudson:http://localhost/job/sonar/");
+
+    for (String property : new String[]{BuildStabilitySensor.STAGES_PROPERTY, BuildStabilitySensor.TESTS_PROPERTY, BuildStabilitySensor.USE_JSON_API_PROPERTY}) {
+      configuration.setProperty(property, true);
+      assertThat(sensor.getResultsKey(project, "Hudson:http://localhost/job/sonar/").equals(key), is(false));
+      configuration.clearProperty(property);
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void sharedResultsShouldBeFrozen() throws Exception {
+    BuildStabilityMeasures measures = new BuildStabilityMeasures();
+    BuildStabilityResults.put("key", measures);
+
+    BuildStabilityResults.get("key").add(BuildStabilityMetrics.BUILDS, 1.0);
   }
 }
@@ -25,12 +25,21 @@ import org.junit.Before;
 import org.junit.Test;
 import org.sonar.api.batch.SensorContext;
 import org.sonar.api.measures.Measure;
+import org.sonar.api.measures.Metric;
 import org.sonar.api.resources.Project;
 import org.sonar.api.test.IsMeasure;
+import org.sonar.plugins.buildstability.ci.FetchStatistics;
+import org.sonar.plugins.buildstability.store.BuildStore;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.*;
@@ -110,9 +119,23 @@ public class BuildStabilitySensorTest {
     verify(context).saveMeasure(argThat((new IsMeasure(BuildStabilityMetrics.FAILED, 1.0))));
     verify(context).saveMeasure(argThat((new IsMeasure(BuildStabilityMetrics.UNSTABLE, 1.0))));
     verify(context).saveMeasure(argThat((new IsMeasure(BuildStabilityMetrics.SUCCESS_RATE, 50.0))));
+    verify(context).saveMeasure(argThat((new IsMeasure(BuildStabilityMetrics.SUCCESS_RATE_DAY, 0.0))));
+    verify(context).saveMeasure(argThat((new IsMeasure(BuildStabilityMetrics.SUCCESS_RATE_WEEK, 0.0))));
+    verify(context).saveMeasure(argThat((new IsMeasure(BuildStabilityMetrics.SUCCESS_RATE_MONTH, 0.0))));
+    verify(context).saveMeasure(argThat((new IsMeasure(BuildStabilityMetrics.DECAYED_SUCCESS_RATE, 50.0))));
+
+    verify(context).saveMeasure(argThat((new IsMeasure(BuildStabilityMetrics.FLAKY_ALTERNATIONS, 2.0))));
+    verify(context).saveMeasure(argThat((new IsMeasure(BuildStabilityMetrics.FLAKY_RERUN_PASSES, 0.0))));
+    verify(context).saveMeasure(argThat((new IsMeasure(BuildStabilityMetrics.FLIP_RATE, 66.7))));
+    verify(context).saveMeasure(argThat((new IsMeasure(BuildStabilityMetrics.MAX_FLIP_RATE, 66.7))));
+
+    verify(context).saveMeasure(argThat((new IsMeasure(BuildStabilityMetrics.DURATION_CHANGE_BUILD, 0.0))));
+    verify(context).saveMeasure(argThat((new IsMeasure(BuildStabilityMetrics.DURATION_CHANGE, 0.0))));
 
     verify(context).saveMeasure(argThat((new IsMeasure(BuildStabilityMetrics.AVG_DURATION, 6.0))));
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.SHORTEST_DURATION, 3.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.MEDIAN_DURATION, 4.8)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.P90_DURATION, 10.0)));
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.LONGEST_DURATION, 10.0)));
 
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.AVG_TIME_TO_FIX, 9.0)));
@@ -123,6 +146,8 @@ public class BuildStabilitySensorTest {
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.LONGEST_TIME_TO_STABILIZE, 10.0)));
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.AVG_BUILDS_TO_STABILIZE, 1.0)));
 
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.UPSTREAM_CULPRITS, "project-one=1,1,0")));
+
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.DURATIONS, "1=0.01;2=0.0040;3=0.0030;4=0.0050")));
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.RESULTS, "1=g;2=r;3=y;4=g")));
 
@@ -149,9 +174,23 @@ public class BuildStabilitySensorTest {
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.FAILED, 1.0)));
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.UNSTABLE, 0.0)));
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.SUCCESS_RATE, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.SUCCESS_RATE_DAY, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.SUCCESS_RATE_WEEK, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.SUCCESS_RATE_MONTH, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.DECAYED_SUCCESS_RATE, 0.0)));
+
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.FLAKY_ALTERNATIONS, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.FLAKY_RERUN_PASSES, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.FLIP_RATE, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.MAX_FLIP_RATE, 0.0)));
+
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.DURATION_CHANGE_BUILD, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.DURATION_CHANGE, 0.0)));
 
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.AVG_DURATION, 0.0)));
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.SHORTEST_DURATION, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.MEDIAN_DURATION, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.P90_DURATION, 0.0)));
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.LONGEST_DURATION, 0.0)));
 
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.AVG_TIME_TO_FIX, 0.0)));
@@ -188,9 +227,23 @@ public class BuildStabilitySensorTest {
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.FAILED, 0.0)));
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.UNSTABLE, 0.0)));
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.SUCCESS_RATE, 100.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.SUCCESS_RATE_DAY, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.SUCCESS_RATE_WEEK, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.SUCCESS_RATE_MONTH, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.DECAYED_SUCCESS_RATE, 100.0)));
+
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.FLAKY_ALTERNATIONS, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.FLAKY_RERUN_PASSES, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.FLIP_RATE, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.MAX_FLIP_RATE, 0.0)));
+
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.DURATION_CHANGE_BUILD, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.DURATION_CHANGE, 0.0)));
 
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.AVG_DURATION, 10.0)));
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.SHORTEST_DURATION, 10.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.MEDIAN_DURATION, 10.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.P90_DURATION, 10.0)));
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.LONGEST_DURATION, 10.0)));
 
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.AVG_TIME_TO_FIX, 0.0)));
@@ -218,9 +271,23 @@ public class BuildStabilitySensorTest {
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.FAILED, 0.0)));
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.UNSTABLE, 0.0)));
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.SUCCESS_RATE, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.SUCCESS_RATE_DAY, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.SUCCESS_RATE_WEEK, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.SUCCESS_RATE_MONTH, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.DECAYED_SUCCESS_RATE, 0.0)));
+
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.FLAKY_ALTERNATIONS, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.FLAKY_RERUN_PASSES, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.FLIP_RATE, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.MAX_FLIP_RATE, 0.0)));
+
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.DURATION_CHANGE_BUILD, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.DURATION_CHANGE, 0.0)));
 
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.AVG_DURATION, 0.0)));
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.SHORTEST_DURATION, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.MEDIAN_DURATION, 0.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.P90_DURATION, 0.0)));
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.LONGEST_DURATION, 0.0)));
 
     verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.AVG_TIME_TO_STABILIZE, 0.0)));
@@ -233,4 +300,202 @@ public class BuildStabilitySensorTest {
 
     verifyNoMoreInteractions(context);
   }
+
+  @Test
+  public void testSaveStatistics() throws Exception {
+    SensorContext context = mock(SensorContext.class);
+    FetchStatistics statistics = new FetchStatistics();
+    statistics.addTime(1500);
+    statistics.addRequest(1024);
+    statistics.addRequest(512);
+
+    sensor.saveStatistics(statistics, context);
+
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.FETCH_TIME, 1500.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.FETCH_REQUESTS, 2.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.FETCH_BYTES, 1536.0)));
+
+    verifyNoMoreInteractions(context);
+  }
+
+  @Test
+  public void testSaveStatisticsOfSharedBuilds() throws Exception {
+    SensorContext context = mock(SensorContext.class);
+    FetchStatistics statistics = new FetchStatistics();
+    statistics.setSharing(true);
+    statistics.addCachedBuild();
+
+    sensor.saveStatistics(statistics, context);
+
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.FETCH_CACHED_BUILDS, 1.0)));
+  }
+
+  @Test
+  public void testQueueTime() throws Exception {
+    List<Build> builds = new ArrayList<Build>();
+    for (int i = 1; i <= 10; i++) {
+      builds.add(new Build(i, i * 1000L, "Fake", true, true, 10).setQueueDuration(i * 1000.0));
+    }
+    builds.add(new Build(11, 11000, "Fake", true, true, 10));
+
+    BuildStabilityMeasures measures = sensor.computeMeasures(builds);
+
+    assertThat(measures.getValue(BuildStabilityMetrics.AVG_QUEUE_TIME), is(5500.0));
+    assertThat(measures.getValue(BuildStabilityMetrics.P90_QUEUE_TIME), is(9000.0));
+
+    measures = sensor.computeMeasures(builds.subList(10, 11));
+    assertThat(measures.getMetrics().contains(BuildStabilityMetrics.AVG_QUEUE_TIME), is(false));
+    assertThat(measures.getMetrics().contains(BuildStabilityMetrics.P90_QUEUE_TIME), is(false));
+  }
+
+  @Test
+  public void testCulprits() throws Exception {
+    List<Build> builds = Arrays.asList(
+        new Build(1, 0, "Fake", true, true, 10),
+        new Build(2, 60000, "Fake", false, false, 10).setDevelopers("alice").setCauseProject("core"),
+        new Build(3, 180000, "Fake", true, true, 10).setDevelopers("bob")
+    );
+
+    BuildStabilityMeasures measures = sensor.computeMeasures(builds);
+
+    assertThat(measures.getData(BuildStabilityMetrics.DEVELOPER_CULPRITS), is("alice=1,1,120"));
+    assertThat(measures.getData(BuildStabilityMetrics.UPSTREAM_CULPRITS), is("core=1,1,120"));
+  }
+
+  @Test
+  public void testStages() throws Exception {
+    Map<String, Double> first = new LinkedHashMap<String, Double>();
+    first.put("Build", 60000.0);
+    first.put("Test", 120000.0);
+    Map<String, Double> second = new LinkedHashMap<String, Double>();
+    second.put("Build", 30000.0);
+    List<Build> builds = Arrays.asList(
+        new Build(1, 1000, "Fake", true, true, 10).setStageDurations(first),
+        new Build(2, 2000, "Fake", true, true, 10).setStageDurations(second),
+        new Build(3, 3000, "Fake", true, true, 10)
+    );
+
+    BuildStabilityMeasures measures = sensor.computeMeasures(builds);
+
+    assertThat(measures.getData(BuildStabilityMetrics.STAGE_AVG_DURATIONS), is("Build=45.0;Test=120.0"));
+    assertThat(measures.getData(BuildStabilityMetrics.STAGE_LONGEST_DURATIONS), is("Build=60.0;Test=120.0"));
+    assertThat(sensor.computeMeasures(builds.subList(2, 3)).getMetrics().contains(BuildStabilityMetrics.STAGE_AVG_DURATIONS), is(false));
+  }
+
+  @Test
+  public void testTests() throws Exception {
+    TestStatistics tests = new TestStatistics();
+    tests.add("Slow=Test", 60000, false);
+    tests.add("Flaky", 1000, false);
+    tests.add("Flaky", 1000, true);
+    BuildStabilityMeasures measures = new BuildStabilityMeasures();
+
+    sensor.addTestMeasures(measures, tests);
+
+    assertThat(measures.getData(BuildStabilityMetrics.SLOWEST_TESTS), is("Flaky=1.0;Slow Test=60.0"));
+    assertThat(measures.getData(BuildStabilityMetrics.FLAKY_TESTS), is("Flaky=1"));
+  }
+
+  @Test
+  public void testWindowedSuccessRates() throws Exception {
+    final long day = 24L * 60 * 60 * 1000;
+    final long now = 100 * day;
+    sensor = new BuildStabilitySensor() {
+      @Override
+      protected long getCurrentTime() {
+        return now;
+      }
+    };
+    List<Build> builds = Arrays.asList(
+        new Build(1, now - 20 * day, "Fake", true, true, 10),
+        new Build(2, now - 3 * day, "Fake", false, false, 10),
+        new Build(3, now - 2 * day, "Fake", true, true, 10),
+        new Build(4, now - day / 2, "Fake", true, true, 10),
+        new Build(5, now - day / 4, "Fake", false, false, 10)
+    );
+
+    BuildStabilityMeasures measures = sensor.computeMeasures(builds);
+
+    assertThat(measures.getValue(BuildStabilityMetrics.SUCCESS_RATE_DAY), is(50.0));
+    assertThat(measures.getValue(BuildStabilityMetrics.SUCCESS_RATE_WEEK), is(50.0));
+    assertThat(measures.getValue(BuildStabilityMetrics.SUCCESS_RATE_MONTH), is(60.0));
+    // Old successful build weighs less, than recent failed ones
+    double decayed = measures.getValue(BuildStabilityMetrics.DECAYED_SUCCESS_RATE);
+    assertThat(decayed > 50.0 && decayed < 60.0, is(true));
+    // Build 4 leaves day window first
+    assertThat(measures.getExpiry(), is(now + day / 2));
+  }
+
+  @Test
+  public void shouldNotDecodeBuildsAwayFromFailures() throws Exception {
+    File directory = new File("target/test-tmp/BuildStabilitySensorTest-lazy");
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    BuildStore store = new BuildStore(directory);
+    boolean[] passed = {true, true, false, true, true, true};
+    for (int i = 0; i < passed.length; i++) {
+      store.append("job", new Build(i + 1, (i + 1) * 1000, "", passed[i], passed[i], 10).setCauseProject("core").setCauseProjectBuild("1"));
+    }
+    List<Build> builds = store.getBuilds("job");
+
+    BuildStabilityMeasures measures = sensor.computeMeasures(builds);
+
+    assertThat(measures.getValue(BuildStabilityMetrics.FLAKY_RERUN_PASSES), is(1.0));
+    assertThat(((LazyBuild) builds.get(0)).isDecoded(), is(false));
+    assertThat(((LazyBuild) builds.get(1)).isDecoded(), is(false));
+    assertThat(((LazyBuild) builds.get(4)).isDecoded(), is(false));
+    assertThat(((LazyBuild) builds.get(5)).isDecoded(), is(true));
+  }
+
+  @Test
+  public void storeShouldGiveSameMeasuresAsCiServer() throws Exception {
+    final long day = 24L * 60 * 60 * 1000;
+    sensor = new BuildStabilitySensor() {
+      @Override
+      protected long getCurrentTime() {
+        return 10 * day;
+      }
+    };
+    File directory = new File("target/test-tmp/BuildStabilitySensorTest");
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    BuildStore store = new BuildStore(directory);
+    List<Build> builds = new ArrayList<Build>();
+    Random random = new Random(42);
+    for (int i = 1; i <= 60; i++) {
+      boolean successful = random.nextInt(3) != 0;
+      Build build = new Build(i, i * day / 6, "", random.nextInt(3) != 0, successful, 1 + random.nextInt(10000));
+      builds.add(build);
+      store.append("sonar", build);
+    }
+    // Rollups of compacted days are used only outside of period
+    store.compact("sonar", new Date(day + day / 2));
+
+    for (long since : new long[]{2 * day + 1000, 4 * day + day / 6, 9 * day + 5}) {
+      // CI server returns builds after given date and first build, which is not after it
+      List<Build> retrieved = new ArrayList<Build>();
+      for (int i = builds.size() - 1; i >= 0; i--) {
+        retrieved.add(0, builds.get(i));
+        if (builds.get(i).getTimestamp() <= since) {
+          break;
+        }
+      }
+      BuildStabilityMeasures expected = sensor.computeMeasures(retrieved);
+      BuildStabilityMeasures actual = sensor.analyseStore(store, "Hudson:http://localhost/job/sonar/", new Date(since));
+
+      for (Metric metric : expected.getMetrics()) {
+        assertEquals(metric.getKey(), expected.getValue(metric), actual.getValue(metric));
+        assertEquals(metric.getKey(), expected.getData(metric), actual.getData(metric));
+      }
+      assertThat(actual.getMetrics().size(), is(expected.getMetrics().size()));
+    }
+  }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CulpritAggregatorTest {
+  private static final long MINUTE = 60L * 1000;
+
+  @Test
+  public void shouldAttributeBreakageToDevelopersOfBreakingBuild() {
+    CulpritAggregator aggregator = new CulpritAggregator()
+        .add(build(1, 0, true).setDevelopers("alice"))
+        .add(build(2, 10, false).setDevelopers("bob", "carol", "bob"))
+        .add(build(3, 20, false).setDevelopers("alice"))
+        .add(build(4, 40, true).setDevelopers("bob"))
+        .add(build(5, 50, false).setDevelopers("bob"))
+        .add(build(6, 60, false));
+
+    CulpritAggregator.Culprits developers = aggregator.getDevelopers();
+    // only developers of breaking builds are known
+    assertThat(developers.size(), is(2));
+    int bob = 0;
+    int carol = 1;
+    assertThat(developers.getName(bob), is("bob"));
+    assertThat(developers.getFailures(bob), is(2));
+    assertThat(developers.getFailures(carol), is(1));
+    // 2 failed builds until fix + 2 failed builds, which are not fixed yet
+    assertThat(developers.getBrokenBuilds(bob), is(4));
+    assertThat(developers.getBrokenBuilds(carol), is(2));
+    assertThat(developers.getAverageTimeToFix(bob), is(30.0 * MINUTE));
+    assertThat(developers.getAverageTimeToFix(carol), is(30.0 * MINUTE));
+  }
+
+  @Test
+  public void shouldAttributeBreakageToUpstreamProject() {
+    CulpritAggregator aggregator = new CulpritAggregator()
+        .add(build(1, 0, false).setCauseProject("core"))
+        .add(build(2, 10, true).setCauseProject("core"))
+        .add(build(3, 20, false).setCauseProject("api"))
+        .add(build(4, 30, false).setCauseProject("core"))
+        .add(build(5, 50, true));
+
+    CulpritAggregator.Culprits upstreams = aggregator.getUpstreams();
+    assertThat(upstreams.size(), is(2));
+    assertThat(upstreams.getName(0), is("core"));
+    assertThat(upstreams.getFailures(0), is(1));
+    assertThat(upstreams.getAverageTimeToFix(0), is(10.0 * MINUTE));
+    assertThat(upstreams.getFailures(1), is(1));
+    assertThat(upstreams.getBrokenBuilds(1), is(2));
+    assertThat(upstreams.getAverageTimeToFix(1), is(30.0 * MINUTE));
+    assertThat(aggregator.getDevelopers().size(), is(0));
+  }
+
+  @Test
+  public void shouldScaleToManyDevelopers() {
+    CulpritAggregator aggregator = new CulpritAggregator();
+    for (int i = 0; i < 5000; i++) {
+      aggregator.add(build(i, i, i % 2 == 0).setDevelopers("developer" + (i % 300)));
+    }
+
+    CulpritAggregator.Culprits developers = aggregator.getDevelopers();
+    // only failed builds with odd numbers are breaking
+    assertThat(developers.size(), is(150));
+    int failures = 0;
+    for (int id = 0; id < developers.size(); id++) {
+      failures += developers.getFailures(id);
+    }
+    assertThat(failures, is(2500));
+  }
+
+  private static Build build(int number, int minutes, boolean successful) {
+    return new Build(number, minutes * MINUTE, "Fake", successful, successful, 10);
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class DurationChangeDetectorTest {
+  @Test
+  public void shouldDetectIncrease() throws Exception {
+    DurationChangeDetector detector = new DurationChangeDetector();
+    int number = 1;
+    for (int i = 0; i < 30; i++) {
+      detector.add(number, number * 1000L, i % 2 == 0 ? 9800 : 10200);
+      number++;
+    }
+    assertThat(detector.isChanged(), is(false));
+    for (int i = 0; i < 10; i++) {
+      detector.add(number, number * 1000L, i % 2 == 0 ? 14800 : 15200);
+      number++;
+    }
+
+    assertThat(detector.isChanged(), is(true));
+    assertThat(detector.getChangeNumber(), is(31));
+    assertThat(detector.getChangeTimestamp(), is(31000L));
+    assertThat(detector.getChange() > 4000 && detector.getChange() < 6000, is(true));
+  }
+
+  @Test
+  public void shouldDetectDecrease() throws Exception {
+    DurationChangeDetector detector = new DurationChangeDetector();
+    for (int i = 1; i <= 20; i++) {
+      detector.add(i, i, 10000);
+    }
+    for (int i = 21; i <= 30; i++) {
+      detector.add(i, i, 5000);
+    }
+
+    assertThat(detector.getChangeNumber(), is(21));
+    assertThat(detector.getChange(), is(-5000.0));
+  }
+
+  @Test
+  public void shouldNotDetectChangeDuringWarmup() throws Exception {
+    DurationChangeDetector detector = new DurationChangeDetector();
+    for (int i = 1; i < DurationChangeDetector.WARMUP; i++) {
+      detector.add(i, i, i * 10000);
+    }
+
+    assertThat(detector.isChanged(), is(false));
+    assertThat(detector.getChange(), is(0.0));
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class FlakinessDetectorTest {
+  @Test
+  public void shouldCountRerunPasses() throws Exception {
+    FlakinessDetector detector = new FlakinessDetector()
+        .add(build(1, false).setCauseProject("core").setCauseProjectBuild("10"))
+        .add(build(2, true).setCauseProject("core").setCauseProjectBuild("10"))
+        .add(build(3, false).setCauseProject("core").setCauseProjectBuild("11"))
+        .add(build(4, true).setCauseProject("core").setCauseProjectBuild("12"));
+
+    assertThat(detector.getAlternations(), is(3));
+    assertThat(detector.getRerunPasses(), is(1));
+    assertThat(detector.getFlipRate(), is(100.0));
+    assertThat(detector.getMaxFlipRate(), is(100.0));
+  }
+
+  @Test
+  public void shouldComputeMaxFlipRateOverSlidingWindow() throws Exception {
+    FlakinessDetector detector = new FlakinessDetector();
+    int number = 1;
+    for (int i = 0; i < 30; i++) {
+      detector.add(build(number++, true));
+    }
+    // 5 alternations within window of 10 transitions
+    for (int i = 0; i < 5; i++) {
+      detector.add(build(number++, i % 2 == 1));
+    }
+    for (int i = 0; i < 30; i++) {
+      detector.add(build(number++, true));
+    }
+
+    assertThat(detector.getAlternations(), is(6));
+    assertThat(detector.getMaxFlipRate(), is(60.0));
+    assertThat(detector.getFlipRate() < 10, is(true));
+  }
+
+  private static Build build(int number, boolean passed) {
+    return new Build(number, number, "", passed, passed, 0);
+  }
+}
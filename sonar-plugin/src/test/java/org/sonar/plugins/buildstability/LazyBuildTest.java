@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class LazyBuildTest {
+  @Test
+  public void shouldDecodeOnlyOnAccessToVariableLengthFields() {
+    CountingBuild build = new CountingBuild();
+    build.setNumber(1);
+    build.setResult("SUCCESS");
+    build.setDuration(10);
+    assertThat(build.isDecoded(), is(false));
+    assertThat(build.decodes, is(0));
+
+    assertThat(build.getCauseProject(), is("core"));
+    assertThat(build.getUrl(), is("http://ci/job/1"));
+    assertThat(build.getDevelopers()[0], is("alice"));
+    assertThat(build.isDecoded(), is(true));
+    assertThat(build.decodes, is(1));
+  }
+
+  @Test
+  public void shouldNotBeOverwrittenByDecoding() {
+    CountingBuild build = new CountingBuild();
+    build.setCauseProject(null);
+    assertThat(build.getCauseProject(), nullValue());
+    assertThat(build.getUrl(), is("http://ci/job/1"));
+    assertThat(build.decodes, is(1));
+  }
+
+  @Test
+  public void shouldDecodeForConversionToString() {
+    CountingBuild build = new CountingBuild();
+    build.setNumber(1);
+    build.setStable(true);
+    build.setSuccessful(true);
+    build.setDuration(1000);
+    Build copy = Build.fromString(build.convertToString());
+    assertThat(copy.getCauseProject(), is("core"));
+    assertThat(copy.getUrl(), is("http://ci/job/1"));
+  }
+
+  @Test
+  public void copyShouldStayLazyAndIndependent() {
+    CountingBuild build = new CountingBuild();
+    build.setNumber(1);
+    build.setDuration(10);
+
+    Build copy = build.copy();
+    copy.setDuration(20);
+    assertThat(build.decodes, is(0));
+    assertThat(copy.getNumber(), is(1));
+    assertThat(build.getDuration(), is(10.0));
+
+    assertThat(copy.getCauseProject(), is("core"));
+    assertThat(copy.getUrl(), is("http://ci/job/1"));
+    assertThat(build.decodes, is(1));
+  }
+
+  @Test
+  public void shouldDecodeAgainAfterFailure() {
+    CountingBuild build = new CountingBuild();
+    build.failures = 1;
+    try {
+      build.getUrl();
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(build.isDecoded(), is(false));
+    }
+    assertThat(build.getUrl(), is("http://ci/job/1"));
+    assertThat(build.decodes, is(2));
+  }
+
+  private static class CountingBuild extends LazyBuild {
+    int decodes;
+    int failures;
+
+    @Override
+    protected void decode() {
+      decodes++;
+      if (failures-- > 0) {
+        throw new IllegalStateException();
+      }
+      setUrl("http://ci/job/1");
+      setCauseProject("core");
+      setDevelopers("alice");
+    }
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TestStatisticsTest {
+  @Test
+  public void shouldCountFlipsInOrderOfBuilds() {
+    TestStatistics tests = new TestStatistics();
+    tests.add("a", 10, false);
+    tests.add("b", 10, true);
+    tests.add("a", 20, true);
+    tests.add("b", 10, true);
+    tests.add("a", 30, false);
+
+    assertThat(tests.size(), is(2));
+    assertThat(tests.getRuns("a"), is(3));
+    assertThat(tests.getFailures("a"), is(1));
+    assertThat(tests.getFlips("a"), is(2));
+    assertThat(tests.getFlips("b"), is(0));
+    assertThat(tests.getAverageDuration("a"), is(20.0));
+    assertThat(tests.getRuns("unknown"), is(0));
+    // test, which always fails, is broken, but not flaky
+    assertThat(tests.getFlakiest(10), is(Arrays.asList("a")));
+  }
+
+  @Test
+  public void shouldSelectSlowest() {
+    TestStatistics tests = new TestStatistics();
+    for (int i = 0; i < 5000; i++) {
+      tests.add("test" + i, i % 3000, false);
+    }
+
+    assertThat(tests.size(), is(5000));
+    assertThat(tests.getSlowest(3), is(Arrays.asList("test2999", "test2998", "test2997")));
+    assertThat(tests.getSlowest(0), is(Collections.<String>emptyList()));
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci;
+
+import org.sonar.plugins.buildstability.Build;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Measures end-to-end throughput of fetching and parsing builds from {@link FakeCiServer}.
+ * <p>
+ * Manual tool only: it is a plain main and not a JUnit test (name doesn't match <tt>*Test</tt>), so it never runs
+ * during build. Run it manually with test classpath and <tt>-Dsun.net.httpserver.nodelay=true</tt>.
+ * Arguments (all optional): latency in millisec, page size.
+ */
+public final class CiConnectorBenchmark {
+  private static final int[] SIZES = {1, 1000, 10000, 100000};
+  private static final int WARMUP_ITERATIONS = 3;
+  private static final int ITERATIONS = 5;
+
+  private CiConnectorBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    long latency = args.length > 0 ? Long.parseLong(args[0]) : 0;
+    int pageSize = args.length > 1 ? Integer.parseInt(args[1]) : Integer.MAX_VALUE;
+    System.out.println("api\tbuilds\tms/op\tbuilds/s");
+    for (int size : SIZES) {
+      run(size, latency, pageSize, false);
+      run(size, latency, pageSize, true);
+    }
+  }
+
+  private static void run(int size, long latency, int pageSize, boolean json) throws Exception {
+    FakeCiServer server = new FakeCiServer(size).setLatency(latency).setPageSize(pageSize).start();
+    try {
+      Date date = new Date(server.getTimestamp(1) - 1);
+      CiSettings settings = new CiSettings().setUseJsonApi(json);
+      for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+        fetch(server, settings, date, size);
+      }
+      long start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        fetch(server, settings, date, size);
+      }
+      double millis = (System.nanoTime() - start) / 1000000.0 / ITERATIONS;
+      System.out.println((json ? "json" : "xml") + "\t" + size + "\t" + Math.round(millis) + "\t" + Math.round(size * 1000 / millis));
+    } finally {
+      server.stop();
+    }
+  }
+
+  private static void fetch(FakeCiServer server, CiSettings settings, Date date, int size) throws Exception {
+    CiConnector connector = CiFactory.create(server.getHudsonUrl(), settings);
+    try {
+      List<Build> builds = connector.getBuildsSince(date);
+      if (builds.size() != size) {
+        throw new IllegalStateException("Expected " + size + " builds, but fetched " + builds.size());
+      }
+    } finally {
+      connector.close();
+    }
+  }
+}
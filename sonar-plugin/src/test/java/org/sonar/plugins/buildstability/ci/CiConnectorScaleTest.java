@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci;
+
+import org.junit.After;
+import org.junit.Test;
+import org.sonar.plugins.buildstability.Build;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Exercises {@link CiConnector} against {@link FakeCiServer} with realistic volume, latency and errors.
+ */
+public class CiConnectorScaleTest {
+  private FakeCiServer server;
+
+  @After
+  public void tearDown() {
+    if (server != null) {
+      server.stop();
+    }
+    SharedBuilds.clear();
+  }
+
+  @Test
+  public void shouldFetchSingleBuild() throws Exception {
+    server = new FakeCiServer(1).start();
+    CiConnector connector = CiFactory.create(server.getHudsonUrl(), new CiSettings());
+
+    List<Build> builds = connector.getBuildsSince(new Date(0));
+
+    assertThat(builds.size(), is(1));
+    assertThat(builds.get(0).getNumber(), is(1));
+  }
+
+  @Test
+  public void shouldFetchLargeHistoryInBulk() throws Exception {
+    server = new FakeCiServer(100000).start();
+    CiConnector connector = CiFactory.create(server.getHudsonUrl(), new CiSettings().setUseJsonApi(true));
+
+    List<Build> builds = connector.getBuildsSince(new Date(server.getTimestamp(1) - 1));
+
+    assertThat(builds.size(), is(100000));
+    assertThat(builds.get(0).getNumber(), is(100000));
+    assertThat(builds.get(99999).getNumber(), is(1));
+    assertThat(builds.get(99999).getTimestamp(), is(server.getTimestamp(1)));
+    // bulk listing and request of build 0
+    assertThat(server.getRequests(), is(2));
+  }
+
+  @Test
+  public void shouldFetchOnlyBuildsInPeriod() throws Exception {
+    server = new FakeCiServer(10000).start();
+    CiConnector connector = CiFactory.create(server.getHudsonUrl(), new CiSettings());
+
+    List<Build> builds = connector.getBuildsSince(new Date(server.getTimestamp(9001)));
+
+    // including first build, which is not after date
+    assertThat(builds.size(), is(1000));
+    assertThat(builds.get(999).getNumber(), is(9001));
+    assertThat(server.getRequests(), is(1));
+  }
+
+  @Test
+  public void shouldFetchBuildsBeyondPageOneByOne() throws Exception {
+    server = new FakeCiServer(300).setPageSize(100).start();
+    CiConnector connector = CiFactory.create(server.getHudsonUrl(), new CiSettings());
+
+    List<Build> builds = connector.getBuildsSince(new Date(server.getTimestamp(1) - 1));
+
+    assertThat(builds.size(), is(300));
+    assertThat(builds.get(100).getNumber(), is(200));
+    // bulk listing, builds from 200 to 1 and build 0
+    assertThat(server.getRequests(), is(1 + 200 + 1));
+  }
+
+  @Test
+  public void shouldRetryServerErrors() throws Exception {
+    server = new FakeCiServer(200).setErrorRate(0.05).start();
+    CiConnector connector = CiFactory.create(server.getBambooUrl(), new CiSettings());
+
+    List<Build> builds = connector.getBuildsSince(new Date(server.getTimestamp(1) - 1));
+
+    assertThat(builds.size(), is(200));
+    assertThat(server.getErrors() > 0, is(true));
+    assertThat(connector.getStatistics().getRequests(), is(server.getRequests()));
+  }
+
+  @Test
+  public void shouldGiveUpAfterRetriesOfServerError() throws Exception {
+    server = new FakeCiServer(10).setErrorRate(1).start();
+    CiConnector connector = CiFactory.create(server.getHudsonUrl(), new CiSettings());
+
+    try {
+      connector.getLastBuild();
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+
+    // first attempt and two retries
+    assertThat(server.getRequests(), is(3));
+    assertThat(connector.getStatistics().getRequests(), is(3));
+  }
+
+  @Test
+  public void shouldNotRetryServerErrorAfterDeadline() throws Exception {
+    server = new FakeCiServer(10).setErrorRate(1).start();
+    CiConnector connector = CiFactory.create(server.getHudsonUrl(), new CiSettings());
+    long start = System.currentTimeMillis();
+    connector.setDeadline(start + 50);
+
+    try {
+      connector.getLastBuild();
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+
+    assertThat(server.getRequests(), is(1));
+    assertThat(System.currentTimeMillis() - start < 100, is(true));
+  }
+
+  @Test
+  public void shouldReturnNewestBuildsWhenDeadlinePasses() throws Exception {
+    server = new FakeCiServer(1000).setLatency(20).setPageSize(10).start();
+    CiConnector connector = CiFactory.create(server.getHudsonUrl(), new CiSettings());
+    long start = System.currentTimeMillis();
+    connector.setDeadline(start + 500);
+
+    List<Build> builds = connector.getBuildsSince(new Date(server.getTimestamp(1) - 1));
+
+    assertThat(connector.isPartial(), is(true));
+    assertThat(builds.size() > 10 && builds.size() < 1000, is(true));
+    assertThat(builds.get(0).getNumber(), is(1000));
+    assertThat(builds.get(builds.size() - 1).getNumber(), is(1000 - builds.size() + 1));
+    assertThat(System.currentTimeMillis() - start < 2000, is(true));
+  }
+
+  @Test
+  public void shouldAbortRequestInProgressAtDeadline() throws Exception {
+    server = new FakeCiServer(10).setLatency(10000).start();
+    CiConnector connector = CiFactory.create(server.getHudsonUrl(), new CiSettings());
+    long start = System.currentTimeMillis();
+    connector.setDeadline(start + 300);
+
+    List<Build> builds = connector.getBuildsSince(new Date(0));
+    connector.close();
+
+    assertThat(connector.isPartial(), is(true));
+    assertThat(builds.size(), is(0));
+    assertThat(System.currentTimeMillis() - start < 5000, is(true));
+  }
+
+  @Test
+  public void shouldShareBuildsBetweenConnectors() throws Exception {
+    server = new FakeCiServer(300).setPageSize(100).start();
+    CiSettings settings = new CiSettings().setShareBuilds(true);
+    Date date = new Date(server.getTimestamp(1) - 1);
+
+    CiConnector first = CiFactory.create(server.getHudsonUrl(), settings);
+    first.getBuildsSince(date);
+    CiConnector second = CiFactory.create(server.getHudsonUrl(), settings);
+    List<Build> builds = second.getBuildsSince(date);
+
+    assertThat(builds.size(), is(300));
+    // listing of 100 builds and 200 builds retrieved one by one
+    assertThat(second.getStatistics().getCachedBuilds(), is(300));
+    // build 0 is not found, so not shared
+    assertThat(second.getStatistics().getRequests(), is(1));
+    assertThat(server.getRequests(), is(1 + 200 + 1 + 1));
+  }
+
+  @Test
+  public void shouldNotShareBuildsBetweenDifferentCredentials() throws Exception {
+    server = new FakeCiServer(10).start();
+    Date date = new Date(server.getTimestamp(1) - 1);
+
+    CiConnector first = CiFactory.create(server.getHudsonUrl(), new CiSettings().setShareBuilds(true)
+        .setUsername("alice").setPassword("secret"));
+    first.getBuildsSince(date);
+    CiConnector anonymous = CiFactory.create(server.getHudsonUrl(), new CiSettings().setShareBuilds(true));
+    anonymous.getBuildsSince(date);
+    CiConnector other = CiFactory.create(server.getHudsonUrl(), new CiSettings().setShareBuilds(true)
+        .setUsername("alice").setPassword("other"));
+    other.getBuildsSince(date);
+    CiConnector same = CiFactory.create(server.getHudsonUrl(), new CiSettings().setShareBuilds(true)
+        .setUsername("alice").setPassword("secret"));
+    same.getBuildsSince(date);
+
+    assertThat(anonymous.getStatistics().getCachedBuilds(), is(0));
+    assertThat(other.getStatistics().getCachedBuilds(), is(0));
+    assertThat(same.getStatistics().getCachedBuilds(), is(10));
+  }
+
+  @Test
+  public void shouldBoundSharedListingsByNumberOfBuilds() throws Exception {
+    server = new FakeCiServer(SharedBuilds.MAX_LISTED_BUILDS + 1).start();
+    CiSettings settings = new CiSettings().setShareBuilds(true).setUseJsonApi(true);
+    Date date = new Date(server.getTimestamp(1) - 1);
+
+    CiFactory.create(server.getHudsonUrl(), settings).getBuildsSince(date);
+
+    assertThat(SharedBuilds.getListedBuilds(), is(0));
+    CiConnector second = CiFactory.create(server.getHudsonUrl(), settings);
+    assertThat(second.getBuildsSince(date).size(), is(SharedBuilds.MAX_LISTED_BUILDS + 1));
+    assertThat(second.getStatistics().getCachedBuilds(), is(0));
+  }
+
+  @Test
+  public void shouldCoalesceConcurrentListings() throws Exception {
+    server = new FakeCiServer(1000).setLatency(100).start();
+    CiSettings settings = new CiSettings().setShareBuilds(true);
+    final Date date = new Date(server.getTimestamp(1) - 1);
+    CiConnector[] connectors = new CiConnector[4];
+    Thread[] threads = new Thread[connectors.length];
+    for (int i = 0; i < threads.length; i++) {
+      final CiConnector connector = CiFactory.create(server.getHudsonUrl(), settings);
+      connectors[i] = connector;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            assertThat(connector.getBuildsSince(date).size(), is(1000));
+          } catch (IOException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    int cached = 0;
+    for (CiConnector connector : connectors) {
+      cached += connector.getStatistics().getCachedBuilds();
+    }
+    assertThat(cached, is(3 * 1000));
+    // single listing, build 0 is not found, so requested at most by each analysis
+    assertThat(server.getRequests() <= 1 + threads.length, is(true));
+  }
+
+  @Test
+  public void shouldNotModifySharedBuilds() throws Exception {
+    server = new FakeCiServer(10).start();
+    CiSettings settings = new CiSettings().setShareBuilds(true);
+    Date date = new Date(server.getTimestamp(1) - 1);
+
+    CiConnector first = CiFactory.create(server.getHudsonUrl(), settings);
+    List<Build> withStages = first.getBuildsSince(date);
+    first.fetchStages(withStages, date);
+    CiConnector second = CiFactory.create(server.getHudsonUrl(), settings);
+    List<Build> builds = second.getBuildsSince(date);
+
+    assertThat(second.getStatistics().getCachedBuilds(), is(10));
+    assertThat(withStages.get(0).getStageDurations().size(), is(2));
+    for (Build build : builds) {
+      assertThat(build.getStageDurations(), nullValue());
+    }
+  }
+
+  @Test
+  public void shouldCoalesceConcurrentRequestsOfSameBuild() throws Exception {
+    server = new FakeCiServer(20).setPageSize(1).setLatency(50).start();
+    final CiSettings settings = new CiSettings().setShareBuilds(true);
+    final Date date = new Date(server.getTimestamp(1) - 1);
+    final CiConnector[] connectors = new CiConnector[2];
+    Thread[] threads = new Thread[connectors.length];
+    for (int i = 0; i < threads.length; i++) {
+      final CiConnector connector = CiFactory.create(server.getHudsonUrl(), settings);
+      connectors[i] = connector;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            connector.getBuildsSince(date);
+          } catch (IOException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    // listing and each of builds from 19 to 1 requested only once, build 0 is not found, so may be requested twice
+    int cached = connectors[0].getStatistics().getCachedBuilds() + connectors[1].getStatistics().getCachedBuilds();
+    assertThat(cached, is(1 + 19));
+    assertThat(server.getRequests() <= 1 + 19 + 2, is(true));
+  }
+
+  @Test
+  public void shouldFetchStagesConcurrently() throws Exception {
+    long latency = 50;
+    server = new FakeCiServer(40).setLatency(latency).start();
+    CiConnector connector = CiFactory.create(server.getHudsonUrl(), new CiSettings());
+    List<Build> builds = connector.getBuildsSince(new Date(server.getTimestamp(1) - 1));
+
+    long start = System.currentTimeMillis();
+    connector.fetchStages(builds, new Date(server.getTimestamp(1) - 1));
+    long time = System.currentTimeMillis() - start;
+
+    for (Build build : builds) {
+      assertThat(build.getStageDurations().size(), is(2));
+    }
+    assertThat(time < builds.size() * latency / 2, is(true));
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci;
+
+import org.junit.Test;
+import org.sonar.plugins.buildstability.ci.hudson.HudsonServer;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CiConnectorTest {
+  private static final String NAME = "évgeny";
+
+  private CiConnector connector = new CiConnector(new HudsonServer());
+
+  @Test
+  public void shouldTakeEncodingFromXmlDeclaration() throws Exception {
+    String xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n<build>\n  <fullName>" + NAME + "</fullName>\n</build>";
+    CiResponse response = createResponse(xml.getBytes("ISO-8859-1"), "application/xml;charset=UTF-8");
+    assertThat(connector.parse(response).getRootElement().elementText("fullName"), is(NAME));
+  }
+
+  @Test
+  public void shouldTakeEncodingFromContentType() throws Exception {
+    String xml = "<build>\n  <fullName>" + NAME + "</fullName>\n</build>";
+    CiResponse response = createResponse(xml.getBytes("ISO-8859-1"), "application/xml; charset=ISO-8859-1");
+    assertThat(connector.parse(response).getRootElement().elementText("fullName"), is(NAME));
+  }
+
+  @Test
+  public void shouldUseUtf8WithoutContentType() throws Exception {
+    String xml = "\uFEFF<?xml version=\"1.0\"?>\n<build>\n  <fullName>" + NAME + "</fullName>\n</build>";
+    CiResponse response = createResponse(xml.getBytes("UTF-8"), null);
+    assertThat(connector.parse(response).getRootElement().elementText("fullName"), is(NAME));
+  }
+
+  private static CiResponse createResponse(byte[] body, String contentType) {
+    Map<String, String> headers = new HashMap<String, String>();
+    if (contentType != null) {
+      headers.put("Content-Type", contentType);
+    }
+    return new CiResponse("http://localhost/job/sonar/1/api/xml", 200, headers, new ByteArrayInputStream(body));
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci;
+
+import org.junit.Test;
+import org.sonar.plugins.buildstability.ci.bamboo.BambooServer;
+import org.sonar.plugins.buildstability.ci.hudson.HudsonServer;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class CiFactoryTest {
+  @Test
+  public void shouldDiscoverProviders() {
+    assertThat(CiFactory.getProvider("hudson").createServer(), instanceOf(HudsonServer.class));
+    assertThat(CiFactory.getProvider("Bamboo").createServer(), instanceOf(BambooServer.class));
+    assertThat(CiFactory.getProvider("Unknown"), nullValue());
+  }
+
+  @Test
+  public void shouldAdvertiseRetrievalStrategy() {
+    assertThat(new HudsonServer().getRetrievalStrategy(), is(RetrievalStrategy.BULK));
+    assertThat(new HudsonServer().getCapabilities().contains(CiCapability.STAGE_TIMINGS), is(true));
+    assertThat(new BambooServer().getRetrievalStrategy(), is(RetrievalStrategy.PER_BUILD));
+  }
+
+  @Test
+  public void shouldCreateConnector() {
+    CiSettings settings = new CiSettings().setUseJsonApi(true);
+    assertThat(CiFactory.create("Hudson:http://localhost/hudson/job/sonar", settings), notNullValue());
+    assertThat(CiFactory.create("Bamboo:http://localhost/browse/SONAR", settings), notNullValue());
+    assertThat(CiFactory.create("Hudson:http://localhost/hudson", settings), nullValue());
+    assertThat(CiFactory.create("Unknown:http://localhost/job/sonar", settings), nullValue());
+  }
+}
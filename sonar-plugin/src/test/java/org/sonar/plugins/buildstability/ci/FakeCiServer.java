@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embedded stand-in for Hudson and Bamboo, which serves synthetic history of one job without any real CI server.
+ * Builds are numbered from 1 to N and started every {@link #INTERVAL} millisec, so that last build is started
+ * right before start of server. Every 7th build fails and every 11th build is unstable.
+ * <ul>
+ * <li>latency - delay before each response</li>
+ * <li>error rate - probability of response with status 503, errors are reproducible for the same seed</li>
+ * <li>page size - maximal number of builds in bulk listing of Hudson (like <tt>builds</tt> of real Hudson,
+ * which lists only recent builds), older builds are available only one by one</li>
+ * </ul>
+ */
+public class FakeCiServer {
+  public static final String JOB = "fake";
+  public static final String PLAN = "FAKE-PLAN";
+  public static final long INTERVAL = 60L * 1000;
+
+  private final int builds;
+  private final long lastTimestamp = System.currentTimeMillis() - INTERVAL;
+  private long latency;
+  private double errorRate;
+  private int pageSize = Integer.MAX_VALUE;
+  private final Random random = new Random(42);
+
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger errors = new AtomicInteger();
+  private HttpServer httpServer;
+  private ExecutorService executor;
+
+  public FakeCiServer(int builds) {
+    this.builds = builds;
+  }
+
+  public FakeCiServer setLatency(long latency) {
+    this.latency = latency;
+    return this;
+  }
+
+  public FakeCiServer setErrorRate(double errorRate) {
+    this.errorRate = errorRate;
+    return this;
+  }
+
+  public FakeCiServer setPageSize(int pageSize) {
+    this.pageSize = pageSize;
+    return this;
+  }
+
+  public FakeCiServer start() throws IOException {
+    httpServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    httpServer.createContext("/job/" + JOB + "/", new Handler() {
+      @Override
+      void handle(String path, Writer out) throws IOException {
+        handleHudson(path, out);
+      }
+    });
+    httpServer.createContext("/rest/api/latest/build/" + PLAN + "/", new Handler() {
+      @Override
+      void handle(String path, Writer out) throws IOException {
+        handleBamboo(path, out);
+      }
+    });
+    // Connector sends concurrent requests
+    executor = Executors.newCachedThreadPool();
+    httpServer.setExecutor(executor);
+    httpServer.start();
+    return this;
+  }
+
+  public void stop() {
+    httpServer.stop(0);
+    executor.shutdownNow();
+  }
+
+  /**
+   * @return URL in format of <tt>ciManagement</tt>, see {@link CiFactory#create(String, CiSettings)}
+   */
+  public String getHudsonUrl() {
+    return "Hudson:" + getBase() + "/job/" + JOB;
+  }
+
+  public String getBambooUrl() {
+    return "Bamboo:" + getBase() + "/browse/" + PLAN;
+  }
+
+  private String getBase() {
+    return "http://localhost:" + httpServer.getAddress().getPort();
+  }
+
+  /**
+   * @return number of received requests including failed ones
+   */
+  public int getRequests() {
+    return requests.get();
+  }
+
+  public int getErrors() {
+    return errors.get();
+  }
+
+  public long getTimestamp(int number) {
+    return lastTimestamp - (builds - number) * INTERVAL;
+  }
+
+  private String getResult(int number) {
+    if (number % 7 == 0) {
+      return "FAILURE";
+    }
+    return number % 11 == 0 ? "UNSTABLE" : "SUCCESS";
+  }
+
+  private long getDuration(int number) {
+    return 60000 + (number % 10) * 1000;
+  }
+
+  private boolean isError() {
+    synchronized (random) {
+      return random.nextDouble() < errorRate;
+    }
+  }
+
+  private void handleHudson(String path, Writer out) throws IOException {
+    String[] parts = path.split("/");
+    // /job/fake/api/xml, /job/fake/N/api/json, /job/fake/N/wfapi/describe
+    boolean json = path.contains("/api/json");
+    if (parts.length == 5) {
+      if (json) {
+        out.write("{\"builds\":[");
+        int first = Math.max(1, builds - pageSize + 1);
+        for (int number = builds; number >= first; number--) {
+          if (number != builds) {
+            out.write(',');
+          }
+          writeHudsonJsonBuild(number, out);
+        }
+        out.write("]}");
+      } else {
+        out.write("<freeStyleProject>");
+        int first = Math.max(1, builds - pageSize + 1);
+        for (int number = builds; number >= first; number--) {
+          writeHudsonXmlBuild("build", number, out);
+        }
+        out.write("</freeStyleProject>");
+      }
+      return;
+    }
+    int number = getNumber(parts[3], "lastBuild");
+    if (number < 1) {
+      throw new NotFoundException();
+    }
+    if (path.endsWith("/wfapi/describe")) {
+      out.write("{\"id\":\"" + number + "\",\"stages\":[" +
+          "{\"name\":\"Build\",\"durationMillis\":" + (getDuration(number) / 3) + "}," +
+          "{\"name\":\"Test\",\"durationMillis\":" + (getDuration(number) * 2 / 3) + "}]}");
+    } else if (json) {
+      writeHudsonJsonBuild(number, out);
+    } else {
+      writeHudsonXmlBuild("freeStyleBuild", number, out);
+    }
+  }
+
+  private void writeHudsonJsonBuild(int number, Writer out) throws IOException {
+    out.write("{\"actions\":[{\"causes\":[{\"shortDescription\":\"Started by an SCM change\"}]},{\"queuingDurationMillis\":1000}]," +
+        "\"duration\":" + getDuration(number) + ",\"number\":" + number + ",\"result\":\"" + getResult(number) + "\"," +
+        "\"timestamp\":" + getTimestamp(number) + ",\"url\":\"" + getBase() + "/job/" + JOB + "/" + number + "/\"}");
+  }
+
+  private void writeHudsonXmlBuild(String element, int number, Writer out) throws IOException {
+    out.write("<" + element + "><action><cause><shortDescription>Started by an SCM change</shortDescription></cause></action>" +
+        "<action><queuingDurationMillis>1000</queuingDurationMillis></action>" +
+        "<duration>" + getDuration(number) + "</duration><number>" + number + "</number><result>" + getResult(number) + "</result>" +
+        "<timestamp>" + getTimestamp(number) + "</timestamp><url>" + getBase() + "/job/" + JOB + "/" + number + "/</url></" + element + ">");
+  }
+
+  private void handleBamboo(String path, Writer out) throws IOException {
+    // /rest/api/latest/build/FAKE-PLAN/N
+    int number = getNumber(path.split("/")[6], "latest");
+    if (number < 1) {
+      throw new NotFoundException();
+    }
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    String state = "FAILURE".equals(getResult(number)) ? "Failed" : "Successful";
+    out.write("<result number=\"" + number + "\" state=\"" + state + "\">" +
+        "<buildStartedTime>" + format.format(new Date(getTimestamp(number))) + "</buildStartedTime>" +
+        "<buildDurationInSeconds>" + getDuration(number) / 1000 + "</buildDurationInSeconds></result>");
+  }
+
+  private int getNumber(String value, String last) {
+    if (last.equals(value)) {
+      return builds;
+    }
+    int number = Integer.parseInt(value);
+    return number > builds ? -1 : number;
+  }
+
+  private static class NotFoundException extends IOException {
+  }
+
+  /**
+   * Writes response into buffer, so that status code can be changed, if resource not found.
+   */
+  private abstract class Handler implements HttpHandler {
+    abstract void handle(String path, Writer out) throws IOException;
+
+    public void handle(HttpExchange exchange) throws IOException {
+      requests.incrementAndGet();
+      try {
+        if (latency > 0) {
+          Thread.sleep(latency);
+        }
+        if (isError()) {
+          errors.incrementAndGet();
+          exchange.sendResponseHeaders(503, -1);
+          return;
+        }
+        String path = exchange.getRequestURI().getPath();
+        String contentType = path.contains("/api/json") || path.endsWith("/wfapi/describe") ? "application/json" : "application/xml";
+        StringWriter buffer = new StringWriter();
+        try {
+          handle(path, buffer);
+        } catch (NotFoundException e) {
+          exchange.sendResponseHeaders(404, -1);
+          return;
+        }
+        exchange.getResponseHeaders().add("Content-Type", contentType + ";charset=UTF-8");
+        byte[] bytes = buffer.toString().getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+}
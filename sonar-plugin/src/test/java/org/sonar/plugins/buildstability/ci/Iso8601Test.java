@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci;
+
+import org.junit.Test;
+
+import javax.xml.bind.DatatypeConverter;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class Iso8601Test {
+  @Test
+  public void shouldParseOffsets() {
+    long expected = 1262624537114L; // 2010-01-04T17:02:17.114Z
+    assertThat(Iso8601.parse("2010-01-04T11:02:17.114-0600"), is(expected));
+    assertThat(Iso8601.parse("2010-01-04T11:02:17.114-06:00"), is(expected));
+    assertThat(Iso8601.parse("2010-01-04T11:02:17.114-06"), is(expected));
+    assertThat(Iso8601.parse("2010-01-04T17:02:17.114Z"), is(expected));
+    assertThat(Iso8601.parse("2010-01-04T17:02:17.114"), is(expected));
+    assertThat(Iso8601.parse("2010-01-04T18:32:17.114+01:30"), is(expected));
+    assertThat(Iso8601.parse("2010-01-04T17:02:17.114999Z"), is(expected));
+    assertThat(Iso8601.parse("2010-01-04 17:02Z"), is(expected - 17114));
+  }
+
+  @Test
+  public void shouldBeConsistentWithXmlDateTime() {
+    String[] values = {"1970-01-01T00:00:00Z", "1969-12-31T23:59:59.999Z", "2000-02-29T12:00:00+05:00", "2100-03-01T00:00:00.5-11:00"};
+    for (String value : values) {
+      assertThat(value, Iso8601.parse(value), is(DatatypeConverter.parseDateTime(value).getTimeInMillis()));
+    }
+  }
+
+  @Test
+  public void shouldFormatInUtc() {
+    assertThat(Iso8601.format(1272844800000L), is("2010-05-03T00:00:00Z"));
+    assertThat(Iso8601.format(-1L), is("1969-12-31T23:59:59Z"));
+    assertThat(Iso8601.parse(Iso8601.format(951825600000L)), is(951825600000L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectUnknownOffset() {
+    Iso8601.parse("2010-01-04T11:02:17.114 CST");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectIncompleteDate() {
+    Iso8601.parse("2010-01-04");
+  }
+}
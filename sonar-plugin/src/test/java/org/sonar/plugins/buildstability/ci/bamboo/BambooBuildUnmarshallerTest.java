@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci.bamboo;
+
+import org.dom4j.DocumentHelper;
+import org.junit.Test;
+import org.sonar.api.utils.SonarException;
+import org.sonar.plugins.buildstability.Build;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class BambooBuildUnmarshallerTest {
+  @Test
+  public void shouldParseOffsetOfStartTime() throws Exception {
+    Build build = toModel("<result number=\"42\" state=\"Successful\">" +
+        "<buildStartedTime>2010-01-04T11:02:17.114-0600</buildStartedTime>" +
+        "<buildDurationInSeconds>61</buildDurationInSeconds></result>");
+
+    assertThat(build.getNumber(), is(42));
+    assertThat(build.getTimestamp(), is(1262624537114L));
+    assertThat(build.getDuration(), is(61000.0));
+    assertThat(build.isSuccessful(), is(true));
+    assertThat(build.getQueueDuration(), nullValue());
+  }
+
+  @Test
+  public void shouldComputeTimeInQueue() throws Exception {
+    Build build = toModel("<result number=\"43\" state=\"Failed\">" +
+        "<queueStartedTime>2010-01-04T11:01:00.000-06:00</queueStartedTime>" +
+        "<buildStartedTime>2010-01-04T11:02:17.114-06:00</buildStartedTime>" +
+        "<buildDurationInSeconds>1</buildDurationInSeconds></result>");
+
+    assertThat(build.getQueueDuration(), is(77114.0));
+    assertThat(build.isSuccessful(), is(false));
+  }
+
+  @Test(expected = SonarException.class)
+  public void shouldFailOnUnparseableStartTime() throws Exception {
+    toModel("<result number=\"44\" state=\"Failed\"><buildStartedTime>04.01.2010</buildStartedTime>" +
+        "<buildDurationInSeconds>1</buildDurationInSeconds></result>");
+  }
+
+  private static Build toModel(String xml) throws Exception {
+    return new BambooBuildUnmarshaller().toModel(DocumentHelper.parseText(xml).getRootElement());
+  }
+}
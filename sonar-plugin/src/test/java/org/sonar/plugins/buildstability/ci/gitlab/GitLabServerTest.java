@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci.gitlab;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.plugins.buildstability.Build;
+import org.sonar.plugins.buildstability.ci.CiConnector;
+import org.sonar.plugins.buildstability.ci.CiFactory;
+import org.sonar.plugins.buildstability.ci.CiSettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class GitLabServerTest {
+  private HttpServer httpServer;
+  private String base;
+  private List<String> requests = new ArrayList<String>();
+  private List<String> tokens = new ArrayList<String>();
+
+  @Before
+  public void setUp() throws Exception {
+    httpServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    base = "http://localhost:" + httpServer.getAddress().getPort();
+    httpServer.createContext("/api/v4/projects/42/pipelines", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        requests.add(query);
+        tokens.add(exchange.getRequestHeaders().getFirst("PRIVATE-TOKEN"));
+        String body;
+        if (query.contains("page=2")) {
+          body = "[" +
+              pipeline(2, "failed", "2010-05-03T10:05:00.000Z", "2010-05-03T10:06:00.000Z") + "," +
+              pipeline(1, "success", "2010-04-01T10:00:00Z", "2010-05-03T10:00:00Z") +
+              "]";
+        } else {
+          body = "[" +
+              pipeline(5, "running", "2010-05-03T12:00:00.000Z", "2010-05-03T12:00:01.000Z") + "," +
+              pipeline(4, "success", "2010-05-03T11:00:00.000+02:00", "2010-05-03T11:00:30.000+02:00") + "," +
+              pipeline(3, "canceled", "2010-05-03T10:10:00.000Z", "2010-05-03T10:11:00.000Z") +
+              "]";
+          exchange.getResponseHeaders().add("Link",
+              "<" + base + "/api/v4/projects/42/pipelines?per_page=3&page=2>; rel=\"next\", " +
+                  "<" + base + "/api/v4/projects/42/pipelines?per_page=3&page=1>; rel=\"first\"");
+        }
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+      }
+    });
+    httpServer.start();
+  }
+
+  @After
+  public void tearDown() {
+    httpServer.stop(0);
+  }
+
+  @Test
+  public void shouldRetrieveChangedPipelinesPageByPage() throws Exception {
+    CiConnector connector = CiFactory.create("GitLab:" + base + "/api/v4/projects/42", new CiSettings().setPassword("secret"));
+    List<Build> builds = connector.getBuildsSince(new Date(1272844800000L)); // 2010-05-03T00:00:00Z
+
+    assertThat(requests.size(), is(2));
+    assertThat(requests.get(0).contains("updated_after=2010-05-03T00:00:00Z"), is(true));
+    assertThat(tokens.get(0), is("secret"));
+    assertThat(connector.getStatistics().getRequests(), is(2));
+
+    // running pipeline is ignored, pipeline created before period is filtered out
+    assertThat(builds.size(), is(3));
+    assertThat(builds.get(0).getNumber(), is(4));
+    assertThat(builds.get(0).isSuccessful(), is(true));
+    assertThat(builds.get(0).getTimestamp(), is(1272877200000L));
+    assertThat(builds.get(0).getDuration(), is(30000.0));
+    assertThat(builds.get(0).getUrl(), is("http://gitlab/pipelines/4"));
+    assertThat(builds.get(1).getNumber(), is(3));
+    assertThat(builds.get(1).isSuccessful(), is(false));
+    assertThat(builds.get(2).getNumber(), is(2));
+    assertThat(builds.get(2).isStable(), is(false));
+  }
+
+  @Test
+  public void shouldSkipStagesAndTestReports() throws Exception {
+    CiConnector connector = CiFactory.create("GitLab:" + base + "/api/v4/projects/42", new CiSettings());
+    List<Build> builds = connector.getBuildsSince(new Date(1272844800000L));
+
+    connector.fetchStages(builds, new Date(0));
+
+    assertThat(connector.fetchTestReports(builds, new Date(0)), nullValue());
+    assertThat(builds.get(0).getStageDurations(), nullValue());
+    assertThat(requests.size(), is(2));
+  }
+
+  @Test
+  public void shouldReplayRecordedPipelinesAtOtherTime() throws Exception {
+    File archive = new File("target/test-tmp/GitLabServerTest/responses.zip");
+    archive.getParentFile().mkdirs();
+    CiConnector recorder = CiFactory.create("GitLab:" + base + "/api/v4/projects/42", new CiSettings().setRecordTo(archive));
+    List<Build> recorded = recorder.getBuildsSince(new Date(1272844800000L));
+    recorder.close();
+    assertThat(requests.size(), is(2));
+
+    // Period starts later, because analysis runs later
+    CiConnector replayer = CiFactory.create("GitLab:" + base + "/api/v4/projects/42", new CiSettings().setReplayFrom(archive));
+    List<Build> replayed = replayer.getBuildsSince(new Date(1272844800000L + 1000));
+    replayer.close();
+
+    assertThat(requests.size(), is(2));
+    assertThat(replayed.size(), is(recorded.size()));
+    assertThat(replayed.get(0).getNumber(), is(4));
+  }
+
+  @Test
+  public void shouldIgnoreUnfinishedPipeline() throws Exception {
+    assertThat(GitLabPipelineUnmarshaller.isFinished("pending"), is(false));
+    assertThat(GitLabPipelineUnmarshaller.isFinished("failed"), is(true));
+    assertThat(CiFactory.create("GitLab:" + base + "/projects/42", new CiSettings()), nullValue());
+  }
+
+  private static String pipeline(int iid, String status, String created, String updated) {
+    return "{\"id\":" + (1000 + iid) + ",\"iid\":" + iid + ",\"project_id\":42,\"sha\":\"a91957a8\",\"ref\":\"master\"," +
+        "\"status\":\"" + status + "\",\"source\":\"push\",\"created_at\":\"" + created + "\",\"updated_at\":\"" + updated + "\"," +
+        "\"web_url\":\"http://gitlab/pipelines/" + iid + "\"}";
+  }
+}
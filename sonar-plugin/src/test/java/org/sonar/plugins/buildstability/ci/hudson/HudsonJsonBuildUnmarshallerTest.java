@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci.hudson;
+
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.dom4j.DocumentHelper;
+import org.junit.Test;
+import org.sonar.plugins.buildstability.Build;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class HudsonJsonBuildUnmarshallerTest {
+  @Test
+  public void upstreamCause() throws Exception {
+    String xml = "<freeStyleBuild>" +
+        "<action><cause><shortDescription>Started by upstream project \"project-one\" build number 1,725</shortDescription>" +
+        "<upstreamBuild>1725</upstreamBuild><upstreamProject>project-one</upstreamProject><upstreamUrl>job/project-one/</upstreamUrl></cause></action>" +
+        "<action></action>" +
+        "<building>false</building><duration>61234</duration><number>42</number><result>UNSTABLE</result>" +
+        "<timestamp>1272891187240</timestamp><url>http://localhost/job/sonar/42/</url>" +
+        "</freeStyleBuild>";
+    String json = "{\"actions\":[{\"causes\":[{\"shortDescription\":\"Started by upstream project \\\"project-one\\\" build number 1,725\"," +
+        "\"upstreamBuild\":1725,\"upstreamProject\":\"project-one\",\"upstreamUrl\":\"job/project-one/\"}]},{}]," +
+        "\"artifacts\":[],\"building\":false,\"duration\":61234,\"number\":42,\"result\":\"UNSTABLE\"," +
+        "\"timestamp\":1272891187240,\"url\":\"http://localhost/job/sonar/42/\",\"changeSet\":{\"items\":[],\"kind\":null}}";
+
+    Build build = assertSameBuild(xml, json);
+    assertThat(build.getCauseProjectBuild(), is("1725"));
+    assertThat(build.getUrl(), is("http://localhost/job/sonar/42/"));
+    assertThat(build.isSuccessful(), is(true));
+    assertThat(build.isStable(), is(false));
+  }
+
+  @Test
+  public void userCause() throws Exception {
+    String xml = "<freeStyleBuild>" +
+        "<action><cause><shortDescription>Started by user anonymous</shortDescription><userName>anonymous</userName></cause></action>" +
+        "<duration>10</duration><number>1</number><result>SUCCESS</result><timestamp>0</timestamp><url>job/sonar/1/</url>" +
+        "</freeStyleBuild>";
+    String json = "{\"number\":1,\"actions\":[null,{\"causes\":[{\"shortDescription\":\"Started by user anonymous\",\"userName\":\"anonymous\"}," +
+        "{\"shortDescription\":\"ignored\"}]}],\"duration\":10,\"result\":\"SUCCESS\",\"timestamp\":0,\"url\":\"job/sonar/1/\"}";
+
+    Build build = assertSameBuild(xml, json);
+    assertThat(build.getCauseUser(), is("anonymous"));
+  }
+
+  @Test
+  public void noCause() throws Exception {
+    String xml = "<freeStyleBuild><action></action><duration>0</duration><number>3</number>" +
+        "<timestamp>20</timestamp><url>job/sonar/3/</url></freeStyleBuild>";
+    String json = "{\"actions\":[{}],\"duration\":0,\"number\":3,\"result\":null,\"timestamp\":20,\"url\":\"job/sonar/3/\"}";
+
+    Build build = assertSameBuild(xml, json);
+    assertThat(build.getUrl(), nullValue());
+    assertThat(build.getResult(), nullValue());
+    assertThat(build.isSuccessful(), is(false));
+  }
+
+  @Test
+  public void timeInQueue() throws Exception {
+    String xml = "<freeStyleBuild>" +
+        "<action><cause><shortDescription>Started by user anonymous</shortDescription><userName>anonymous</userName></cause></action>" +
+        "<action><blockedDurationMillis>0</blockedDurationMillis><queuingDurationMillis>4500</queuingDurationMillis></action>" +
+        "<duration>10</duration><number>1</number><result>SUCCESS</result><timestamp>0</timestamp><url>job/sonar/1/</url>" +
+        "</freeStyleBuild>";
+    String json = "{\"number\":1,\"actions\":[{\"causes\":[{\"shortDescription\":\"Started by user anonymous\",\"userName\":\"anonymous\"}]}," +
+        "{\"blockedDurationMillis\":0,\"queuingDurationMillis\":4500}],\"duration\":10,\"result\":\"SUCCESS\",\"timestamp\":0,\"url\":\"job/sonar/1/\"}";
+
+    Build build = assertSameBuild(xml, json);
+    assertThat(build.getCauseUser(), is("anonymous"));
+    assertThat(build.getQueueDuration(), is(4500.0));
+  }
+
+  @Test
+  public void developers() throws Exception {
+    String xml = "<workflowRun><duration>10</duration><number>1</number><result>FAILURE</result><timestamp>0</timestamp>" +
+        "<changeSet><item><author><fullName>alice</fullName></author></item><item><author><fullName>bob</fullName></author></item></changeSet>" +
+        "<changeSet><item><author><fullName>alice</fullName></author></item></changeSet>" +
+        "</workflowRun>";
+    String json = "{\"number\":1,\"duration\":10,\"result\":\"FAILURE\",\"timestamp\":0,\"changeSets\":[" +
+        "{\"items\":[{\"author\":{\"fullName\":\"alice\",\"absoluteUrl\":\"user/alice\"}},{\"author\":{\"fullName\":\"bob\"}}],\"kind\":\"git\"}," +
+        "{\"items\":[{\"author\":{\"fullName\":\"alice\"}}]}]}";
+
+    Build build = assertSameBuild(xml, json);
+    assertThat(build.getDevelopers(), is(new String[]{"alice", "bob"}));
+    assertThat(build.convertToString().contains("dev=alice,bob;"), is(true));
+  }
+
+  private Build assertSameBuild(String xml, String json) throws Exception {
+    Build expected = new HudsonBuildUnmarshaller().toModel(DocumentHelper.parseText(xml).getRootElement());
+    JsonParser parser = new JsonFactory().createJsonParser(json);
+    parser.nextToken();
+    Build actual = new HudsonJsonBuildUnmarshaller().toModel(parser);
+    assertThat(fields(actual), is(fields(expected)));
+    assertThat(actual.convertToString(), is(expected.convertToString()));
+    return actual;
+  }
+
+  private static String fields(Build build) {
+    return StringUtils.substringAfter(build.toString(), "[");
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.ci.hudson;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.plugins.buildstability.Build;
+import org.sonar.plugins.buildstability.TestStatistics;
+import org.sonar.plugins.buildstability.ci.CiConnector;
+import org.sonar.plugins.buildstability.ci.CiFactory;
+import org.sonar.plugins.buildstability.ci.CiSettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class HudsonServerTest {
+  private static final int LARGE_REPORT = 50000;
+
+  private HttpServer httpServer;
+  private String base;
+  private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+
+  @Before
+  public void setUp() throws Exception {
+    httpServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    base = "http://localhost:" + httpServer.getAddress().getPort();
+    httpServer.createContext("/job/sonar/", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        requests.add(path);
+        if (path.endsWith("/testReport/api/xml")) {
+          sendTestReport(exchange, path);
+          return;
+        }
+        if (!path.startsWith("/job/sonar/3/")) {
+          // not a pipeline
+          exchange.sendResponseHeaders(404, -1);
+          exchange.close();
+          return;
+        }
+        byte[] bytes = ("{\"id\":\"3\",\"name\":\"#3\",\"status\":\"SUCCESS\",\"stages\":[" +
+            "{\"id\":\"6\",\"name\":\"Build\",\"status\":\"SUCCESS\",\"startTimeMillis\":1000,\"durationMillis\":60000,\"pauseDurationMillis\":0}," +
+            "{\"id\":\"9\",\"name\":\"Test\",\"status\":\"SUCCESS\",\"startTimeMillis\":61000,\"durationMillis\":120000,\"pauseDurationMillis\":0}," +
+            "{\"id\":\"12\",\"name\":\"Test\",\"status\":\"SUCCESS\",\"startTimeMillis\":181000,\"durationMillis\":30000,\"pauseDurationMillis\":0}" +
+            "],\"durationMillis\":211000}").getBytes("UTF-8");
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+      }
+    });
+    httpServer.start();
+  }
+
+  @After
+  public void tearDown() {
+    httpServer.stop(0);
+  }
+
+  @Test
+  public void shouldFetchStagesOfBuildsInPeriod() throws Exception {
+    CiConnector connector = CiFactory.create("Hudson:" + base + "/job/sonar", new CiSettings());
+    Build cached = new Build(4, 4000, "SUCCESS", true, true, 10);
+    cached.setStageDurations(Collections.<String, Double>emptyMap());
+    Build pipeline = new Build(3, 3000, "SUCCESS", true, true, 10);
+    Build freestyle = new Build(2, 2000, "SUCCESS", true, true, 10);
+    Build old = new Build(1, 1000, "SUCCESS", true, true, 10);
+
+    connector.fetchStages(Arrays.asList(cached, pipeline, freestyle, old), new Date(1000));
+
+    assertThat(requests.size(), is(2));
+    Map<String, Double> stages = pipeline.getStageDurations();
+    assertThat(stages.size(), is(2));
+    assertThat(stages.get("Build"), is(60000.0));
+    assertThat(stages.get("Test"), is(150000.0));
+    assertThat(freestyle.getStageDurations().isEmpty(), is(true));
+    assertThat(old.getStageDurations(), nullValue());
+    assertThat(connector.getStatistics().getRequests(), is(2));
+  }
+
+  @Test
+  public void shouldStreamTestReports() throws Exception {
+    CiConnector connector = CiFactory.create("Hudson:" + base + "/job/sonar", new CiSettings());
+    List<Build> builds = Arrays.asList(
+        new Build(4, 4000, "SUCCESS", true, true, 10),
+        new Build(3, 3000, "FAILURE", false, false, 10),
+        new Build(2, 2000, "SUCCESS", true, true, 10),
+        new Build(1, 1000, "SUCCESS", true, true, 10)
+    );
+
+    TestStatistics tests = connector.fetchTestReports(builds, new Date(1000));
+
+    // build 1 is out of period, build 4 has no tests
+    assertThat(requests.size(), is(3));
+    assertThat(tests.size(), is(LARGE_REPORT + 2));
+    assertThat(tests.getRuns("org.example.FlakyTest.test"), is(2));
+    assertThat(tests.getFailures("org.example.FlakyTest.test"), is(1));
+    assertThat(tests.getFlakiest(10), is(Arrays.asList("org.example.FlakyTest.test")));
+    assertThat(tests.getSlowest(1), is(Arrays.asList("org.example.SlowTest.test")));
+    assertThat(tests.getAverageDuration("org.example.SlowTest.test"), is(100000.0));
+    assertThat(tests.getRuns("org.example.SkippedTest.test"), is(0));
+    assertThat(connector.getStatistics().getBytes() > LARGE_REPORT * 100L, is(true));
+  }
+
+  @Test
+  public void shouldReplayRecordedResponses() throws Exception {
+    File archive = new File("target/test-tmp/HudsonServerTest/responses.zip");
+    archive.getParentFile().mkdirs();
+    CiConnector recorder = CiFactory.create("Hudson:" + base + "/job/sonar", new CiSettings().setRecordTo(archive));
+    List<Build> builds = Arrays.asList(
+        new Build(3, 3000, "SUCCESS", true, true, 10),
+        new Build(2, 2000, "FAILURE", false, false, 10));
+    recorder.fetchStages(builds, new Date(1000));
+    TestStatistics recorded = recorder.fetchTestReports(builds, new Date(1000));
+    recorder.close();
+    assertThat(requests.size(), is(4));
+
+    CiConnector replayer = CiFactory.create("Hudson:" + base + "/job/sonar", new CiSettings().setReplayFrom(archive));
+    builds = Arrays.asList(
+        new Build(3, 3000, "SUCCESS", true, true, 10),
+        new Build(2, 2000, "FAILURE", false, false, 10));
+    replayer.fetchStages(builds, new Date(1000));
+    TestStatistics replayed = replayer.fetchTestReports(builds, new Date(1000));
+    replayer.close();
+
+    assertThat(requests.size(), is(4));
+    assertThat(builds.get(0).getStageDurations().get("Test"), is(150000.0));
+    assertThat(builds.get(1).getStageDurations().isEmpty(), is(true));
+    assertThat(replayed.size(), is(recorded.size()));
+    assertThat(replayed.getFailures("org.example.FlakyTest.test"), is(1));
+    assertThat(replayer.getStatistics().getBytes(), is(recorder.getStatistics().getBytes()));
+  }
+
+  /**
+   * Report of build 2 contains a lot of tests and is sent in chunks.
+   */
+  private static void sendTestReport(HttpExchange exchange, String path) throws IOException {
+    int number = Integer.parseInt(path.split("/")[3]);
+    if (number != 2 && number != 3) {
+      exchange.sendResponseHeaders(404, -1);
+      exchange.close();
+      return;
+    }
+    exchange.getResponseHeaders().add("Content-Type", "application/xml");
+    exchange.sendResponseHeaders(200, 0);
+    Writer out = new OutputStreamWriter(exchange.getResponseBody(), "UTF-8");
+    out.write("<testResult><suite>");
+    if (number == 2) {
+      for (int i = 0; i < LARGE_REPORT; i++) {
+        out.write(testCase("org.example.LargeTest", "test" + i, "0.001", "PASSED"));
+      }
+      out.write(testCase("org.example.FlakyTest", "test", "1.0", "PASSED"));
+    } else {
+      out.write(testCase("org.example.FlakyTest", "test", "1.0", "REGRESSION"));
+      out.write(testCase("org.example.SlowTest", "test", "100.0", "PASSED"));
+      out.write(testCase("org.example.SkippedTest", "test", "0.0", "SKIPPED"));
+    }
+    out.write("</suite></testResult>");
+    out.close();
+  }
+
+  private static String testCase(String className, String name, String duration, String status) {
+    return "<case><className>" + className + "</className><duration>" + duration + "</duration>" +
+        "<name>" + name + "</name><status>" + status + "</status></case>";
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.notification;
+
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.batch.SensorContext;
+import org.sonar.api.resources.Project;
+import org.sonar.api.test.IsMeasure;
+import org.sonar.plugins.buildstability.Build;
+import org.sonar.plugins.buildstability.BuildStabilityMetrics;
+import org.sonar.plugins.buildstability.BuildStabilityResults;
+import org.sonar.plugins.buildstability.BuildStabilitySensor;
+import org.sonar.plugins.buildstability.store.BuildHistory;
+import org.sonar.plugins.buildstability.store.BuildStore;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BuildNotificationReceiverTest {
+  private File directory;
+  private BuildStore store;
+  private BuildNotificationReceiver receiver;
+  private HttpClient client = new HttpClient();
+
+  @Before
+  public void setUp() throws Exception {
+    directory = new File("target/test-tmp/BuildNotificationReceiverTest");
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    store = new BuildStore(directory);
+    receiver = new BuildNotificationReceiver(store, 0);
+    receiver.start();
+    BuildStabilityResults.clear();
+  }
+
+  @After
+  public void tearDown() {
+    receiver.stop();
+  }
+
+  @Test
+  public void shouldStoreCompletedBuilds() throws Exception {
+    assertThat(post("{\"name\":\"sonar\",\"url\":\"job/sonar/\",\"build\":{\"number\":1,\"phase\":\"STARTED\",\"url\":\"job/sonar/1/\"}}"), is(200));
+    assertThat(post("{\"name\":\"sonar\",\"url\":\"job/sonar/\",\"build\":{\"number\":1,\"phase\":\"COMPLETED\",\"status\":\"FAILURE\"," +
+        "\"url\":\"job/sonar/1/\",\"full_url\":\"http://localhost/job/sonar/1/\",\"timestamp\":1000,\"duration\":20000}}"), is(200));
+    assertThat(post("{\"name\":\"sonar\",\"url\":\"job/sonar/\",\"build\":{\"number\":1,\"phase\":\"FINALIZED\",\"status\":\"FAILURE\"}}"), is(200));
+    assertThat(post("{\"job\":\"sonar\",\"number\":2,\"result\":\"SUCCESS\",\"timestamp\":2000,\"duration\":10000}"), is(200));
+    assertThat(post("{\"job\":\"other\",\"number\":7,\"result\":\"SUCCESS\",\"timestamp\":2000,\"duration\":10000}"), is(200));
+    assertThat(post("{\"name\":\"sonar\"}"), is(400));
+
+    List<Build> builds = store.getBuilds("sonar");
+    assertThat(builds.size(), is(2));
+    assertThat(builds.get(0).getNumber(), is(1));
+    assertThat(builds.get(0).getTimestamp(), is(1000L));
+    assertThat(builds.get(0).getDuration(), is(20000.0));
+    assertThat(builds.get(0).getUrl(), is("http://localhost/job/sonar/1/"));
+    assertThat(builds.get(0).isSuccessful(), is(false));
+    assertThat(builds.get(1).getNumber(), is(2));
+    assertThat(builds.get(1).isSuccessful(), is(true));
+
+    Configuration configuration = new BaseConfiguration();
+    configuration.setProperty(BuildStabilitySensor.CI_URL_PROPERTY, "Hudson:http://localhost/job/sonar/");
+    configuration.setProperty(BuildStabilitySensor.STORE_PROPERTY, directory.getPath());
+    configuration.setProperty(BuildStabilitySensor.DAYS_PROPERTY, 100000);
+    Project project = mock(Project.class);
+    when(project.getConfiguration()).thenReturn(configuration);
+    SensorContext context = mock(SensorContext.class);
+    new BuildStabilitySensor().analyse(project, context);
+
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.BUILDS, 2.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.FAILED, 1.0)));
+    verify(context).saveMeasure(argThat(new IsMeasure(BuildStabilityMetrics.AVG_TIME_TO_FIX, 1000.0)));
+  }
+
+  @Test
+  public void shouldComputeDurationFromStartedNotification() throws Exception {
+    receiver.receive(BuildNotification.parse(stream("{\"name\":\"sonar\",\"build\":{\"number\":3,\"phase\":\"STARTED\"}}")), 5000);
+    receiver.receive(BuildNotification.parse(stream("{\"name\":\"sonar\",\"build\":{\"number\":3,\"phase\":\"COMPLETED\",\"status\":\"UNSTABLE\"}}")), 8000);
+
+    Build build = store.getBuilds("sonar").get(0);
+    assertThat(build.getTimestamp(), is(5000L));
+    assertThat(build.getDuration(), is(3000.0));
+    assertThat(build.isSuccessful(), is(true));
+    assertThat(build.isStable(), is(false));
+  }
+
+  @Test
+  public void shouldStoreOnlyOnePhaseOfBuild() throws Exception {
+    receiver.receive(BuildNotification.parse(stream("{\"name\":\"sonar\",\"build\":{\"number\":4,\"phase\":\"STARTED\"}}")), 5000);
+    receiver.receive(BuildNotification.parse(stream("{\"name\":\"sonar\",\"build\":{\"number\":4,\"phase\":\"COMPLETED\",\"status\":\"SUCCESS\"}}")), 8000);
+    receiver.receive(BuildNotification.parse(stream("{\"name\":\"sonar\",\"build\":{\"number\":4,\"phase\":\"FINALIZED\",\"status\":\"SUCCESS\"}}")), 9000);
+    // COMPLETED notification lost
+    receiver.receive(BuildNotification.parse(stream("{\"name\":\"sonar\",\"build\":{\"number\":5,\"phase\":\"STARTED\"}}")), 10000);
+    receiver.receive(BuildNotification.parse(stream("{\"name\":\"sonar\",\"build\":{\"number\":5,\"phase\":\"FINALIZED\",\"status\":\"FAILURE\"}}")), 12000);
+
+    BuildHistory history = new BuildHistory(new File(directory, "sonar.builds"), new File(directory, "sonar.strings"),
+        new File(directory, "sonar.names"));
+    assertThat(history.open().size(), is(2));
+    List<Build> builds = store.getBuilds("sonar");
+    assertThat(builds.get(0).getTimestamp(), is(5000L));
+    assertThat(builds.get(0).getDuration(), is(3000.0));
+    assertThat(builds.get(1).getTimestamp(), is(10000L));
+    assertThat(builds.get(1).getDuration(), is(2000.0));
+  }
+
+  @Test
+  public void shouldCompactInBackgroundBeforeStop() throws Exception {
+    long day = 24L * 60 * 60 * 1000;
+    receiver.setDaysToKeep(1);
+    receiver.receive(BuildNotification.parse(stream("{\"job\":\"sonar\",\"number\":1,\"result\":\"SUCCESS\",\"timestamp\":1000}")), 1000);
+    receiver.receive(BuildNotification.parse(stream("{\"job\":\"sonar\",\"number\":2,\"result\":\"SUCCESS\",\"timestamp\":" + 3 * day + "}")), 3 * day);
+    receiver.stop();
+
+    assertThat(store.getBuilds("sonar").size(), is(1));
+    assertThat(store.getRollups("sonar").getTotal(new Date(0), store.getBuildsSince("sonar", new Date(0))).getSuccessful(), is(2));
+  }
+
+  @Test
+  public void shouldRejectMalformedNotifications() throws Exception {
+    assertThat(post("{\"job\":\"sonar\",\"number\":"), is(400));
+    assertThat(post("{\"job\":\"sonar\",\"number\":\"one\"}"), is(400));
+    assertThat(post("{\"job\":\"sonar\",\"number\":99999999999}"), is(400));
+    assertThat(post("[]"), is(400));
+    assertThat(execute(new GetMethod(getUrl(BuildNotificationReceiver.CONTEXT))), is(405));
+    assertThat(execute(new PostMethod(getUrl("/other"))), is(404));
+
+    assertThat(post("{\"job\":\"sonar\",\"number\":1,\"result\":\"SUCCESS\"}"), is(200));
+    assertThat(store.getBuilds("sonar").size(), is(1));
+  }
+
+  @Test
+  public void shouldAcceptOnlyNotificationsWithToken() throws Exception {
+    receiver.stop();
+    receiver = new BuildNotificationReceiver(store, 0);
+    receiver.setToken("secret");
+    receiver.start();
+
+    assertThat(post("{\"job\":\"sonar\",\"number\":1,\"result\":\"SUCCESS\"}"), is(401));
+    PostMethod method = createPost(getUrl(BuildNotificationReceiver.CONTEXT + "?token=other"), "{\"job\":\"sonar\",\"number\":2}");
+    assertThat(execute(method), is(401));
+    method = createPost(getUrl(BuildNotificationReceiver.CONTEXT + "?token=secret"), "{\"job\":\"sonar\",\"number\":3}");
+    assertThat(execute(method), is(200));
+    method = createPost(getUrl(BuildNotificationReceiver.CONTEXT), "{\"job\":\"sonar\",\"number\":4}");
+    method.setRequestHeader(BuildNotificationReceiver.TOKEN_HEADER, "secret");
+    assertThat(execute(method), is(200));
+
+    List<Build> builds = store.getBuilds("sonar");
+    assertThat(builds.size(), is(2));
+    assertThat(builds.get(0).getNumber(), is(3));
+  }
+
+  private String getUrl(String path) {
+    return "http://127.0.0.1:" + receiver.getPort() + path;
+  }
+
+  private int post(String json) throws Exception {
+    return execute(createPost(getUrl(BuildNotificationReceiver.CONTEXT), json));
+  }
+
+  private static PostMethod createPost(String url, String json) throws Exception {
+    PostMethod method = new PostMethod(url);
+    method.setRequestEntity(new StringRequestEntity(json, "application/json", "UTF-8"));
+    return method;
+  }
+
+  private int execute(HttpMethod method) throws Exception {
+    try {
+      return client.executeMethod(method);
+    } finally {
+      method.releaseConnection();
+    }
+  }
+
+  private static InputStream stream(String json) throws Exception {
+    return new ByteArrayInputStream(json.getBytes("UTF-8"));
+  }
+}
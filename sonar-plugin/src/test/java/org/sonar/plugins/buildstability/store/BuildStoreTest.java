@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.store;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.plugins.buildstability.Build;
+import org.sonar.plugins.buildstability.BuildAccumulator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class BuildStoreTest {
+  private File directory;
+  private BuildStore store;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = new File("target/test-tmp/BuildStoreTest");
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    store = new BuildStore(directory);
+  }
+
+  @Test
+  public void shouldRestoreBuilds() throws Exception {
+    store.append("job", new Build(2, 2000, "FAILURE", false, false, 1000)
+        .setUrl("http://localhost/job/2/")
+        .setCauseUser("évgeny"));
+    store.append("job", new Build(1, 1000, "SUCCESS", true, true, 3000));
+    assertThat(store.append("job", new Build(2, 2500, "SUCCESS", true, true, 1000)), is(false));
+    BuildHistory history = new BuildHistory(new File(directory, "job.builds"), new File(directory, "job.strings"),
+        new File(directory, "job.names"));
+    assertThat(history.open().size(), is(2));
+
+    List<Build> builds = store.getBuilds("job");
+    assertThat(builds.size(), is(2));
+    assertThat(builds.get(0).convertToString(), is(new Build(1, 1000, "SUCCESS", true, true, 3000).convertToString()));
+    Build build = builds.get(1);
+    assertThat(build.getNumber(), is(2));
+    assertThat(build.getTimestamp(), is(2000L));
+    assertThat(build.getDuration(), is(1000.0));
+    assertThat(build.getResult(), is("FAILURE"));
+    assertThat(build.isSuccessful(), is(false));
+    assertThat(build.isStable(), is(false));
+    assertThat(build.getUrl(), is("http://localhost/job/2/"));
+    assertThat(build.getCauseUser(), is("évgeny"));
+    assertThat(build.getCauseProject(), nullValue());
+
+    assertThat(store.getBuilds("other").size(), is(0));
+  }
+
+  @Test
+  public void shouldShareCausesOfBuilds() throws Exception {
+    store.append("job", new Build(1, 1000, "SUCCESS", true, true, 10).setCauseUser(new String("anonymous")));
+    store.append("job", new Build(2, 2000, "SUCCESS", true, true, 10).setCauseUser(new String("anonymous")));
+
+    List<Build> builds = store.getBuilds("job");
+    assertThat(builds.get(0).getCauseUser() == builds.get(1).getCauseUser(), is(true));
+  }
+
+  @Test
+  public void shouldStoreUsersAndUpstreamProjectsOnceInNamesTable() throws Exception {
+    // 864 builds on first day
+    for (int i = 1; i <= 1002; i++) {
+      store.append("job", new Build(i, i * 100000L, "SUCCESS", true, true, 10)
+          .setCauseUser(i % 2 == 0 ? "alice" : "bob")
+          .setCauseProject(i > 2 ? "core" + i : null));
+    }
+    File names = new File(directory, "job.names");
+    // alice, bob and core3 .. core1000, then table is full
+    long length = 1000 * 4 + 5 + 3 + 7 * 5 + 90 * 6 + 900 * 7 + 8;
+    assertThat(names.length(), is(length));
+    List<Build> builds = store.getBuilds("job");
+    assertThat(builds.get(0).getCauseUser(), is("bob"));
+    assertThat(builds.get(0).getCauseProject(), nullValue());
+    assertThat(builds.get(1).getCauseUser(), is("alice"));
+
+    assertThat(store.compact("job", new Date(BuildRollups.DAY)), is(863));
+    store = new BuildStore(directory);
+    store.append("job", new Build(1003, 1003 * 100000L, "SUCCESS", true, true, 10).setCauseUser("alice"));
+    assertThat(names.length(), is(length));
+    builds = store.getBuilds("job");
+    assertThat(builds.get(0).getNumber(), is(864));
+    assertThat(builds.get(0).getCauseUser(), is("alice"));
+    assertThat(builds.get(136).getCauseProject(), is("core1000"));
+    assertThat(builds.get(137).getCauseProject(), is("core1001"));
+    assertThat(builds.get(138).getCauseProject(), is("core1002"));
+    assertThat(builds.get(139).getCauseUser(), is("alice"));
+  }
+
+  @Test
+  public void shouldReturnBuildsSince() throws Exception {
+    for (int i = 1; i <= 5; i++) {
+      store.append("job", new Build(i, i * 1000, "SUCCESS", true, true, 10));
+    }
+
+    List<Build> builds = store.getBuildsSince("job", new Date(2500));
+    assertThat(builds.size(), is(4));
+    assertThat(builds.get(0).getNumber(), is(5));
+    assertThat(builds.get(3).getNumber(), is(2));
+  }
+
+  @Test
+  public void shouldKeepFirstOfDuplicatesWrittenBeforeDeduplication() throws Exception {
+    BuildHistory history = new BuildHistory(new File(directory, "job.builds"), new File(directory, "job.strings"), new File(directory, "job.names"));
+    directory.mkdirs();
+    history.append(new Build(3, 3000, "SUCCESS", true, true, 10));
+    history.append(new Build(1, 1000, "FAILURE", false, false, 10));
+    history.append(new Build(3, 4000, "SUCCESS", true, true, 0));
+
+    List<Build> builds = store.getBuilds("job");
+    assertThat(builds.size(), is(2));
+    assertThat(builds.get(0).getNumber(), is(1));
+    assertThat(builds.get(1).getTimestamp(), is(3000L));
+  }
+
+  @Test
+  public void shouldIgnoreIncompleteRecord() throws Exception {
+    store.append("job", new Build(1, 1000, "SUCCESS", true, true, 10));
+    BuildHistory history = new BuildHistory(new File(directory, "job.builds"), new File(directory, "job.strings"), new File(directory, "job.names"));
+    FileOutputStream out = new FileOutputStream(history.getRecordsFile(), true);
+    out.write(new byte[BuildHistory.RECORD_SIZE - 1]);
+    out.close();
+
+    assertThat(history.open().size(), is(1));
+    assertThat(store.getBuilds("job").size(), is(1));
+  }
+
+  @Test
+  public void shouldCompactWholeDays() throws Exception {
+    long day = BuildRollups.DAY;
+    store.append("job", new Build(1, day, "SUCCESS", true, true, 1000));
+    store.append("job", new Build(2, day + 10, "FAILURE", false, false, 500));
+    store.append("job", new Build(3, 2 * day, "UNSTABLE", false, true, 3000));
+    store.append("job", new Build(4, 9 * day, "SUCCESS", true, true, 2000));
+
+    assertThat(store.compact("job", new Date(2 * day + 1)), is(2));
+    assertThat(store.compact("job", new Date(2 * day + 1)), is(0));
+    // Day was compacted
+    assertThat(store.append("job", new Build(5, day + 20, "SUCCESS", true, true, 1000)), is(false));
+
+    List<Build> builds = store.getBuilds("job");
+    assertThat(builds.size(), is(2));
+    assertThat(builds.get(0).getNumber(), is(3));
+
+    BuildRollups rollups = store.getRollups("job");
+    assertThat(rollups.getCompactedBefore(), is(2 * day));
+    assertThat(rollups.get(day).getCount(), is(2));
+    assertThat(rollups.get(day).getFailed(), is(1));
+
+    BuildAccumulator total = rollups.getTotal(new Date(0), store.getBuildsSince("job", new Date(0)));
+    assertThat(total.getCount(), is(4));
+    assertThat(total.getSuccessful(), is(2));
+    assertThat(total.getUnstable(), is(1));
+    assertThat(total.getShortestDuration(), is(1000.0));
+    assertThat(total.getLongestDuration(), is(3000.0));
+    // Fix spans compacted and kept days
+    assertThat(total.getFixes(), is(1));
+    assertThat(total.getTotalTimeToFix(), is(day - 10.0));
+    assertThat(total.getStabilizations(), is(1));
+    assertThat(total.getTotalBuildsToStabilize(), is(1.0));
+    // Compacted first day is taken as whole
+    assertThat(rollups.getTotal(new Date(day + 5), store.getBuildsSince("job", new Date(day + 5))).getCount(), is(4));
+    assertThat(rollups.getTotal(new Date(2 * day), store.getBuildsSince("job", new Date(2 * day))).getCount(), is(2));
+  }
+
+  @Test
+  public void shouldRecomputeRollupOfDayForBuildOutOfOrder() throws Exception {
+    long day = BuildRollups.DAY;
+    store.append("job", new Build(1, day, "SUCCESS", true, true, 10));
+    store.append("job", new Build(3, day + 20, "SUCCESS", true, true, 10));
+    store.append("job", new Build(2, day + 10, "FAILURE", false, false, 10));
+
+    BuildAccumulator rollup = store.getRollups("job").get(day);
+    assertThat(rollup.getCount(), is(3));
+    assertThat(rollup.getFixes(), is(1));
+    assertThat(rollup.getTotalTimeToFix(), is(10.0));
+    assertThat(rollup.getTotalBuildsToFix(), is(1.0));
+  }
+
+  @Test
+  public void shouldRestoreRollupsOfBuildsAppendedAfterLastWrite() throws Exception {
+    long day = BuildRollups.DAY;
+    for (int i = 1; i <= BuildStore.WRITE_INTERVAL + 10; i++) {
+      store.append("job", new Build(i, day + i, "SUCCESS", true, true, 10));
+    }
+    File rollupsFile = new File(directory, "job.rollups");
+    assertThat(BuildRollups.read(rollupsFile).get(day).getCount(), is(BuildStore.WRITE_INTERVAL));
+
+    // Another store, e.g. of analysis, reads unwritten builds from history
+    assertThat(new BuildStore(directory).getRollups("job").get(day).getCount(), is(BuildStore.WRITE_INTERVAL + 10));
+    assertThat(store.getRollups("job").get(day).getCount(), is(BuildStore.WRITE_INTERVAL + 10));
+
+    store.flush();
+    assertThat(BuildRollups.read(rollupsFile).get(day).getCount(), is(BuildStore.WRITE_INTERVAL + 10));
+  }
+
+  @Test
+  public void shouldDetectDuplicateOfEarlierBuildAfterRestart() throws Exception {
+    store.append("job", new Build(1, 1000, "SUCCESS", true, true, 10));
+    store.append("job", new Build(2, 2000, "SUCCESS", true, true, 10));
+
+    BuildStore restarted = new BuildStore(directory);
+    assertThat(restarted.append("job", new Build(2, 2000, "SUCCESS", true, true, 10)), is(false));
+    assertThat(restarted.append("job", new Build(3, 3000, "SUCCESS", true, true, 10)), is(true));
+    assertThat(restarted.getRollups("job").get(0).getCount(), is(3));
+  }
+
+  @Test
+  public void shouldAlignDaysToUtc() throws Exception {
+    // 2010-06-16 15:00 UTC
+    assertThat(BuildRollups.getDay(1276700400000L), is(1276646400000L));
+    assertThat(BuildRollups.getDay(-1), is(-BuildRollups.DAY));
+    // Monday 2010-06-14 and 2010-06-01
+    assertThat(BuildRollups.getWeek(1276700400000L), is(1276473600000L));
+    assertThat(BuildRollups.getWeek(1276473600000L), is(1276473600000L));
+    assertThat(BuildRollups.getMonth(1276700400000L), is(1275350400000L));
+  }
+
+  @Test
+  public void shouldTakeTotalOfLongPeriodFromWeeksAndMonths() throws Exception {
+    long day = BuildRollups.DAY;
+    // 2010-01-01
+    long start = 1262304000000L;
+    List<Build> builds = new ArrayList<Build>();
+    Random random = new Random(42);
+    for (int i = 1; i <= 400; i++) {
+      boolean successful = random.nextInt(3) != 0;
+      Build build = new Build(i, start + i * day / 2, "", random.nextInt(3) != 0, successful, 1 + random.nextInt(10000));
+      builds.add(build);
+      store.append("job", build);
+    }
+    // Out of order recomputes day, week and month
+    store.append("job", new Build(0, start + day / 4, "", true, true, 500));
+    builds.add(0, store.getBuilds("job").get(0));
+    BuildRollups rollups = store.getRollups("job");
+    assertThat(rollups.getMonthRollup(start).getCount(), is(62));
+    assertThat(rollups.getWeekRollup(BuildRollups.getWeek(start)).getCount(), is(6));
+
+    for (long since : new long[]{start, start + 3 * day + 5, start + 40 * day, start + 150 * day}) {
+      List<Build> period = new ArrayList<Build>();
+      for (int i = builds.size() - 1; i >= 0; i--) {
+        period.add(0, builds.get(i));
+        if (builds.get(i).getTimestamp() <= since) {
+          break;
+        }
+      }
+      BuildAccumulator expected = BuildAccumulator.aggregate(period);
+      BuildAccumulator actual = rollups.getTotal(new Date(since), store.getBuildsSince("job", new Date(since)));
+      assertThat(actual.convertToString(), is(expected.convertToString()));
+    }
+  }
+}
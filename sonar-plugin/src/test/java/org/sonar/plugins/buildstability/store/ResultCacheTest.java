@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2010 Evgeny Mandrikov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sonar.plugins.buildstability.store;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.batch.Event;
+import org.sonar.plugins.buildstability.Build;
+import org.sonar.plugins.buildstability.BuildStabilityMeasures;
+import org.sonar.plugins.buildstability.BuildStabilityMetrics;
+
+import java.io.File;
+import java.util.Date;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ResultCacheTest {
+  private ResultCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    File directory = new File("target/test-tmp/ResultCacheTest");
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    cache = new ResultCache(directory);
+  }
+
+  @Test
+  public void shouldRestoreMeasuresAndEvents() throws Exception {
+    BuildStabilityMeasures measures = new BuildStabilityMeasures()
+        .add(BuildStabilityMetrics.BUILDS, 3.0)
+        .add(BuildStabilityMetrics.RESULTS, "1=g;2=r;3=g")
+        .add(BuildStabilityMetrics.CAUSE_DESCRIPTION, (String) null)
+        .addEvent("Build duration increased", "Changed by 10 sec", Event.CATEGORY_ALERT, new Date(1000))
+        .expireAt(5000);
+    cache.put("job", build(3, "SUCCESS", 10), measures);
+
+    BuildStabilityMeasures cached = cache.get("job", build(3, "SUCCESS", 10), 4000);
+    assertThat(cached, notNullValue());
+    assertThat(cached.getMetrics(), is(measures.getMetrics()));
+    assertThat(cached.getValue(BuildStabilityMetrics.BUILDS), is(3.0));
+    assertThat(cached.getData(BuildStabilityMetrics.RESULTS), is("1=g;2=r;3=g"));
+    assertThat(cached.getData(BuildStabilityMetrics.CAUSE_DESCRIPTION), nullValue());
+    assertThat(cached.getEvents().size(), is(1));
+    assertThat(cached.getEvents().get(0).getDate(), is(new Date(1000)));
+    assertThat(cached.getExpiry(), is(5000L));
+  }
+
+  @Test
+  public void shouldNotReuseResultsAfterNewBuild() throws Exception {
+    cache.put("job", build(3, null, 0), new BuildStabilityMeasures().add(BuildStabilityMetrics.BUILDS, 3.0));
+
+    assertThat(cache.get("job", build(4, "SUCCESS", 10), 0), nullValue());
+    // last build completed
+    assertThat(cache.get("job", build(3, "SUCCESS", 10), 0), nullValue());
+    assertThat(cache.get("other", build(3, null, 0), 0), nullValue());
+    assertThat(cache.get("job", build(3, null, 0), 0), notNullValue());
+  }
+
+  @Test
+  public void shouldNotReuseExpiredResults() throws Exception {
+    cache.put("job", build(3, "SUCCESS", 10), new BuildStabilityMeasures().expireAt(5000));
+
+    assertThat(cache.get("job", build(3, "SUCCESS", 10), 4999), notNullValue());
+    assertThat(cache.get("job", build(3, "SUCCESS", 10), 5000), nullValue());
+  }
+
+  private static Build build(int number, String result, double duration) {
+    return new Build(number, 0, result, true, true, duration);
+  }
+}